@@ -0,0 +1,147 @@
+package bytecode.rag_chat_storage.benchmark;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of TOAST compression of message text: writing and reading a session's 50 messages with the text stored
+ * uncompressed (EXTERNAL), compressed and moved out of the row when over 2 KB (EXTENDED, the Postgres default and
+ * what chat_messages.content uses since V15), or compressed and kept in the row (MAIN). The bytes stored per message
+ * for each setting are printed once the table is seeded.
+ *
+ * The embedded Postgres is built without LZ4, so this compares against pglz; LZ4 on a server built with it
+ * compresses and decompresses faster at a slightly lower ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int MESSAGES_PER_SESSION = 50;
+    private static final int SEEDED_SESSIONS = 20;
+    private static final String[] WORDS = ("the a of to and in for on with is that revenue forecast quarter budget hiring " +
+            "launch customer pipeline retention churn margin growth cost plan team product release risk assumption " +
+            "estimate region market share pricing contract renewal support latency index query vector embedding " +
+            "document passage source model answer question context summary").split(" ");
+
+    @Param({"EXTERNAL", "EXTENDED", "MAIN"})
+    public String storage;
+
+    // Characters per message; retrieved contexts and long answers run to tens of KB
+    @Param({"1000", "4000", "32000"})
+    public int payloadLength;
+
+    private EmbeddedPostgres postgres;
+    private Connection connection;
+    private List<String> payloads;
+    private long nextSessionId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        connection = postgres.getPostgresDatabase().getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE bench_messages (id BIGSERIAL PRIMARY KEY, session_id BIGINT NOT NULL, content TEXT NOT NULL)");
+            statement.execute("ALTER TABLE bench_messages ALTER COLUMN content SET STORAGE " + storage);
+            statement.execute("CREATE INDEX ON bench_messages (session_id, id)");
+        }
+
+        Random random = new Random(42);
+        payloads = new ArrayList<>(MESSAGES_PER_SESSION);
+        for (int i = 0; i < MESSAGES_PER_SESSION; i++) {
+            payloads.add(prose(random, payloadLength));
+        }
+        for (int i = 0; i < SEEDED_SESSIONS; i++) {
+            insertSession();
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("VACUUM ANALYZE bench_messages");
+            try (ResultSet sizes = statement.executeQuery("SELECT pg_table_size('bench_messages') / count(*), " +
+                    "avg(octet_length(content))::bigint, avg(pg_column_size(content))::bigint FROM bench_messages")) {
+                sizes.next();
+                System.out.printf("%n%s, %d characters: %d bytes of table per message, %d bytes of text stored as %d%n",
+                        storage, payloadLength, sizes.getLong(1), sizes.getLong(2), sizes.getLong(3));
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void dropInserted() throws Exception {
+        // Keeps the table at its seeded size, so every iteration reads and writes the same amount of data
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM bench_messages WHERE session_id >= " + SEEDED_SESSIONS);
+            statement.execute("VACUUM bench_messages");
+        }
+        nextSessionId = SEEDED_SESSIONS;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public long insertSession() throws Exception {
+        long sessionId = nextSessionId++;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench_messages (session_id, content) VALUES (?, ?)")) {
+            for (String payload : payloads) {
+                insert.setLong(1, sessionId);
+                insert.setString(2, payload);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        return sessionId;
+    }
+
+    @Benchmark
+    public long readSession() throws Exception {
+        long characters = 0;
+        try (PreparedStatement select = connection.prepareStatement("SELECT content FROM bench_messages WHERE session_id = ? ORDER BY id")) {
+            select.setLong(1, nextSessionId % SEEDED_SESSIONS);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    characters += rows.getString(1).length();
+                }
+            }
+        }
+        return characters;
+    }
+
+    /**
+     * Text drawn from a small vocabulary, which compresses about as well as English prose
+     */
+    private static String prose(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return text.substring(0, length);
+    }
+}
@@ -0,0 +1,112 @@
+package bytecode.rag_chat_storage.benchmark;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.ChatSessionDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.entity.ChatSession;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity-to-DTO mapping and Jackson (de)serialization of messages and sessions, as done for every API response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DtoSerializationBenchmark {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    // Characters of RAG context per message; retrieved passages make up most of a message's size
+    @Param({"0", "4000"})
+    public int contextLength;
+
+    @Param({"50"})
+    public int messagesPerSession;
+
+    // Same setup as Spring Boot's auto-configured ObjectMapper: java.time module, ISO dates
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private ChatSession session;
+    private List<ChatMessage> messages;
+    private ChatMessageDto messageDto;
+    private ChatSessionDto sessionDto;
+    private byte[] messageJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        session = new ChatSession("bench-user", "Quarterly budget review");
+        session.setId(1L);
+        session.setCreatedAt(T0);
+        session.setUpdatedAt(T0);
+
+        String context = "retrieved passage ".repeat(contextLength / 18 + 1).substring(0, contextLength);
+        messages = new ArrayList<>(messagesPerSession);
+        for (int i = 0; i < messagesPerSession; i++) {
+            ChatMessage message = new ChatMessage(session, i % 2 == 0 ? ChatMessage.SenderType.USER : ChatMessage.SenderType.ASSISTANT,
+                    "How does the forecast for Q" + (i % 4 + 1) + " compare with last year's actuals? ".repeat(4),
+                    contextLength == 0 ? null : context);
+            message.setId((long) i + 1);
+            message.setCreatedAt(T0.plusSeconds(i));
+            messages.add(message);
+        }
+
+        messageDto = new ChatMessageDto(messages.get(messages.size() - 1));
+        sessionDto = sessionWithMessages();
+        messageJson = objectMapper.writeValueAsBytes(messageDto);
+    }
+
+    @Benchmark
+    public ChatMessageDto messageDtoFromEntity() {
+        return new ChatMessageDto(messages.get(0));
+    }
+
+    @Benchmark
+    public ChatSessionDto sessionDtoWithMessages() {
+        return sessionWithMessages();
+    }
+
+    @Benchmark
+    public byte[] serializeMessage() throws Exception {
+        return objectMapper.writeValueAsBytes(messageDto);
+    }
+
+    @Benchmark
+    public byte[] serializeSessionWithMessages() throws Exception {
+        return objectMapper.writeValueAsBytes(sessionDto);
+    }
+
+    @Benchmark
+    public ChatMessageDto deserializeMessage() throws Exception {
+        return objectMapper.readValue(messageJson, ChatMessageDto.class);
+    }
+
+    private ChatSessionDto sessionWithMessages() {
+        ChatSessionDto dto = new ChatSessionDto(session);
+        List<ChatMessageDto> dtos = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            dtos.add(new ChatMessageDto(message));
+        }
+        dto.setMessages(dtos);
+        return dto;
+    }
+}
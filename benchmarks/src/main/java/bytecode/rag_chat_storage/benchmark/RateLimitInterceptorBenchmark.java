@@ -0,0 +1,112 @@
+package bytecode.rag_chat_storage.benchmark;
+
+import bytecode.rag_chat_storage.interceptor.RateLimitInterceptor;
+import bytecode.rag_chat_storage.ratelimit.InMemoryBucketStore;
+import bytecode.rag_chat_storage.ratelimit.RateLimitPolicyResolver;
+import bytecode.rag_chat_storage.ratelimit.RateLimitProperties;
+import bytecode.rag_chat_storage.service.RateLimitService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RateLimitInterceptor.preHandle from 8 threads against the in-memory bucket store, either all hammering one
+ * client's bucket or each on its own. Limits are high enough that every request is let through, so this measures
+ * the allow path: policy lookup, bucket resolution and the store's compare-and-swap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RateLimitInterceptorBenchmark {
+
+    private static final String ROUTE = "/api/v1/sessions/{sessionId}/messages/latest";
+
+    @Param({"shared", "per-thread"})
+    public String clients;
+
+    // Tokens a node may take before syncing with the store, as chat.rate-limit.prefetch.max-unsynchronized-tokens
+    @Param({"0", "16"})
+    public long maxUnsynchronizedTokens;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private RateLimitInterceptor interceptor;
+    private HandlerMethod handler;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        RateLimitService service = new RateLimitService(new InMemoryBucketStore(100_000, Duration.ofMinutes(1)),
+                maxUnsynchronizedTokens, 1.0, Duration.ofSeconds(1), 100_000, Duration.ofMinutes(10));
+        interceptor = new RateLimitInterceptor();
+        ReflectionTestUtils.setField(interceptor, "rateLimiterService", service);
+        ReflectionTestUtils.setField(interceptor, "policyResolver", new RateLimitPolicyResolver(properties()));
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", new SimpleMeterRegistry());
+        handler = new HandlerMethod(this, RateLimitInterceptorBenchmark.class.getMethod("latestMessages"));
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        MockHttpServletRequest request;
+        MockHttpServletResponse response;
+
+        @Setup
+        public void setUp(RateLimitInterceptorBenchmark benchmark) {
+            String userId = "shared".equals(benchmark.clients) ? "bench-user" : "bench-user-" + benchmark.threadIds.incrementAndGet();
+            request = new MockHttpServletRequest("GET", "/api/v1/sessions/1/messages/latest");
+            request.addHeader("X-User-ID", userId);
+            request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, ROUTE);
+            response = new MockHttpServletResponse();
+        }
+    }
+
+    @Benchmark
+    public boolean preHandle(Request request) throws Exception {
+        return interceptor.preHandle(request.request, request.response, handler);
+    }
+
+    /**
+     * Stand-in controller method the requests are routed to
+     */
+    public void latestMessages() {
+    }
+
+    private static RateLimitProperties properties() {
+        RateLimitProperties.Policy reads = new RateLimitProperties.Policy();
+        reads.setName("reads");
+        reads.setMethods(List.of("GET"));
+        reads.setPaths(List.of("/api/**"));
+        reads.setTiers(Map.of("standard", List.of(
+                new RateLimitProperties.Limit(1_000_000_000L, Duration.ofSeconds(1)),
+                new RateLimitProperties.Limit(60_000_000_000L, Duration.ofMinutes(1)))));
+
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setPolicies(List.of(reads));
+        properties.setDefaultLimits(Map.of("standard", List.of(new RateLimitProperties.Limit(60, Duration.ofMinutes(1)))));
+        return properties;
+    }
+}
@@ -0,0 +1,163 @@
+package bytecode.rag_chat_storage.benchmark;
+
+import bytecode.rag_chat_storage.RagChatStorageApplication;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.entity.ChatSession;
+import bytecode.rag_chat_storage.repository.ChatMessageRepository;
+import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository queries behind the hot endpoints, through the real Spring Data / Hibernate stack against an embedded
+ * Postgres migrated by Flyway. One user owns 500 sessions and one of them holds 5000 messages.
+ *
+ * messagePageAsEntities and messagePageAsProjection read the same 500 messages the old and the current way; run them
+ * with -prof gc to compare gc.alloc.rate.norm, the bytes allocated per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    private static final String USER_ID = "bench-user";
+    private static final int SESSIONS = 500;
+    private static final int MESSAGES = 5000;
+    private static final PageRequest PAGE = PageRequest.of(0, 20);
+    private static final PageRequest LARGE_PAGE = PageRequest.of(0, 500);
+
+    private EmbeddedPostgres postgres;
+    private ConfigurableApplicationContext context;
+    private ChatSessionRepository chatSessionRepository;
+    private ChatMessageRepository chatMessageRepository;
+    private Long sessionId;
+    private ChatSession writeSession;
+    private EntityManager entityManager;
+    private TransactionTemplate transaction;
+    private TransactionTemplate readOnlyTransaction;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        context = new SpringApplicationBuilder(RagChatStorageApplication.class)
+                .web(WebApplicationType.NONE)
+                // Command-line arguments, so they win over the packaged application.yaml
+                .run("--spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true",
+                        "--spring.datasource.username=postgres",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN");
+        chatSessionRepository = context.getBean(ChatSessionRepository.class);
+        chatMessageRepository = context.getBean(ChatMessageRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+        transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnlyTransaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnlyTransaction.setReadOnly(true);
+
+        List<ChatSession> sessions = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(new ChatSession(USER_ID, "Session " + i));
+        }
+        sessions = chatSessionRepository.saveAll(sessions);
+        ChatSession session = sessions.get(0);
+        sessionId = session.getId();
+        writeSession = sessions.get(1);
+
+        String retrieved = "retrieved passage ".repeat(50);
+        byte[] contextHash = context.getBean(MessageContextRepository.class).store(List.of(retrieved)).get(0);
+        List<ChatMessage> messages = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            ChatMessage message = new ChatMessage(session, i % 2 == 0 ? ChatMessage.SenderType.USER : ChatMessage.SenderType.ASSISTANT,
+                    "Message " + i + " about the quarterly budget forecast", retrieved);
+            message.setContextHash(contextHash);
+            messages.add(message);
+        }
+        chatMessageRepository.saveAll(messages);
+        context.getBean(JdbcTemplate.class).execute("VACUUM ANALYZE");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public Object sessionsPage() {
+        return chatSessionRepository.findByUserIdOrderByUpdatedAtDesc(USER_ID, PAGE);
+    }
+
+    @Benchmark
+    public Object sessionByIdAndUser() {
+        return chatSessionRepository.findByIdAndUserId(sessionId, USER_ID);
+    }
+
+    @Benchmark
+    public Object firstMessagePage() {
+        return chatMessageRepository.findFirstPage(sessionId, USER_ID, PAGE);
+    }
+
+    @Benchmark
+    public Object latestMessages() {
+        return chatMessageRepository.findLatestByChatSessionIdAndUserId(sessionId, USER_ID, PAGE);
+    }
+
+    @Benchmark
+    public Object messagePageAsEntities() {
+        // The read path before projections: managed entities with dirty-checking snapshots, mapped to DTOs
+        return transaction.execute(status -> entityManager.createQuery(
+                        "SELECT cm FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+                        "ORDER BY cm.createdAt ASC, cm.id ASC", ChatMessage.class)
+                .setParameter("sessionId", sessionId)
+                .setParameter("userId", USER_ID)
+                .setMaxResults(LARGE_PAGE.getPageSize())
+                .getResultList().stream()
+                .map(ChatMessageDto::new)
+                .toList());
+    }
+
+    @Benchmark
+    public Object messagePageAsProjection() {
+        return readOnlyTransaction.execute(status -> chatMessageRepository.findFirstPage(sessionId, USER_ID, LARGE_PAGE));
+    }
+
+    @Benchmark
+    public long countMessages() {
+        return chatMessageRepository.countByChatSessionIdAndUserId(sessionId, USER_ID);
+    }
+
+    @Benchmark
+    public Object saveMessage() {
+        return chatMessageRepository.save(new ChatMessage(writeSession, ChatMessage.SenderType.USER, "One more question"));
+    }
+}
@@ -0,0 +1,107 @@
+package bytecode.rag_chat_storage.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.HdrHistogram.Histogram;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares how much concurrency the application sustains with platform-thread and virtual-thread request handling.
+ *
+ * For each mode the application is booted once (virtual mode also turns on the JDBC concurrency limit) and driven
+ * with closed-loop users in increasing steps. A step is sustained if its overall p99 stays within --slo-p99 and at
+ * most --max-error-rate of requests fail; the mode's result is the largest sustained step, and the sweep moves on
+ * after the first step that is not. Virtual mode needs a Java 21 runtime and is skipped on older ones.
+ *
+ * Options (defaults in brackets): --modes [platform,virtual], --steps [16,32,64,128,256,512,1024,2048],
+ * --slo-p99 [PT0.5S], --max-error-rate [0.01], --duration [PT20S] and --warmup [PT5S] per step,
+ * --out [target/concurrency-sweep], and LoadTest's --mix, --seed-sessions [1], --seed-turns [5], --context-length.
+ * Any other --key=value is passed to the application in both modes.
+ */
+public class ConcurrencySweep {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTest.defaultOptions();
+        options.remove("users");
+        options.remove("rate");
+        options.putAll(Map.of(
+                "modes", "platform,virtual", "steps", "16,32,64,128,256,512,1024,2048",
+                "slo-p99", "PT0.5S", "max-error-rate", "0.01", "duration", "PT20S", "warmup", "PT5S",
+                "seed-sessions", "1", "seed-turns", "5", "out", "target/concurrency-sweep"));
+        Map<String, String> applicationArgs = LoadTest.parseArgs(args, options);
+
+        long sloMicros = Duration.parse(options.get("slo-p99")).toNanos() / 1000;
+        double maxErrorRate = Double.parseDouble(options.get("max-error-rate"));
+        Path out = Path.of(options.get("out"));
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode root = objectMapper.createObjectNode();
+        root.set("run", objectMapper.valueToTree(options));
+        Map<String, Integer> sustained = new LinkedHashMap<>();
+
+        for (String mode : options.get("modes").split(",")) {
+            if (mode.equals("virtual") && Runtime.version().feature() < 21) {
+                System.out.printf("Skipping virtual mode: needs Java 21, running on %s%n", Runtime.version());
+                continue;
+            }
+            Map<String, String> modeArgs = new LinkedHashMap<>(applicationArgs);
+            modeArgs.putIfAbsent("spring.threads.virtual.enabled", String.valueOf(mode.equals("virtual")));
+            ObjectNode modeResult = root.putObject(mode);
+            ArrayNode steps = modeResult.putArray("steps");
+            int best = 0;
+
+            try (EmbeddedPostgres postgres = EmbeddedPostgres.builder().start();
+                 ConfigurableApplicationContext application = LoadTest.startApplication(postgres, modeArgs)) {
+                for (int users : parseSteps(options.get("steps"))) {
+                    Map<String, String> stepOptions = new LinkedHashMap<>(options);
+                    stepOptions.put("users", String.valueOf(users));
+                    stepOptions.put("rate", "0");
+                    System.out.printf("%n== %s threads, %d users ==%n", mode, users);
+                    LatencyReport report = new LoadTest(stepOptions, LoadTest.baseUri(application)).measure();
+                    report.print(System.out);
+
+                    Histogram total = report.total();
+                    long p99Micros = total.getValueAtPercentile(99);
+                    double errorRate = total.getTotalCount() == 0 ? 1 : (double) report.totalErrors() / total.getTotalCount();
+                    boolean ok = p99Micros <= sloMicros && errorRate <= maxErrorRate;
+                    ObjectNode step = steps.addObject();
+                    step.put("users", users);
+                    step.put("throughputPerSecond", total.getTotalCount() / report.elapsedSeconds());
+                    step.put("p99Ms", p99Micros / 1000.0);
+                    step.put("errorRate", errorRate);
+                    step.put("sustained", ok);
+                    if (!ok) {
+                        break;
+                    }
+                    best = users;
+                }
+            }
+            sustained.put(mode, best);
+            modeResult.put("maxSustainedUsers", best);
+        }
+
+        System.out.printf("%nMax sustained concurrency (p99 <= %s, errors <= %.1f%%):%n",
+                options.get("slo-p99"), maxErrorRate * 100);
+        sustained.forEach((mode, users) -> System.out.printf("  %-9s %d users%n", mode, users));
+        Files.createDirectories(out.toAbsolutePath());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(out.resolve("concurrency-sweep.json").toFile(), root);
+        System.out.printf("Results written to %s%n", out.toAbsolutePath());
+    }
+
+    private static List<Integer> parseSteps(String steps) {
+        List<Integer> result = new ArrayList<>();
+        for (String step : steps.split(",")) {
+            result.add(Integer.parseInt(step.trim()));
+        }
+        return result;
+    }
+}
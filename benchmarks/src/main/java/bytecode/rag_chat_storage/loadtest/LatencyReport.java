@@ -0,0 +1,148 @@
+package bytecode.rag_chat_storage.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-operation latency histograms and error counts, recorded concurrently by the workers.
+ * Latencies are kept in microseconds with three significant digits, up to one minute.
+ */
+class LatencyReport {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> results = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> errorResults = new EnumMap<>(Operation.class);
+    private double elapsedSeconds;
+
+    LatencyReport() {
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    void record(Operation operation, long latencyNanos, int status) {
+        long micros = Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        recorders.get(operation).recordValue(micros);
+        if (status < 200 || status >= 300) {
+            errors.get(operation).increment();
+        }
+    }
+
+    void recordFailure(Operation operation, long latencyNanos) {
+        record(operation, latencyNanos, 0);
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. during warmup
+     */
+    void reset() {
+        recorders.values().forEach(recorder -> recorder.getIntervalHistogram());
+        errors.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Freeze what was recorded since the last reset, over the given wall-clock time
+     */
+    void finish(long elapsedNanos) {
+        this.elapsedSeconds = elapsedNanos / 1e9;
+        for (Operation operation : Operation.values()) {
+            results.put(operation, recorders.get(operation).getIntervalHistogram());
+            errorResults.put(operation, errors.get(operation).sum());
+        }
+    }
+
+    void print(PrintStream out) {
+        out.printf("%-10s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            print(out, operation.key(), results.get(operation), errorResults.get(operation));
+        }
+        print(out, "total", total(), totalErrors());
+    }
+
+    void writeJson(Path file, ObjectMapper objectMapper, Map<String, Object> run) throws IOException {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.set("run", objectMapper.valueToTree(run));
+        root.put("elapsedSeconds", elapsedSeconds);
+        ObjectNode operations = root.putObject("operations");
+        for (Operation operation : Operation.values()) {
+            summary(operations.putObject(operation.key()), results.get(operation), errorResults.get(operation));
+        }
+        summary(root.putObject("total"), total(), totalErrors());
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    /**
+     * Full histograms in HdrHistogram's log format, one tagged entry per operation, for plotting percentile curves
+     */
+    void writeHistogramLog(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputComment("Latencies in microseconds");
+            writer.outputLogFormatVersion();
+            writer.outputLegend();
+            for (Operation operation : Operation.values()) {
+                Histogram histogram = results.get(operation).copy();
+                histogram.setTag(operation.key());
+                writer.outputIntervalHistogram(histogram);
+            }
+        }
+    }
+
+    /**
+     * All operations together
+     */
+    Histogram total() {
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        results.values().forEach(total::add);
+        return total;
+    }
+
+    long totalErrors() {
+        return errorResults.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    double elapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    private void print(PrintStream out, String name, Histogram histogram, long errorCount) {
+        out.printf("%-10s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, histogram.getTotalCount(), errorCount, histogram.getTotalCount() / elapsedSeconds,
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    private void summary(ObjectNode node, Histogram histogram, long errorCount) {
+        node.put("requests", histogram.getTotalCount());
+        node.put("errors", errorCount);
+        node.put("throughputPerSecond", histogram.getTotalCount() / elapsedSeconds);
+        node.put("p50Ms", millis(histogram, 50));
+        node.put("p90Ms", millis(histogram, 90));
+        node.put("p99Ms", millis(histogram, 99));
+        node.put("p999Ms", millis(histogram, 99.9));
+        node.put("maxMs", histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,237 @@
+package bytecode.rag_chat_storage.loadtest;
+
+import bytecode.rag_chat_storage.RagChatStorageApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test: boots the application on a random port against an embedded Postgres, with a stub JWT
+ * decoder that accepts any bearer token as the user's ID and rate limits raised out of the way, then drives a
+ * weighted mix of session and message calls from one thread per simulated user.
+ *
+ * Without --rate every user sends its next request as soon as the previous one returns. With --rate=N the users
+ * together aim for N requests per second, and latency is measured from when each request should have been sent,
+ * so a stalled server is charged for the requests it held up (no coordinated omission).
+ *
+ * Options (defaults in brackets): --users [32], --duration [PT60S], --warmup [PT15S], --rate [0, closed loop],
+ * --mix [create:5,append:35,latest:30,history:15,search:10,delete:5], --seed-sessions [3], --seed-turns [10],
+ * --context-length [2000], --out [target/loadtest]. Any other --key=value is passed to the application.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = defaultOptions();
+        Map<String, String> applicationArgs = parseArgs(args, options);
+
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.builder().start();
+             ConfigurableApplicationContext application = startApplication(postgres, applicationArgs)) {
+            LoadTest loadTest = new LoadTest(options, baseUri(application));
+            LatencyReport report = loadTest.measure();
+            report.print(System.out);
+            loadTest.write(report);
+        }
+    }
+
+    static Map<String, String> defaultOptions() {
+        return new LinkedHashMap<>(Map.of(
+                "users", "32", "duration", "PT60S", "warmup", "PT15S", "rate", "0",
+                "mix", "create:5,append:35,latest:30,history:15,search:10,delete:5",
+                "seed-sessions", "3", "seed-turns", "10", "context-length", "2000", "out", "target/loadtest"));
+    }
+
+    /**
+     * Sort --key=value arguments into the given options where the key is known, returning the rest
+     */
+    static Map<String, String> parseArgs(String[] args, Map<String, String> options) {
+        Map<String, String> rest = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --key=value, got " + arg);
+            }
+            String key = arg.substring(2, equals);
+            (options.containsKey(key) ? options : rest).put(key, arg.substring(equals + 1));
+        }
+        return rest;
+    }
+
+    static URI baseUri(ConfigurableApplicationContext application) {
+        int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+        return URI.create("http://localhost:" + port);
+    }
+
+    static ConfigurableApplicationContext startApplication(EmbeddedPostgres postgres, Map<String, String> overrides) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.datasource.url", postgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true");
+        properties.put("spring.datasource.username", "postgres");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("logging.level.root", "WARN");
+        // One policy for every route, far above what the load test can reach; replaces the configured list
+        properties.put("chat.rate-limit.policies[0].name", "loadtest");
+        properties.put("chat.rate-limit.policies[0].paths[0]", "/**");
+        properties.put("chat.rate-limit.policies[0].tiers.standard[0].capacity", "1000000000");
+        properties.put("chat.rate-limit.policies[0].tiers.standard[0].period", "PT1S");
+        properties.putAll(overrides);
+
+        // Command-line arguments, so they win over the packaged application.yaml
+        String[] args = properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+        return new SpringApplicationBuilder(RagChatStorageApplication.class)
+                .initializers(context -> ((GenericApplicationContext) context).registerBean(JwtDecoder.class, () -> LoadTest::stubJwt))
+                .run(args);
+    }
+
+    private static Jwt stubJwt(String token) {
+        Instant now = Instant.now();
+        return Jwt.withTokenValue(token).header("alg", "none").subject(token)
+                .issuedAt(now).expiresAt(now.plus(Duration.ofHours(1))).build();
+    }
+
+    private final int users;
+    private final Duration duration;
+    private final Duration warmup;
+    private final double rate;
+    private final Operation[] mix;
+    private final int seedSessions;
+    private final int seedTurns;
+    private final int contextLength;
+    private final Path out;
+    private final Map<String, Object> run;
+    private final URI baseUri;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final LatencyReport report = new LatencyReport();
+    private volatile boolean stopped;
+
+    LoadTest(Map<String, String> options, URI baseUri) {
+        this.users = Integer.parseInt(options.get("users"));
+        this.duration = Duration.parse(options.get("duration"));
+        this.warmup = Duration.parse(options.get("warmup"));
+        this.rate = Double.parseDouble(options.get("rate"));
+        this.mix = parseMix(options.get("mix"));
+        this.seedSessions = Integer.parseInt(options.get("seed-sessions"));
+        this.seedTurns = Integer.parseInt(options.get("seed-turns"));
+        this.contextLength = Integer.parseInt(options.get("context-length"));
+        this.out = Path.of(options.get("out"));
+        this.run = new LinkedHashMap<>(options);
+        this.baseUri = baseUri;
+    }
+
+    /**
+     * Seed, warm up and measure, returning the latencies recorded over the measured period
+     */
+    LatencyReport measure() throws Exception {
+        CountDownLatch seeded = new CountDownLatch(users);
+        List<Thread> workers = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            VirtualUser user = new VirtualUser("load-user-" + i, baseUri, client, objectMapper, i, contextLength);
+            long seed = i;
+            Thread worker = new Thread(() -> work(user, seed, seeded), "load-user-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        System.out.printf("Seeding %d users with %d sessions of %d turns against %s%n", users, seedSessions, seedTurns, baseUri);
+        seeded.await();
+        System.out.printf("Warming up for %s%n", warmup);
+        Thread.sleep(warmup.toMillis());
+        report.reset();
+        System.out.printf("Measuring for %s%n", duration);
+        long start = System.nanoTime();
+        Thread.sleep(duration.toMillis());
+        stopped = true;
+        long elapsed = System.nanoTime() - start;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        report.finish(elapsed);
+        return report;
+    }
+
+    void write(LatencyReport report) throws IOException {
+        report.writeJson(out.resolve("loadtest-result.json"), objectMapper, run);
+        report.writeHistogramLog(out.resolve("loadtest-histograms.hlog"));
+        System.out.printf("Results written to %s%n", out.toAbsolutePath());
+    }
+
+    private void work(VirtualUser user, long seed, CountDownLatch seeded) {
+        Random random = new Random(-seed - 1);
+        try {
+            user.seed(seedSessions, seedTurns);
+        } catch (Exception e) {
+            System.err.printf("Seeding %s failed: %s%n", Thread.currentThread().getName(), e);
+        } finally {
+            seeded.countDown();
+        }
+
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * users / rate) : 0;
+        long intendedStart = System.nanoTime();
+        while (!stopped) {
+            if (interval > 0) {
+                intendedStart += interval;
+                long wait = intendedStart - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                intendedStart = System.nanoTime();
+            }
+            Operation operation = mix[random.nextInt(mix.length)];
+            try {
+                int status = user.perform(operation);
+                report.record(operation, System.nanoTime() - intendedStart, status);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                report.recordFailure(operation, System.nanoTime() - intendedStart);
+            }
+        }
+    }
+
+    /**
+     * Expand "key:weight,..." into a lookup table with one slot per unit of weight
+     */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> slots = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            Operation operation = Operation.fromKey(parts[0]);
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : operation.defaultWeight();
+            for (int i = 0; i < weight; i++) {
+                slots.add(operation);
+            }
+        }
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix");
+        }
+        return slots.toArray(Operation[]::new);
+    }
+}
@@ -0,0 +1,39 @@
+package bytecode.rag_chat_storage.loadtest;
+
+/**
+ * The API calls a simulated user makes, with their default share of the mix in percent
+ */
+public enum Operation {
+
+    CREATE_SESSION("create", 5),
+    APPEND_TURN("append", 35),
+    LATEST("latest", 30),
+    HISTORY("history", 15),
+    SEARCH("search", 10),
+    DELETE_SESSION("delete", 5);
+
+    private final String key;
+    private final int defaultWeight;
+
+    Operation(String key, int defaultWeight) {
+        this.key = key;
+        this.defaultWeight = defaultWeight;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public int defaultWeight() {
+        return defaultWeight;
+    }
+
+    public static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation '" + key + "'");
+    }
+}
@@ -0,0 +1,171 @@
+package bytecode.rag_chat_storage.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * One simulated user, driven by a single worker thread: owns a handful of sessions and turns each operation into
+ * one HTTP request against them. Every request sends the user's ID both as X-User-ID and as the bearer token the
+ * stub JWT decoder accepts.
+ */
+class VirtualUser {
+
+    private static final String[] TOPICS = {
+            "budget", "forecast", "onboarding", "architecture", "incident", "roadmap", "hiring", "pricing", "migration", "retro"
+    };
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final String userId;
+    private final URI baseUri;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final Random random;
+    private final String context;
+    private final int contextLength;
+    private final List<Long> sessionIds = new ArrayList<>();
+    // Where the last history read of each session stopped, so paging walks forward through the conversation
+    private final Map<Long, String> historyCursors = new HashMap<>();
+    private long turns;
+
+    VirtualUser(String userId, URI baseUri, HttpClient client, ObjectMapper objectMapper, long seed, int contextLength) {
+        this.userId = userId;
+        this.baseUri = baseUri;
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.random = new Random(seed);
+        this.context = "Retrieved passage about " + TOPICS[random.nextInt(TOPICS.length)] + ". ";
+        this.contextLength = contextLength;
+    }
+
+    /**
+     * Create sessions and conversation history so reads have something to find from the first request on
+     */
+    void seed(int sessions, int turnsPerSession) throws IOException, InterruptedException {
+        for (int i = 0; i < sessions; i++) {
+            perform(Operation.CREATE_SESSION);
+            for (int j = 0; j < turnsPerSession; j++) {
+                perform(Operation.APPEND_TURN);
+            }
+        }
+    }
+
+    /**
+     * Issue the operation's request and return its HTTP status. Operations that need a session fall back to
+     * creating one when the user has none left.
+     */
+    int perform(Operation operation) throws IOException, InterruptedException {
+        if (sessionIds.isEmpty() && operation != Operation.SEARCH) {
+            operation = Operation.CREATE_SESSION;
+        }
+        return switch (operation) {
+            case CREATE_SESSION -> createSession();
+            case APPEND_TURN -> appendTurn();
+            case LATEST -> send(get("/api/v1/sessions/" + anySession() + "/messages/latest?limit=20")).statusCode();
+            case HISTORY -> history();
+            case SEARCH -> search();
+            case DELETE_SESSION -> deleteSession();
+        };
+    }
+
+    private int createSession() throws IOException, InterruptedException {
+        String name = capitalize(topic()) + " " + topic() + " notes " + random.nextInt(10_000);
+        HttpResponse<String> response = send(post("/api/v1/sessions", Map.of("name", name)));
+        if (response.statusCode() == 201 || response.statusCode() == 200) {
+            sessionIds.add(objectMapper.readTree(response.body()).get("id").asLong());
+        }
+        return response.statusCode();
+    }
+
+    private int appendTurn() throws IOException, InterruptedException {
+        Map<String, Object> body = new HashMap<>();
+        if (turns++ % 2 == 0) {
+            body.put("senderType", "USER");
+            body.put("content", "What changed in the " + topic() + " plan since last week, and what does it mean for the " + topic() + "?");
+        } else {
+            body.put("senderType", "ASSISTANT");
+            body.put("content", "Here is a summary of the " + topic() + " discussion. ".repeat(8));
+            body.put("context", context.repeat(contextLength / context.length() + 1).substring(0, contextLength));
+        }
+        return send(post("/api/v1/sessions/" + anySession() + "/messages", body)).statusCode();
+    }
+
+    private int history() throws IOException, InterruptedException {
+        Long sessionId = anySession();
+        String cursor = historyCursors.remove(sessionId);
+        String path = "/api/v1/sessions/" + sessionId + "/messages?limit=50" + (cursor == null ? "" : "&cursor=" + encode(cursor));
+        HttpResponse<String> response = send(get(path));
+        if (response.statusCode() == 200) {
+            JsonNode nextCursor = objectMapper.readTree(response.body()).get("nextCursor");
+            if (nextCursor != null && !nextCursor.isNull()) {
+                historyCursors.put(sessionId, nextCursor.asText());
+            }
+        }
+        return response.statusCode();
+    }
+
+    private int search() throws IOException, InterruptedException {
+        String path = random.nextBoolean()
+                ? "/api/v1/sessions/search?limit=20&q=" + encode(topic())
+                : "/api/v1/sessions/search/messages?q=" + encode(topic() + " plan");
+        return send(get(path)).statusCode();
+    }
+
+    private int deleteSession() throws IOException, InterruptedException {
+        Long sessionId = sessionIds.remove(random.nextInt(sessionIds.size()));
+        historyCursors.remove(sessionId);
+        return send(request("/api/v1/sessions/" + sessionId).DELETE().build()).statusCode();
+    }
+
+    private Long anySession() {
+        return sessionIds.get(random.nextInt(sessionIds.size()));
+    }
+
+    private String topic() {
+        return TOPICS[random.nextInt(TOPICS.length)];
+    }
+
+    private HttpRequest get(String path) {
+        return request(path).GET().build();
+    }
+
+    private HttpRequest post(String path, Object body) throws IOException {
+        return request(path)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Authorization", "Bearer " + userId)
+                .header("X-User-ID", userId)
+                .header("Accept", "application/json");
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String capitalize(String value) {
+        return Character.toUpperCase(value.charAt(0)) + value.substring(1);
+    }
+}
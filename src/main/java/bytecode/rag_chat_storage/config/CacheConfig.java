@@ -0,0 +1,36 @@
+package bytecode.rag_chat_storage.config;
+
+import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Per-user caches in front of the session queries the UI polls.
+ * Size, TTL and stats recording come from spring.cache.caffeine.spec; hit/miss/eviction metrics are
+ * published by Actuator as cache.gets and cache.evictions tagged with the cache name.
+ */
+@Configuration
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+
+    public static final String SESSION_LISTS = "sessionLists";
+    public static final String FAVORITE_SESSIONS = "favoriteSessions";
+    public static final String SESSION_STATS = "sessionStats";
+
+    /**
+     * Caffeine caches configured from spring.cache.*, with puts and evictions deferred to transaction commit.
+     * A concurrent reader therefore cannot re-cache the old state between a write's eviction and its commit;
+     * the TTL bounds any remaining race.
+     */
+    @Bean
+    public CacheManager cacheManager(CacheProperties cacheProperties) {
+        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
+        caffeineCacheManager.setCacheSpecification(cacheProperties.getCaffeine().getSpec());
+        caffeineCacheManager.setCacheNames(cacheProperties.getCacheNames());
+        return new TransactionAwareCacheManagerProxy(caffeineCacheManager);
+    }
+}
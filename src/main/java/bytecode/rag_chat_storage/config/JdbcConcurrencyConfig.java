@@ -0,0 +1,64 @@
+package bytecode.rag_chat_storage.config;
+
+import bytecode.rag_chat_storage.jdbc.ConcurrencyLimitingDataSource;
+import bytecode.rag_chat_storage.jdbc.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Puts {@link ConcurrencyLimitingDataSource} in front of the connection pool. On by default when requests run on
+ * virtual threads (spring.threads.virtual.enabled), where the Tomcat thread pool no longer bounds how many requests
+ * reach the database at once; chat.jdbc.concurrency-limit.enabled switches it on or off explicitly.
+ *
+ * With read replicas the routing data source is left alone: {@link ReadReplicaConfig} puts a limiter in front of
+ * the primary and of every replica pool instead, each sized from its own pool.
+ */
+@Configuration
+@ConditionalOnExpression(JdbcConcurrencyConfig.ENABLED)
+public class JdbcConcurrencyConfig {
+
+    static final String ENABLED = "${chat.jdbc.concurrency-limit.enabled:${spring.threads.virtual.enabled:false}}";
+
+    @Bean
+    public static BeanPostProcessor concurrencyLimitingDataSourcePostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof ConcurrencyLimitingDataSource
+                        || bean instanceof ReplicaRoutingDataSource) {
+                    return bean;
+                }
+                return limit(environment, dataSource, "primary");
+            }
+        };
+    }
+
+    /**
+     * Whether the concurrency limit is on, as decided for this configuration
+     */
+    static boolean isEnabled(Environment environment) {
+        return Boolean.parseBoolean(environment.resolveRequiredPlaceholders(ENABLED));
+    }
+
+    /**
+     * The pool behind a limiter configured from chat.jdbc.concurrency-limit.*
+     */
+    static ConcurrencyLimitingDataSource limit(Environment environment, DataSource pool, String name) {
+        int maxConcurrent = environment.getProperty("chat.jdbc.concurrency-limit.max-concurrent", Integer.class, 0);
+        if (maxConcurrent <= 0) {
+            // Default to the pool size, so callers queue here rather than inside Hikari
+            maxConcurrent = pool instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize() : 10;
+        }
+        int maxWaiting = environment.getProperty("chat.jdbc.concurrency-limit.max-waiting", Integer.class, 200);
+        Duration acquireTimeout = environment.getProperty("chat.jdbc.concurrency-limit.acquire-timeout",
+                Duration.class, Duration.ofSeconds(2));
+        return new ConcurrencyLimitingDataSource(pool, name, maxConcurrent, maxWaiting, acquireTimeout);
+    }
+}
@@ -0,0 +1,33 @@
+package bytecode.rag_chat_storage.config;
+
+import bytecode.rag_chat_storage.ratelimit.InMemoryBucketStore;
+import bytecode.rag_chat_storage.ratelimit.JdbcBucketStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+/**
+ * Picks the backend the rate-limit buckets live in: chat.rate-limit.store=jdbc (default) shares them through
+ * Postgres across all replicas, memory keeps them on the node.
+ */
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.rate-limit.store", havingValue = "jdbc", matchIfMissing = true)
+    public JdbcBucketStore jdbcBucketStore(JdbcTemplate jdbcTemplate,
+                                           @Value("${chat.rate-limit.keep-after-refill:PT1M}") Duration keepAfterRefill) {
+        return new JdbcBucketStore(jdbcTemplate, keepAfterRefill);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.rate-limit.store", havingValue = "memory")
+    public InMemoryBucketStore inMemoryBucketStore(@Value("${chat.rate-limit.memory.max-buckets:100000}") long maxBuckets,
+                                                   @Value("${chat.rate-limit.keep-after-refill:PT1M}") Duration keepAfterRefill) {
+        return new InMemoryBucketStore(maxBuckets, keepAfterRefill);
+    }
+}
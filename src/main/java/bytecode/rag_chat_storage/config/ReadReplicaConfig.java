@@ -0,0 +1,62 @@
+package bytecode.rag_chat_storage.config;
+
+import bytecode.rag_chat_storage.interceptor.ReadYourWritesInterceptor;
+import bytecode.rag_chat_storage.jdbc.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends read-only transactions to read replicas when chat.jdbc.replicas.enabled is set, see
+ * {@link ReplicaRoutingDataSource}. The primary pool is built from spring.datasource as before; every URL in
+ * chat.jdbc.replicas.urls gets a pool with the same credentials and Hikari settings, read-only and with its own
+ * connection timeout, so an unreachable replica costs a read that long before it falls back to the primary.
+ * With the JDBC concurrency limit on, every one of these pools gets a limiter of its own, see
+ * {@link JdbcConcurrencyConfig}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.jdbc.replicas.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Bean
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties, Environment environment,
+                                               @Value("${chat.jdbc.replicas.max-lag:PT2S}") Duration maxLag,
+                                               @Value("${chat.jdbc.replicas.connection-timeout:PT0.5S}") Duration connectionTimeout) {
+        Binder binder = Binder.get(environment);
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+
+        List<String> urls = binder.bind("chat.jdbc.replicas.urls", Bindable.listOf(String.class)).orElse(List.of());
+        boolean limited = JdbcConcurrencyConfig.isEnabled(environment);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : urls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            String name = "replica-" + (replicas.size() + 1);
+            HikariConfig replica = new HikariConfig();
+            primary.copyStateTo(replica);
+            replica.setJdbcUrl(url);
+            replica.setPoolName(name);
+            replica.setReadOnly(true);
+            replica.setConnectionTimeout(connectionTimeout.toMillis());
+            HikariDataSource pool = new HikariDataSource(replica);
+            replicas.put(name, limited ? JdbcConcurrencyConfig.limit(environment, pool, name) : pool);
+        }
+        DataSource writer = limited ? JdbcConcurrencyConfig.limit(environment, primary, "primary") : primary;
+        return new ReplicaRoutingDataSource(writer, replicas, maxLag, ReadYourWritesInterceptor::isPinnedToPrimary);
+    }
+}
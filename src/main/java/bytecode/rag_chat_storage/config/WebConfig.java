@@ -1,19 +1,39 @@
 package bytecode.rag_chat_storage.config;
 
+import bytecode.rag_chat_storage.dto.SessionSearchCursor;
 import bytecode.rag_chat_storage.interceptor.RateLimitInterceptor;
+import bytecode.rag_chat_storage.interceptor.ReadYourWritesInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Locale;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
     @Autowired
     private RateLimitInterceptor rateLimitInterceptor;
 
+    @Autowired(required = false) // only with read replicas, see ReadReplicaConfig
+    private ReadYourWritesInterceptor readYourWritesInterceptor;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(rateLimitInterceptor)
                 .addPathPatterns("/api/**"); // apply to all API endpoints
+        if (readYourWritesInterceptor != null) {
+            registry.addInterceptor(readYourWritesInterceptor)
+                    .addPathPatterns("/api/**");
+        }
+    }
+
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        // ?mode=fuzzy / ?mode=prefix, as documented; the default String-to-enum conversion is case-sensitive
+        registry.addConverter(String.class, SessionSearchCursor.Mode.class,
+                mode -> SessionSearchCursor.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)));
     }
 }
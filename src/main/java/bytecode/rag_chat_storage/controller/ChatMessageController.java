@@ -1,9 +1,12 @@
 package bytecode.rag_chat_storage.controller;
 
 import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.AddMessagesBatchRequest;
 import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
 import bytecode.rag_chat_storage.entity.ChatMessage;
 import bytecode.rag_chat_storage.service.ChatMessageService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -15,13 +18,16 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
 @RestController
-@RequestMapping("/api/v1/sessions/{sessionId}/messages")
+@RequestMapping("/api/v1/sessions/{sessionId}")
 @Tag(name = "Chat Message Management", description = "APIs for managing chat messages within sessions")
 public class ChatMessageController {
 
@@ -30,7 +36,10 @@ public class ChatMessageController {
     @Autowired
     private ChatMessageService chatMessageService;
 
-    @PostMapping
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PostMapping("/messages")
     @Operation(summary = "Add a message to a chat session", description = "Adds a new message to the specified chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Message added successfully"),
@@ -48,7 +57,26 @@ public class ChatMessageController {
         return ResponseEntity.status(HttpStatus.CREATED).body(message);
     }
 
-    @GetMapping
+    @PostMapping("/messages:batch")
+    @Operation(summary = "Add several messages to a chat session",
+            description = "Adds up to " + AddMessagesBatchRequest.MAX_BATCH_SIZE + " messages to the specified chat session in a single transaction, preserving request order")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Messages added successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid request data"),
+            @ApiResponse(responseCode = "404", description = "Chat session not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<List<ChatMessageDto>> addMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Valid @RequestBody AddMessagesBatchRequest request) {
+
+        logger.info("Adding {} messages to session: {} for user: {}", request.getMessages().size(), sessionId, userId);
+        List<ChatMessageDto> messages = chatMessageService.addMessages(userId, sessionId, request.getMessages());
+        return ResponseEntity.status(HttpStatus.CREATED).body(messages);
+    }
+
+    @GetMapping("/messages")
     @Operation(summary = "Get all messages in a chat session", description = "Retrieves all messages for the specified chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Messages retrieved successfully"),
@@ -57,14 +85,106 @@ public class ChatMessageController {
     })
     public ResponseEntity<List<ChatMessageDto>> getMessages(
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
-            @Parameter(description = "Chat session ID") @PathVariable Long sessionId) {
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving messages for session: {} for user: {}", sessionId, userId);
-        List<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId);
+        List<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId, includeContext);
         return ResponseEntity.ok(messages);
     }
 
-    @GetMapping("/paginated")
+    @GetMapping(value = "/messages", params = "limit")
+    @Operation(summary = "Get messages with cursor pagination",
+            description = "Retrieves a page of messages using keyset pagination on (createdAt, id). " +
+                    "Pass back nextCursor or prevCursor from a previous response to move forwards or backwards.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Messages retrieved successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor"),
+            @ApiResponse(responseCode = "404", description = "Chat session not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<CursorPageDto<ChatMessageDto>> getMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "Opaque cursor from a previous page; omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (max 100)") @RequestParam int limit,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
+
+        logger.info("Retrieving messages for session: {} for user: {} with cursor pagination - limit: {}",
+                   sessionId, userId, limit);
+        CursorPageDto<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId, cursor, limit, includeContext);
+        return ResponseEntity.ok(messages);
+    }
+
+    @GetMapping(value = "/messages/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Stream the full message history",
+            description = "Streams every message of the chat session as a JSON array without buffering the history in memory. " +
+                    "Use this instead of the session detail when the complete conversation is needed. " +
+                    "Send Accept: application/x-ndjson to receive one message per line instead.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Message stream started"),
+            @ApiResponse(responseCode = "404", description = "Chat session not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<StreamingResponseBody> exportMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
+
+        logger.info("Exporting messages for session: {} for user: {}", sessionId, userId);
+
+        // Fail with 404 before the response is committed; the stream itself runs after this method returns
+        chatMessageService.verifySessionAccess(userId, sessionId);
+
+        StreamingResponseBody body = MessageStreams.jsonArray(objectMapper,
+                sink -> chatMessageService.streamMessages(userId, sessionId, includeContext, sink));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping(value = "/messages/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Stream the full message history as NDJSON",
+            description = "Streams every message of the chat session as newline-delimited JSON")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Message stream started"),
+            @ApiResponse(responseCode = "404", description = "Chat session not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<StreamingResponseBody> exportMessagesNdjson(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
+
+        logger.info("Exporting messages as NDJSON for session: {} for user: {}", sessionId, userId);
+
+        chatMessageService.verifySessionAccess(userId, sessionId);
+
+        StreamingResponseBody body = MessageStreams.ndjson(objectMapper,
+                sink -> chatMessageService.streamMessages(userId, sessionId, includeContext, sink));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping(value = "/messages/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Subscribe to new messages",
+            description = "Server-Sent Events stream of the messages added to the chat session from now on, one \"message\" event " +
+                    "each with the message ID as event ID. On reconnect, Last-Event-ID replays what was missed. An \"overflow\" " +
+                    "event means the client fell too far behind: reload the history, then subscribe again without Last-Event-ID.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Message stream started"),
+            @ApiResponse(responseCode = "404", description = "Chat session not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public SseEmitter streamNewMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "ID of the last message received, sent by EventSource on reconnect")
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
+
+        logger.info("Subscribing to messages of session: {} for user: {}", sessionId, userId);
+        return chatMessageService.subscribeToMessages(userId, sessionId, lastEventId, includeContext);
+    }
+
+    @GetMapping("/messages/paginated")
     @Operation(summary = "Get messages with pagination", description = "Retrieves messages for a chat session with pagination support")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Messages retrieved successfully"),
@@ -75,15 +195,16 @@ public class ChatMessageController {
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
             @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
             @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size) {
+            @Parameter(description = "Page size") @RequestParam(defaultValue = "20") int size,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving messages for session: {} for user: {} with pagination - page: {}, size: {}", 
                    sessionId, userId, page, size);
-        Page<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId, page, size);
+        Page<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId, page, size, includeContext);
         return ResponseEntity.ok(messages);
     }
 
-    @GetMapping("/{messageId}")
+    @GetMapping("/messages/{messageId}")
     @Operation(summary = "Get a specific message", description = "Retrieves a specific message by ID from a chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Message retrieved successfully"),
@@ -93,14 +214,15 @@ public class ChatMessageController {
     public ResponseEntity<ChatMessageDto> getMessage(
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
             @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
-            @Parameter(description = "Message ID") @PathVariable Long messageId) {
+            @Parameter(description = "Message ID") @PathVariable Long messageId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving message: {} from session: {} for user: {}", messageId, sessionId, userId);
-        ChatMessageDto message = chatMessageService.getMessage(userId, sessionId, messageId);
+        ChatMessageDto message = chatMessageService.getMessage(userId, sessionId, messageId, includeContext);
         return ResponseEntity.ok(message);
     }
 
-    @DeleteMapping("/{messageId}")
+    @DeleteMapping("/messages/{messageId}")
     @Operation(summary = "Delete a specific message", description = "Deletes a specific message from a chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "204", description = "Message deleted successfully"),
@@ -117,7 +239,7 @@ public class ChatMessageController {
         return ResponseEntity.noContent().build();
     }
 
-    @GetMapping("/latest")
+    @GetMapping("/messages/latest")
     @Operation(summary = "Get latest messages", description = "Retrieves the latest N messages from a chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Latest messages retrieved successfully"),
@@ -127,14 +249,15 @@ public class ChatMessageController {
     public ResponseEntity<List<ChatMessageDto>> getLatestMessages(
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
             @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
-            @Parameter(description = "Number of latest messages to retrieve") @RequestParam(defaultValue = "10") int limit) {
+            @Parameter(description = "Number of latest messages to retrieve") @RequestParam(defaultValue = "10") int limit,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving latest {} messages for session: {} for user: {}", limit, sessionId, userId);
-        List<ChatMessageDto> messages = chatMessageService.getLatestMessages(userId, sessionId, limit);
+        List<ChatMessageDto> messages = chatMessageService.getLatestMessages(userId, sessionId, limit, includeContext);
         return ResponseEntity.ok(messages);
     }
 
-    @GetMapping("/by-sender/{senderType}")
+    @GetMapping("/messages/by-sender/{senderType}")
     @Operation(summary = "Get messages by sender type", description = "Retrieves messages filtered by sender type (USER or ASSISTANT)")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Messages retrieved successfully"),
@@ -145,14 +268,15 @@ public class ChatMessageController {
     public ResponseEntity<List<ChatMessageDto>> getMessagesBySenderType(
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
             @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
-            @Parameter(description = "Sender type (USER or ASSISTANT)") @PathVariable ChatMessage.SenderType senderType) {
+            @Parameter(description = "Sender type (USER or ASSISTANT)") @PathVariable ChatMessage.SenderType senderType,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving {} messages for session: {} for user: {}", senderType, sessionId, userId);
-        List<ChatMessageDto> messages = chatMessageService.getMessagesBySenderType(userId, sessionId, senderType);
+        List<ChatMessageDto> messages = chatMessageService.getMessagesBySenderType(userId, sessionId, senderType, includeContext);
         return ResponseEntity.ok(messages);
     }
 
-    @GetMapping("/count")
+    @GetMapping("/messages/count")
     @Operation(summary = "Get message count", description = "Retrieves the total number of messages in a chat session")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Message count retrieved successfully"),
@@ -2,9 +2,14 @@ package bytecode.rag_chat_storage.controller;
 
 import bytecode.rag_chat_storage.dto.ChatSessionDto;
 import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.dto.MessageSearchResultDto;
+import bytecode.rag_chat_storage.dto.SessionSearchCursor;
 import bytecode.rag_chat_storage.dto.SessionStatsDto;
 import bytecode.rag_chat_storage.dto.UpdateChatSessionRequest;
+import bytecode.rag_chat_storage.service.ChatMessageService;
 import bytecode.rag_chat_storage.service.ChatSessionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -15,10 +20,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -31,6 +41,12 @@ public class ChatSessionController {
     @Autowired
     private ChatSessionService chatSessionService;
 
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @PostMapping
     @Operation(summary = "Create a new chat session", description = "Creates a new chat session for the authenticated user")
     @ApiResponses(value = {
@@ -78,7 +94,7 @@ public class ChatSessionController {
     }
 
     @GetMapping("/{sessionId}")
-    @Operation(summary = "Get a specific chat session", description = "Retrieves a specific chat session with its messages")
+    @Operation(summary = "Get a specific chat session", description = "Retrieves a specific chat session with its most recent messages and a cursor to older history")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Chat session retrieved successfully"),
             @ApiResponse(responseCode = "404", description = "Chat session not found"),
@@ -86,10 +102,11 @@ public class ChatSessionController {
     })
     public ResponseEntity<ChatSessionDto> getChatSession(
             @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
-            @Parameter(description = "Chat session ID") @PathVariable Long sessionId) {
+            @Parameter(description = "Chat session ID") @PathVariable Long sessionId,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
         
         logger.info("Retrieving chat session: {} for user: {}", sessionId, userId);
-        ChatSessionDto session = chatSessionService.getChatSession(userId, sessionId);
+        ChatSessionDto session = chatSessionService.getChatSession(userId, sessionId, includeContext);
         return ResponseEntity.ok(session);
     }
 
@@ -143,6 +160,20 @@ public class ChatSessionController {
         return ResponseEntity.noContent().build();
     }
 
+    @DeleteMapping
+    @Operation(summary = "Delete all chat sessions", description = "Deletes every chat session of the user and all their messages")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Chat sessions deleted successfully"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<Void> deleteAllChatSessions(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId) {
+
+        logger.info("Deleting all chat sessions for user: {}", userId);
+        chatSessionService.deleteAllChatSessions(userId);
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping("/favorites")
     @Operation(summary = "Get favorite chat sessions", description = "Retrieves all favorite chat sessions for the user")
     @ApiResponses(value = {
@@ -172,6 +203,67 @@ public class ChatSessionController {
         return ResponseEntity.ok(sessions);
     }
 
+    @GetMapping(value = "/search", params = "limit")
+    @Operation(summary = "Search chat sessions with cursor pagination",
+            description = "Searches chat session names using a trigram index. mode=fuzzy (default) tolerates typos and returns " +
+                    "the closest matches first; mode=prefix is for autocomplete and returns names starting with q in " +
+                    "alphabetical order. Pass back nextCursor from a previous response to get the next page.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Search results retrieved successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<CursorPageDto<ChatSessionDto>> searchChatSessions(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Search term") @RequestParam String q,
+            @Parameter(description = "fuzzy or prefix") @RequestParam(defaultValue = "fuzzy") SessionSearchCursor.Mode mode,
+            @Parameter(description = "Opaque cursor from a previous page; omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (max 50)") @RequestParam int limit) {
+
+        logger.info("Searching chat sessions for user: {} - mode: {}, limit: {}", userId, mode, limit);
+        CursorPageDto<ChatSessionDto> sessions = chatSessionService.searchChatSessions(userId, q, mode, cursor, limit);
+        return ResponseEntity.ok(sessions);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export the history of all chat sessions",
+            description = "Streams every message of every chat session of the user as newline-delimited JSON, grouped by session " +
+                    "and in conversation order. Pass updatedSince to export only sessions touched since a previous run.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Message stream started"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<StreamingResponseBody> exportAllMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Only include sessions updated at or after this ISO-8601 date-time")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime updatedSince,
+            @Parameter(description = "Include each message's RAG context") @RequestParam(defaultValue = "false") boolean includeContext) {
+
+        logger.info("Exporting messages of all sessions for user: {} updated since: {}", userId, updatedSince);
+        StreamingResponseBody body = MessageStreams.ndjson(objectMapper,
+                sink -> chatMessageService.streamAllMessages(userId, updatedSince, includeContext, sink));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping("/search/messages")
+    @Operation(summary = "Search message history",
+            description = "Full-text search over message content and RAG context across all of the user's sessions. " +
+                    "Results are ranked by relevance and carry a highlighted snippet. Supports quoted phrases, OR and -term.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Search results retrieved successfully"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized - Invalid API key")
+    })
+    public ResponseEntity<Slice<MessageSearchResultDto>> searchMessages(
+            @Parameter(description = "User ID from the authenticated request") @RequestHeader("X-User-ID") String userId,
+            @Parameter(description = "Search query") @RequestParam String q,
+            @Parameter(description = "Page number (0-based)") @RequestParam(defaultValue = "0") int page,
+            @Parameter(description = "Page size (max 50)") @RequestParam(defaultValue = "20") int size) {
+
+        logger.info("Searching messages for user: {} - page: {}, size: {}", userId, page, size);
+        Slice<MessageSearchResultDto> results = chatMessageService.searchMessages(userId, q, page, size);
+        return ResponseEntity.ok(results);
+    }
+
     @GetMapping("/stats")
     @Operation(summary = "Get session statistics", description = "Retrieves statistics about the user's chat sessions")
     @ApiResponses(value = {
@@ -0,0 +1,56 @@
+package bytecode.rag_chat_storage.controller;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Response bodies that serialize messages straight to the output stream as a service produces them.
+ * Nothing is collected in between, so memory stays flat however long the history is.
+ */
+final class MessageStreams {
+
+    private MessageStreams() {}
+
+    /**
+     * Write the messages as a single JSON array
+     */
+    static StreamingResponseBody jsonArray(ObjectMapper objectMapper, Consumer<Consumer<ChatMessageDto>> source) {
+        return out -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.writeStartArray();
+                source.accept(message -> write(generator, message, false));
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * Write the messages as newline-delimited JSON, one message per line
+     */
+    static StreamingResponseBody ndjson(ObjectMapper objectMapper, Consumer<Consumer<ChatMessageDto>> source) {
+        return out -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                // Lines are separated by the newline alone, not Jackson's default space between root values
+                generator.setRootValueSeparator(null);
+                source.accept(message -> write(generator, message, true));
+            }
+        };
+    }
+
+    private static void write(JsonGenerator generator, ChatMessageDto message, boolean newline) {
+        try {
+            generator.writeObject(message);
+            if (newline) {
+                generator.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
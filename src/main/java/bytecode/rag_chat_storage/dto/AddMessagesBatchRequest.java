@@ -0,0 +1,32 @@
+package bytecode.rag_chat_storage.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public class AddMessagesBatchRequest {
+
+    public static final int MAX_BATCH_SIZE = 500;
+
+    @NotEmpty(message = "At least one message is required")
+    @Size(max = MAX_BATCH_SIZE, message = "At most " + MAX_BATCH_SIZE + " messages per batch")
+    private List<@Valid AddMessageRequest> messages;
+
+    // Constructors
+    public AddMessagesBatchRequest() {}
+
+    public AddMessagesBatchRequest(List<AddMessageRequest> messages) {
+        this.messages = messages;
+    }
+
+    // Getters and Setters
+    public List<AddMessageRequest> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<AddMessageRequest> messages) {
+        this.messages = messages;
+    }
+}
@@ -27,13 +27,39 @@ public class ChatMessageDto {
 
     public ChatMessageDto(ChatMessage chatMessage) {
         this.id = chatMessage.getId();
-        this.chatSessionId = chatMessage.getChatSession().getId();
+        this.chatSessionId = chatMessage.getChatSessionId();
         this.senderType = chatMessage.getSenderType();
         this.content = chatMessage.getContent();
         this.context = chatMessage.getContext();
         this.createdAt = chatMessage.getCreatedAt();
     }
 
+    /**
+     * Projection constructor for repository queries; the context is loaded separately when asked for
+     */
+    public ChatMessageDto(Long id, Long chatSessionId, ChatMessage.SenderType senderType, String content,
+                          LocalDateTime createdAt) {
+        this.id = id;
+        this.chatSessionId = chatSessionId;
+        this.senderType = senderType;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Copy of this message carrying the given context, or none
+     */
+    public ChatMessageDto withContext(String context) {
+        ChatMessageDto copy = new ChatMessageDto();
+        copy.id = id;
+        copy.chatSessionId = chatSessionId;
+        copy.senderType = senderType;
+        copy.content = content;
+        copy.context = context;
+        copy.createdAt = createdAt;
+        return copy;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
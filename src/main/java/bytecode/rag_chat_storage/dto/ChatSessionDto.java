@@ -23,6 +23,7 @@ public class ChatSessionDto {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     private List<ChatMessageDto> messages;
+    private String olderMessagesCursor;
 
     // Constructors
     public ChatSessionDto() {}
@@ -36,6 +37,19 @@ public class ChatSessionDto {
         this.updatedAt = chatSession.getUpdatedAt();
     }
 
+    /**
+     * Projection constructor for repository queries
+     */
+    public ChatSessionDto(Long id, String userId, String name, Boolean isFavorite, LocalDateTime createdAt,
+                          LocalDateTime updatedAt) {
+        this.id = id;
+        this.userId = userId;
+        this.name = name;
+        this.isFavorite = isFavorite;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -92,4 +106,12 @@ public class ChatSessionDto {
     public void setMessages(List<ChatMessageDto> messages) {
         this.messages = messages;
     }
+
+    public String getOlderMessagesCursor() {
+        return olderMessagesCursor;
+    }
+
+    public void setOlderMessagesCursor(String olderMessagesCursor) {
+        this.olderMessagesCursor = olderMessagesCursor;
+    }
 }
@@ -0,0 +1,68 @@
+package bytecode.rag_chat_storage.dto;
+
+import java.util.List;
+
+/**
+ * A keyset page: the rows plus opaque cursors to the neighbouring pages.
+ * Unlike {@link org.springframework.data.domain.Page} it carries no total count.
+ */
+public class CursorPageDto<T> {
+
+    private List<T> content;
+    private String nextCursor;
+    private String prevCursor;
+    private boolean hasNext;
+    private boolean hasPrevious;
+
+    // Constructors
+    public CursorPageDto() {}
+
+    public CursorPageDto(List<T> content, String nextCursor, String prevCursor) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+        this.hasNext = nextCursor != null;
+        this.hasPrevious = prevCursor != null;
+    }
+
+    // Getters and Setters
+    public List<T> getContent() {
+        return content;
+    }
+
+    public void setContent(List<T> content) {
+        this.content = content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public String getPrevCursor() {
+        return prevCursor;
+    }
+
+    public void setPrevCursor(String prevCursor) {
+        this.prevCursor = prevCursor;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(boolean hasNext) {
+        this.hasNext = hasNext;
+    }
+
+    public boolean isHasPrevious() {
+        return hasPrevious;
+    }
+
+    public void setHasPrevious(boolean hasPrevious) {
+        this.hasPrevious = hasPrevious;
+    }
+}
@@ -0,0 +1,81 @@
+package bytecode.rag_chat_storage.dto;
+
+import bytecode.rag_chat_storage.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Opaque keyset position in a session's message history.
+ *
+ * A cursor points at a (createdAt, id) pair and says which side of it the next page is on.
+ * Clients only ever see the encoded form and hand it back unchanged.
+ */
+public class MessageCursor {
+
+    public enum Direction {
+        AFTER, BEFORE
+    }
+
+    private static final String SEPARATOR = "|";
+
+    private final Direction direction;
+    private final LocalDateTime createdAt;
+    private final Long id;
+
+    public MessageCursor(Direction direction, LocalDateTime createdAt, Long id) {
+        this.direction = direction;
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public static MessageCursor after(ChatMessageDto message) {
+        return new MessageCursor(Direction.AFTER, message.getCreatedAt(), message.getId());
+    }
+
+    public static MessageCursor before(ChatMessageDto message) {
+        return new MessageCursor(Direction.BEFORE, message.getCreatedAt(), message.getId());
+    }
+
+    /**
+     * Encode this cursor as a URL-safe token
+     */
+    public String encode() {
+        String raw = direction.name() + SEPARATOR + createdAt + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token previously produced by {@link #encode()}
+     */
+    public static MessageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\" + SEPARATOR, -1);
+            if (parts.length != 3) {
+                throw new InvalidCursorException("Malformed cursor: " + token);
+            }
+            return new MessageCursor(
+                    Direction.valueOf(parts[0]),
+                    LocalDateTime.parse(parts[1]),
+                    Long.valueOf(parts[2]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new InvalidCursorException("Malformed cursor: " + token, ex);
+        }
+    }
+
+    // Getters
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,88 @@
+package bytecode.rag_chat_storage.dto;
+
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.repository.MessageSearchHit;
+
+import java.time.LocalDateTime;
+
+public class MessageSearchResultDto {
+
+    private Long messageId;
+    private Long chatSessionId;
+    private String sessionName;
+    private ChatMessage.SenderType senderType;
+    private LocalDateTime createdAt;
+    private double rank;
+    // Best matching fragments of content and context, matches wrapped in <mark></mark>
+    private String snippet;
+
+    // Constructors
+    public MessageSearchResultDto() {}
+
+    public MessageSearchResultDto(MessageSearchHit hit) {
+        this.messageId = hit.getId();
+        this.chatSessionId = hit.getChatSessionId();
+        this.sessionName = hit.getSessionName();
+        this.senderType = ChatMessage.SenderType.valueOf(hit.getSenderType());
+        this.createdAt = hit.getCreatedAt();
+        this.rank = hit.getRank();
+        this.snippet = hit.getSnippet();
+    }
+
+    // Getters and Setters
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public Long getChatSessionId() {
+        return chatSessionId;
+    }
+
+    public void setChatSessionId(Long chatSessionId) {
+        this.chatSessionId = chatSessionId;
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    public void setSessionName(String sessionName) {
+        this.sessionName = sessionName;
+    }
+
+    public ChatMessage.SenderType getSenderType() {
+        return senderType;
+    }
+
+    public void setSenderType(ChatMessage.SenderType senderType) {
+        this.senderType = senderType;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    public void setRank(double rank) {
+        this.rank = rank;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
+}
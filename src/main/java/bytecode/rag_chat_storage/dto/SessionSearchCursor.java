@@ -0,0 +1,84 @@
+package bytecode.rag_chat_storage.dto;
+
+import bytecode.rag_chat_storage.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset position in a session-name search.
+ *
+ * Fuzzy results are ordered by (distance, id), prefix results by (lower-cased name, id); the cursor holds
+ * the sort key of the last row returned and is only valid for the mode that produced it.
+ */
+public class SessionSearchCursor {
+
+    public enum Mode {
+        FUZZY, PREFIX
+    }
+
+    private static final String SEPARATOR = "|";
+
+    private final Mode mode;
+    private final Long id;
+    private final String sortKey;
+
+    public SessionSearchCursor(Mode mode, Long id, String sortKey) {
+        this.mode = mode;
+        this.id = id;
+        this.sortKey = sortKey;
+    }
+
+    public static SessionSearchCursor fuzzy(double distance, Long id) {
+        return new SessionSearchCursor(Mode.FUZZY, id, Double.toString(distance));
+    }
+
+    public static SessionSearchCursor prefix(String sortKey, Long id) {
+        return new SessionSearchCursor(Mode.PREFIX, id, sortKey);
+    }
+
+    /**
+     * Encode this cursor as a URL-safe token
+     */
+    public String encode() {
+        // The sort key goes last since a session name may itself contain the separator
+        String raw = mode.name() + SEPARATOR + id + SEPARATOR + sortKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token previously produced by {@link #encode()} for a search in the given mode
+     */
+    public static SessionSearchCursor decode(String token, Mode expectedMode) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\" + SEPARATOR, 3);
+            if (parts.length != 3 || Mode.valueOf(parts[0]) != expectedMode) {
+                throw new InvalidCursorException("Malformed cursor: " + token);
+            }
+            if (expectedMode == Mode.FUZZY) {
+                Double.parseDouble(parts[2]);
+            }
+            return new SessionSearchCursor(expectedMode, Long.valueOf(parts[1]), parts[2]);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidCursorException("Malformed cursor: " + token, ex);
+        }
+    }
+
+    // Getters
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    public double getDistance() {
+        return Double.parseDouble(sortKey);
+    }
+}
@@ -11,8 +11,10 @@ import java.time.LocalDateTime;
 @Table(name = "chat_messages")
 public class ChatMessage {
 
+    // Pooled sequence (see V3 migration) so Hibernate can batch inserts; IDENTITY forces one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_messages_seq")
+    @SequenceGenerator(name = "chat_messages_seq", sequenceName = "chat_messages_seq", allocationSize = 50)
     private Long id;
 
     @NotNull(message = "Chat session is required")
@@ -20,6 +22,10 @@ public class ChatMessage {
     @JoinColumn(name = "chat_session_id", nullable = false)
     private ChatSession chatSession;
 
+    // Same foreign key as a plain column, so the session ID of a loaded message never touches the session proxy
+    @Column(name = "chat_session_id", insertable = false, updatable = false)
+    private Long chatSessionId;
+
     @NotNull(message = "Sender type is required")
     @Enumerated(EnumType.STRING)
     @Column(name = "sender_type", nullable = false)
@@ -29,7 +35,12 @@ public class ChatMessage {
     @Column(name = "content", columnDefinition = "TEXT", nullable = false)
     private String content;
 
-    @Column(name = "context", columnDefinition = "TEXT")
+    // RAG context lives in message_contexts, shared between messages and addressed by its SHA-256 (see V11 migration)
+    @Column(name = "context_hash")
+    private byte[] contextHash;
+
+    // Text of the context: set when the message is added, not loaded with it
+    @Transient
     private String context;
 
     @CreationTimestamp
@@ -69,6 +80,16 @@ public class ChatMessage {
         this.chatSession = chatSession;
     }
 
+    /**
+     * Session ID from the foreign key column; falls back to the association only for a message not yet loaded
+     */
+    public Long getChatSessionId() {
+        if (chatSessionId != null || chatSession == null) {
+            return chatSessionId;
+        }
+        return chatSession.getId();
+    }
+
     public SenderType getSenderType() {
         return senderType;
     }
@@ -93,6 +114,14 @@ public class ChatMessage {
         this.context = context;
     }
 
+    public byte[] getContextHash() {
+        return contextHash;
+    }
+
+    public void setContextHash(byte[] contextHash) {
+        this.contextHash = contextHash;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -1,34 +1,91 @@
 package bytecode.rag_chat_storage.interceptor;
 
+import bytecode.rag_chat_storage.ratelimit.RateLimitPolicy;
+import bytecode.rag_chat_storage.ratelimit.RateLimitPolicyResolver;
 import bytecode.rag_chat_storage.service.RateLimitService;
-import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 @Component
 public class RateLimitInterceptor implements HandlerInterceptor {
 
+    static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+
     @Autowired
     private RateLimitService rateLimiterService;
 
+    @Autowired
+    private RateLimitPolicyResolver policyResolver;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // chat.rate_limit.requests{policy, result}, registered on a policy's first request
+    private final Map<RateLimitPolicy, Outcomes> outcomes = new ConcurrentHashMap<>();
+
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-        // Use X-User-ID header as key
-        String userId = request.getHeader("X-User-ID");
-        if (userId == null || userId.isEmpty()) {
-            userId = request.getRemoteAddr(); // fallback to IP
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true; // a streaming response finishing up, already counted when it started
         }
 
-        Bucket bucket = rateLimiterService.resolveBucket(userId);
+        // Use X-User-ID header as key, prefixed so a user ID can never collide with an address
+        String userId = request.getHeader("X-User-ID");
+        String clientKey = userId == null || userId.isEmpty()
+                ? "ip:" + request.getRemoteAddr() // fallback to IP
+                : "user:" + userId;
 
-        if (bucket.tryConsume(1)) {
+        RateLimitPolicy policy = policyResolver.resolve(request, handler);
+        String tier = policyResolver.resolveTier();
+        ConsumptionProbe probe = rateLimiterService
+                .resolveBucket(policy.bucketKey(tier, clientKey), policy.configuration(tier))
+                .tryConsumeAndReturnRemaining(1);
+
+        response.setHeader(REMAINING_HEADER, Long.toString(probe.getRemainingTokens()));
+        Outcomes counters = outcomes(policy);
+        if (probe.isConsumed()) {
+            counters.accepted.increment();
             return true; // allow request
         } else {
+            // Whole seconds, rounded up so a client retrying on time is not rejected again
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(probe.getNanosToWaitForRefill() + 999_999_999L));
+            counters.rejected.increment();
+            response.setHeader(RETRY_AFTER_HEADER, Long.toString(retryAfter));
             response.setStatus(429);
             response.getWriter().write("Too Many Requests");
             return false; // block request
         }
     }
+
+    private Outcomes outcomes(RateLimitPolicy policy) {
+        Outcomes counters = outcomes.get(policy);
+        return counters != null ? counters : outcomes.computeIfAbsent(policy, p -> new Outcomes(meterRegistry, p.getName()));
+    }
+
+    private record Outcomes(Counter accepted, Counter rejected) {
+
+        Outcomes(MeterRegistry meterRegistry, String policy) {
+            this(counter(meterRegistry, policy, "accepted"), counter(meterRegistry, policy, "rejected"));
+        }
+
+        private static Counter counter(MeterRegistry meterRegistry, String policy, String result) {
+            return Counter.builder("chat.rate_limit.requests")
+                    .description("Requests checked by the rate limiter")
+                    .tag("policy", policy)
+                    .tag("result", result)
+                    .register(meterRegistry);
+        }
+    }
 }
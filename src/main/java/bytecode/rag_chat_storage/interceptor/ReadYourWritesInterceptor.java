@@ -0,0 +1,81 @@
+package bytecode.rag_chat_storage.interceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.time.Duration;
+
+/**
+ * Read-your-writes for replica reads: once a user sends a write (POST, PUT, PATCH, DELETE), that user's requests
+ * read from the primary for a while, so a replica that has not replayed the write yet cannot answer with the old data,
+ * nor put it in the per-user caches.
+ *
+ * The window is max-lag plus the lag-check interval: a replica admitted for reads was at most max-lag behind at a
+ * check at most one interval ago. Writers are remembered per node, so the window only holds while a user's requests
+ * keep reaching the same node.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.jdbc.replicas.enabled", havingValue = "true")
+public class ReadYourWritesInterceptor implements HandlerInterceptor {
+
+    private static final String PINNED_ATTRIBUTE = ReadYourWritesInterceptor.class.getName() + ".pinned";
+
+    private final Cache<String, Boolean> recentWriters;
+
+    public ReadYourWritesInterceptor(@Value("${chat.jdbc.replicas.max-lag:PT2S}") Duration maxLag,
+                                     @Value("${chat.jdbc.replicas.lag-check-interval:PT1S}") Duration lagCheckInterval,
+                                     @Value("${chat.jdbc.replicas.max-recent-writers:100000}") long maxRecentWriters) {
+        this.recentWriters = Caffeine.newBuilder()
+                .maximumSize(maxRecentWriters)
+                .expireAfterWrite(maxLag.plus(lagCheckInterval))
+                .build();
+    }
+
+    /**
+     * Whether reads in the current HTTP request must go to the primary; never outside a request
+     */
+    public static boolean isPinnedToPrimary() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes != null && attributes.getAttribute(PINNED_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String userId = request.getHeader("X-User-ID");
+        if (userId == null || userId.isEmpty()) {
+            return true;
+        }
+        // Marked as the write starts, so a client reading as soon as the response arrives is covered
+        if (isWrite(request)) {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+        if (recentWriters.getIfPresent(userId) != null) {
+            request.setAttribute(PINNED_ATTRIBUTE, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        String userId = request.getHeader("X-User-ID");
+        // And again once it has committed, so the window runs from the commit however long the write took
+        if (userId != null && !userId.isEmpty() && isWrite(request)) {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+    }
+
+    private static boolean isWrite(HttpServletRequest request) {
+        return switch (request.getMethod()) {
+            case "GET", "HEAD", "OPTIONS" -> false;
+            default -> true;
+        };
+    }
+}
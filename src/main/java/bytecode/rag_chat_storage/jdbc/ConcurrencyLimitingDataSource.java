@@ -0,0 +1,194 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control in front of the connection pool.
+ *
+ * With virtual threads every request gets its own thread, so nothing upstream bounds how many callers queue on the
+ * pool; they would all wait out the pool's connection timeout. This data source lets at most maxConcurrent
+ * connections be out at once, lets at most maxWaiting callers queue for one, for up to acquireTimeout, and refuses
+ * everyone else immediately with {@link JdbcConcurrencyLimitExceededException}, which the API turns into a 503.
+ * A permit is held from getConnection until the connection is closed.
+ *
+ * Each pool gets a limiter of its own, named after it in the metrics, so a saturated primary does not hold up reads
+ * from a replica or the other way round.
+ */
+public class ConcurrencyLimitingDataSource extends DelegatingDataSource implements MeterBinder, AutoCloseable {
+
+    private final String pool;
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long acquireTimeoutNanos;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    public ConcurrencyLimitingDataSource(DataSource target, int maxConcurrent, int maxWaiting, Duration acquireTimeout) {
+        this(target, "primary", maxConcurrent, maxWaiting, acquireTimeout);
+    }
+
+    public ConcurrencyLimitingDataSource(DataSource target, String pool, int maxConcurrent, int maxWaiting,
+                                         Duration acquireTimeout) {
+        super(target);
+        this.pool = pool;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.jdbc.limiter.active", () -> maxConcurrent - permits.availablePermits())
+                .description("Connections out under the JDBC concurrency limit")
+                .tag("pool", pool)
+                .register(registry);
+        Gauge.builder("chat.jdbc.limiter.waiting", waiting::get)
+                .description("Callers queued for a connection")
+                .tag("pool", pool)
+                .register(registry);
+        FunctionCounter.builder("chat.jdbc.limiter.rejected", rejected, AtomicInteger::get)
+                .description("Connection requests refused by the JDBC concurrency limit")
+                .tag("pool", pool)
+                .register(registry);
+        if (getTargetDataSource() instanceof MeterBinder target) {
+            target.bindTo(registry); // hidden from the registry behind this wrapper
+        }
+    }
+
+    /**
+     * Close the pool behind the limiter, if it is closeable
+     */
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw reject("JDBC concurrency limit of " + maxConcurrent + " reached with " + maxWaiting + " callers already waiting");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw reject("No JDBC connection within " + Duration.ofNanos(acquireTimeoutNanos).toMillis() + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a JDBC connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private JdbcConcurrencyLimitExceededException reject(String message) {
+        rejected.incrementAndGet();
+        return new JdbcConcurrencyLimitExceededException(message);
+    }
+
+    private Connection limited(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new PermitReleasingHandler(connection, permits));
+    }
+
+    /**
+     * Passes every call through and gives the permit back on the first close
+     */
+    private static final class PermitReleasingHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PermitReleasingHandler(Connection target, Semaphore permits) {
+            this.target = target;
+            this.permits = permits;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return true;
+                    }
+                    break;
+                case "close":
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown when a connection is refused because the JDBC concurrency limit is reached and too many callers are
+ * already waiting, or the caller waited longer than the acquire timeout
+ */
+public class JdbcConcurrencyLimitExceededException extends SQLTransientConnectionException {
+
+    public JdbcConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,207 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends read-only transactions to replica pools and everything else to the primary.
+ *
+ * The physical connection is only fetched at the first statement, after the transaction manager has marked it
+ * read-only, so @Transactional(readOnly = true) service methods read from a replica while writes and access outside
+ * a read-only transaction (Flyway, JdbcTemplate) stay on the primary. A read still goes to the primary when the
+ * caller is pinned to it (primaryPinned, read-your-writes), when every replica was more than maxLag behind at its
+ * last lag check, or when a replica refuses a connection; such a replica is left out until its next good check.
+ * A replica whose concurrency limiter turns the read away is only passed over for that read.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    // Seconds since the last replayed transaction; 0 on a caught-up standby (an idle primary sends nothing to
+    // replay) and on a server that is not a standby at all. A standby without a streaming WAL receiver has replayed
+    // all it received but falls further behind the primary by the second, so it counts as unavailable. Roles
+    // without pg_read_all_stats see no status, in which case a running receiver is taken to be streaming.
+    static final String LAG_QUERY =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+            "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE COALESCE(status, 'streaming') = 'streaming') " +
+            "THEN 'Infinity' " +
+            "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 'Infinity') END";
+
+    private static final long UNAVAILABLE = Long.MAX_VALUE;
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final BooleanSupplier primaryPinned;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong pinnedReads = new AtomicLong();
+    private final AtomicLong fallbackReads = new AtomicLong();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Duration maxLag,
+                                    BooleanSupplier primaryPinned) {
+        super(primary);
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.maxLagMillis = maxLag.toMillis();
+        this.primaryPinned = primaryPinned;
+        setReadOnlyDataSource(new ReadOnlyRouter());
+    }
+
+    /**
+     * Measure every replica's replay lag; one that cannot be reached is left out of reads until it can
+     */
+    @Scheduled(fixedDelayString = "${chat.jdbc.replicas.lag-check-interval:PT1S}")
+    public void refreshLag() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet lag = statement.executeQuery(LAG_QUERY)) {
+                lag.next();
+                double seconds = lag.getDouble(1);
+                replica.lagMillis = Double.isFinite(seconds) ? Math.max(0, Math.round(seconds * 1000)) : UNAVAILABLE;
+            } catch (SQLException e) {
+                if (replica.lagMillis != UNAVAILABLE) {
+                    logger.warn("Replica {} unavailable, reading from the primary instead: {}", replica.name, e.getMessage());
+                }
+                replica.lagMillis = UNAVAILABLE;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            Gauge.builder("chat.jdbc.replica.lag", replica,
+                            r -> r.lagMillis == UNAVAILABLE ? Double.NaN : r.lagMillis / 1000.0)
+                    .description("Replay lag of a read replica at its last check; NaN while it cannot be reached")
+                    .baseUnit("seconds")
+                    .tag("replica", replica.name)
+                    .register(registry);
+        }
+        if (primary instanceof MeterBinder binder) {
+            binder.bindTo(registry); // e.g. the concurrency limiter of each pool
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof MeterBinder binder) {
+                binder.bindTo(registry);
+            }
+        }
+        routedReads(registry, "replica", replicaReads);
+        routedReads(registry, "pinned", pinnedReads);
+        routedReads(registry, "fallback", fallbackReads);
+    }
+
+    /**
+     * Close the replica pools and the primary, whichever of them are closeable
+     */
+    @Override
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+        if (primary instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static void routedReads(MeterRegistry registry, String target, AtomicLong count) {
+        FunctionCounter.builder("chat.jdbc.reads", count, AtomicLong::get)
+                .description("Read-only connections by where they were routed: a replica, the primary for a " +
+                             "pinned caller, or the primary because no replica was fit to serve")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    /**
+     * A replica within maxLag, taking turns between them; null when there is none
+     */
+    private Replica nextReplica() {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.lagMillis <= maxLagMillis) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        // Admitted until the first lag check says otherwise
+        private volatile long lagMillis;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * Where connections marked read-only come from
+     */
+    private final class ReadOnlyRouter extends AbstractDataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (primaryPinned.getAsBoolean()) {
+                pinnedReads.incrementAndGet();
+                return primary.getConnection();
+            }
+            // Each attempt moves on to the next fit replica, so a busy one is tried at most once per turn
+            for (int attempt = 0; attempt < replicas.size(); attempt++) {
+                Replica replica = nextReplica();
+                if (replica == null) {
+                    break;
+                }
+                try {
+                    Connection connection = replica.dataSource.getConnection();
+                    replicaReads.incrementAndGet();
+                    return connection;
+                } catch (JdbcConcurrencyLimitExceededException e) {
+                    // Busy rather than down: only this read moves on
+                    ReplicaRoutingDataSource.logger.debug("Replica {} at its concurrency limit: {}", replica.name, e.getMessage());
+                } catch (SQLException e) {
+                    // Qualified: AbstractDataSource has a logger of its own
+                    ReplicaRoutingDataSource.logger.warn("Replica {} refused a connection, skipping it until its " +
+                            "next lag check: {}", replica.name, e.getMessage());
+                    replica.lagMillis = UNAVAILABLE;
+                }
+            }
+            fallbackReads.incrementAndGet();
+            return primary.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new UnsupportedOperationException("Replica routing uses the pools' own credentials");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import io.github.bucket4j.TimeMeter;
+import io.github.bucket4j.distributed.ExpirationAfterWriteStrategy;
+import io.github.bucket4j.distributed.proxy.ClientSideConfig;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AbstractCompareAndSwapBasedProxyManager;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AsyncCompareAndSwapOperation;
+import io.github.bucket4j.distributed.remote.RemoteBucketState;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base for the rate-limit bucket backends: Bucket4j compare-and-swap over serialized bucket state, where every
+ * write also says how long the state is worth keeping.
+ *
+ * A bucket that has refilled to capacity is indistinguishable from a new one, so its state only needs to live until
+ * it would be full again (plus a grace period to avoid churning the row of a steady client).
+ */
+public abstract class ExpiringBucketStore extends AbstractCompareAndSwapBasedProxyManager<String> {
+
+    private final ExpirationAfterWriteStrategy expiration;
+
+    protected ExpiringBucketStore(Duration keepAfterRefill) {
+        super(ClientSideConfig.getDefault());
+        this.expiration = ExpirationAfterWriteStrategy.basedOnTimeForRefillingBucketUpToMax(keepAfterRefill);
+    }
+
+    /**
+     * How long the given state has to be kept, in milliseconds
+     */
+    protected long timeToLiveMillis(RemoteBucketState state) {
+        Long clientTime = getClientSideTime();
+        long now = clientTime != null ? clientTime : TimeMeter.SYSTEM_MILLISECONDS.currentTimeNanos();
+        return Math.max(0, expiration.calculateTimeToLiveMillis(state, now));
+    }
+
+    @Override
+    public boolean isAsyncModeSupported() {
+        return false;
+    }
+
+    @Override
+    protected AsyncCompareAndSwapOperation beginAsyncCompareAndSwapOperation(String key) {
+        throw new UnsupportedOperationException("Async mode is not supported");
+    }
+
+    @Override
+    protected CompletableFuture<Void> removeAsync(String key) {
+        throw new UnsupportedOperationException("Async mode is not supported");
+    }
+}
@@ -0,0 +1,87 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import io.github.bucket4j.distributed.remote.RemoteBucketState;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local bucket backend for single-instance deployments and tests.
+ * Holds at most maxBuckets states, each dropped once its bucket would have refilled.
+ */
+public class InMemoryBucketStore extends ExpiringBucketStore {
+
+    private final Cache<String, StoredState> states;
+
+    public InMemoryBucketStore(long maxBuckets, Duration keepAfterRefill) {
+        super(keepAfterRefill);
+        this.states = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfter(new Expiry<String, StoredState>() {
+                    @Override
+                    public long expireAfterCreate(String key, StoredState value, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(value.ttlMillis);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, StoredState value, long currentTime, long currentDuration) {
+                        return TimeUnit.MILLISECONDS.toNanos(value.ttlMillis);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, StoredState value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * Number of bucket states currently held
+     */
+    public long size() {
+        states.cleanUp();
+        return states.estimatedSize();
+    }
+
+    @Override
+    protected CompareAndSwapOperation beginCompareAndSwapOperation(String key) {
+        return new CompareAndSwapOperation() {
+            @Override
+            public Optional<byte[]> getStateData() {
+                StoredState current = states.getIfPresent(key);
+                return Optional.ofNullable(current == null ? null : current.data);
+            }
+
+            @Override
+            public boolean compareAndSwap(byte[] originalData, byte[] newData, RemoteBucketState newState) {
+                StoredState replacement = new StoredState(newData, timeToLiveMillis(newState));
+                boolean[] swapped = {false};
+                states.asMap().compute(key, (k, current) -> {
+                    // Identity check: the state must still be the exact snapshot getStateData returned
+                    byte[] currentData = current == null ? null : current.data;
+                    if (currentData != originalData) {
+                        return current;
+                    }
+                    swapped[0] = true;
+                    return replacement;
+                });
+                return swapped[0];
+            }
+        };
+    }
+
+    @Override
+    public void removeProxy(String key) {
+        states.invalidate(key);
+    }
+
+    private record StoredState(byte[] data, long ttlMillis) {
+    }
+}
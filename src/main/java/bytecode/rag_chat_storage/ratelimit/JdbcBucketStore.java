@@ -0,0 +1,81 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import io.github.bucket4j.distributed.remote.RemoteBucketState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cluster-wide bucket backend on the rate_limit_buckets table, so every replica draws from the same buckets.
+ *
+ * Each sync is one SELECT plus one conditional INSERT or UPDATE in autocommit mode; a lost race is retried by
+ * Bucket4j. Rows carry an expiry computed from the bucket state and are deleted in the background once past it.
+ */
+public class JdbcBucketStore extends ExpiringBucketStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcBucketStore.class);
+
+    private static final int CLEANUP_CHUNK_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcBucketStore(JdbcTemplate jdbcTemplate, Duration keepAfterRefill) {
+        super(keepAfterRefill);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    protected CompareAndSwapOperation beginCompareAndSwapOperation(String key) {
+        return new CompareAndSwapOperation() {
+            @Override
+            public Optional<byte[]> getStateData() {
+                List<byte[]> rows = jdbcTemplate.query("SELECT state FROM rate_limit_buckets WHERE id = ?",
+                        (rs, rowNum) -> rs.getBytes(1), key);
+                return rows.stream().findFirst();
+            }
+
+            @Override
+            public boolean compareAndSwap(byte[] originalData, byte[] newData, RemoteBucketState newState) {
+                long ttlMillis = timeToLiveMillis(newState);
+                if (originalData == null) {
+                    return jdbcTemplate.update("INSERT INTO rate_limit_buckets (id, state, expires_at) " +
+                            "VALUES (?, ?, now() + ? * interval '1 millisecond') ON CONFLICT (id) DO NOTHING",
+                            key, newData, ttlMillis) == 1;
+                }
+                return jdbcTemplate.update("UPDATE rate_limit_buckets SET state = ?, expires_at = now() + ? * interval '1 millisecond' " +
+                        "WHERE id = ? AND state = ?",
+                        newData, ttlMillis, key, originalData) == 1;
+            }
+        };
+    }
+
+    @Override
+    public void removeProxy(String key) {
+        jdbcTemplate.update("DELETE FROM rate_limit_buckets WHERE id = ?", key);
+    }
+
+    /**
+     * Delete bucket rows past their expiry, in chunks so no single statement holds many row locks
+     */
+    @Scheduled(fixedDelayString = "${chat.rate-limit.jdbc.cleanup-interval:PT5M}",
+               initialDelayString = "${chat.rate-limit.jdbc.cleanup-interval:PT5M}")
+    public int deleteExpired() {
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM rate_limit_buckets WHERE id IN " +
+                    "(SELECT id FROM rate_limit_buckets WHERE expires_at < now() LIMIT ?)", CLEANUP_CHUNK_SIZE);
+            total += deleted;
+        } while (deleted == CLEANUP_CHUNK_SIZE);
+        if (total > 0) {
+            logger.info("Deleted {} expired rate-limit buckets", total);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,70 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A rate-limit policy compiled for the hot path: one bucket configuration and bucket key prefix per tier,
+ * built once at startup. Unknown tiers get the default tier's limits.
+ */
+public final class RateLimitPolicy {
+
+    private final String name;
+    private final Map<String, Tier> tiers = new HashMap<>();
+    private final Tier defaultTier;
+
+    RateLimitPolicy(String name, Map<String, List<RateLimitProperties.Limit>> limitsByTier, String defaultTierName) {
+        this.name = name;
+        limitsByTier.forEach((tier, limits) -> tiers.put(tier, new Tier(name + ':' + tier + ':', configuration(name, tier, limits))));
+        this.defaultTier = tiers.get(defaultTierName);
+        if (defaultTier == null) {
+            throw new IllegalStateException("Rate-limit policy '" + name + "' has no limits for the default tier '" + defaultTierName + "'");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Bucket configuration for the tier
+     */
+    public BucketConfiguration configuration(String tier) {
+        return tier(tier).configuration;
+    }
+
+    /**
+     * Key of the client's bucket under this policy and tier; buckets are never shared between policies
+     */
+    public String bucketKey(String tier, String clientKey) {
+        return tier(tier).keyPrefix.concat(clientKey);
+    }
+
+    private Tier tier(String tier) {
+        return tier == null ? defaultTier : tiers.getOrDefault(tier, defaultTier);
+    }
+
+    private static BucketConfiguration configuration(String policy, String tier, List<RateLimitProperties.Limit> limits) {
+        if (limits == null || limits.isEmpty()) {
+            throw new IllegalStateException("Rate-limit policy '" + policy + "' has no limits for tier '" + tier + "'");
+        }
+        var builder = BucketConfiguration.builder();
+        for (RateLimitProperties.Limit limit : limits) {
+            if (limit.getCapacity() <= 0 || limit.getPeriod() == null || limit.getPeriod().isZero() || limit.getPeriod().isNegative()) {
+                throw new IllegalStateException("Rate-limit policy '" + policy + "' has an invalid limit for tier '" + tier + "'");
+            }
+            builder.addLimit(Bandwidth.builder()
+                    .capacity(limit.getCapacity())
+                    .refillGreedy(limit.getCapacity(), limit.getPeriod())
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private record Tier(String keyPrefix, BucketConfiguration configuration) {
+    }
+}
@@ -0,0 +1,101 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the rate-limit policy of a request and the caller's tier.
+ *
+ * Policies are matched against the route template (e.g. /api/v1/sessions/{sessionId}/messages/latest) rather than
+ * the concrete path, so the answer only depends on the handler method and is cached per handler after its first
+ * request. The tier comes from a claim of the caller's JWT; callers without one get the default tier.
+ */
+@Component
+@EnableConfigurationProperties(RateLimitProperties.class)
+public class RateLimitPolicyResolver {
+
+    private static final String FALLBACK_POLICY = "default";
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final List<Rule> rules = new ArrayList<>();
+    private final RateLimitPolicy fallback;
+    private final String tierClaim;
+    private final Map<Method, RateLimitPolicy> byHandler = new ConcurrentHashMap<>();
+
+    public RateLimitPolicyResolver(RateLimitProperties properties) {
+        for (RateLimitProperties.Policy policy : properties.getPolicies()) {
+            List<String> methods = policy.getMethods().stream().map(method -> method.toUpperCase(Locale.ROOT)).toList();
+            rules.add(new Rule(new RateLimitPolicy(policy.getName(), policy.getTiers(), properties.getDefaultTier()),
+                    methods, List.copyOf(policy.getPaths())));
+        }
+        this.fallback = new RateLimitPolicy(FALLBACK_POLICY, properties.getDefaultLimits(), properties.getDefaultTier());
+        this.tierClaim = properties.getTierClaim();
+    }
+
+    /**
+     * The policy governing the request, from the per-handler cache when the handler is a controller method
+     */
+    public RateLimitPolicy resolve(HttpServletRequest request, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return match(request.getMethod(), request.getRequestURI());
+        }
+        Method method = handlerMethod.getMethod();
+        RateLimitPolicy policy = byHandler.get(method);
+        if (policy == null) {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            policy = match(request.getMethod(), pattern != null ? pattern.toString() : request.getRequestURI());
+            byHandler.putIfAbsent(method, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * The caller's tier, or null for the default tier
+     */
+    public String resolveTier() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication instanceof JwtAuthenticationToken jwt) {
+            return jwt.getToken().getClaimAsString(tierClaim);
+        }
+        return null;
+    }
+
+    private RateLimitPolicy match(String method, String path) {
+        for (Rule rule : rules) {
+            if (rule.matches(method, path, pathMatcher)) {
+                return rule.policy;
+            }
+        }
+        return fallback;
+    }
+
+    private record Rule(RateLimitPolicy policy, List<String> methods, List<String> paths) {
+
+        boolean matches(String method, String path, PathMatcher pathMatcher) {
+            if (!methods.isEmpty() && !methods.contains(method)) {
+                return false;
+            }
+            for (String pattern : paths) {
+                if (pathMatcher.match(pattern, path)) {
+                    return true;
+                }
+            }
+            return paths.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rate-limit policies from chat.rate-limit.*.
+ *
+ * Policies are tried in order and the first whose methods and path patterns match a route applies; routes no
+ * policy matches get default-limits. Each policy maps user tiers to one or more limits, all of which a request
+ * must pass, e.g. a per-second burst and a per-minute sustained rate.
+ */
+@ConfigurationProperties(prefix = "chat.rate-limit")
+public class RateLimitProperties {
+
+    private String defaultTier = "standard";
+    private String tierClaim = "tier";
+    private Map<String, List<Limit>> defaultLimits = new LinkedHashMap<>();
+    private List<Policy> policies = new ArrayList<>();
+
+    public static class Policy {
+
+        private String name;
+        private List<String> methods = new ArrayList<>();
+        private List<String> paths = new ArrayList<>();
+        private Map<String, List<Limit>> tiers = new LinkedHashMap<>();
+
+        // Getters and Setters
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(List<String> methods) {
+            this.methods = methods;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+
+        public Map<String, List<Limit>> getTiers() {
+            return tiers;
+        }
+
+        public void setTiers(Map<String, List<Limit>> tiers) {
+            this.tiers = tiers;
+        }
+    }
+
+    /**
+     * capacity tokens, refilled greedily over period
+     */
+    public static class Limit {
+
+        private long capacity;
+        private Duration period;
+
+        // Constructors
+        public Limit() {}
+
+        public Limit(long capacity, Duration period) {
+            this.capacity = capacity;
+            this.period = period;
+        }
+
+        // Getters and Setters
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public Duration getPeriod() {
+            return period;
+        }
+
+        public void setPeriod(Duration period) {
+            this.period = period;
+        }
+    }
+
+    // Getters and Setters
+    public String getDefaultTier() {
+        return defaultTier;
+    }
+
+    public void setDefaultTier(String defaultTier) {
+        this.defaultTier = defaultTier;
+    }
+
+    public String getTierClaim() {
+        return tierClaim;
+    }
+
+    public void setTierClaim(String tierClaim) {
+        this.tierClaim = tierClaim;
+    }
+
+    public Map<String, List<Limit>> getDefaultLimits() {
+        return defaultLimits;
+    }
+
+    public void setDefaultLimits(Map<String, List<Limit>> defaultLimits) {
+        this.defaultLimits = defaultLimits;
+    }
+
+    public List<Policy> getPolicies() {
+        return policies;
+    }
+
+    public void setPolicies(List<Policy> policies) {
+        this.policies = policies;
+    }
+}
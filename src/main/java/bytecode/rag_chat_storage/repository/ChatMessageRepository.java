@@ -1,15 +1,23 @@
 package bytecode.rag_chat_storage.repository;
 
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
 import bytecode.rag_chat_storage.entity.ChatMessage;
 import bytecode.rag_chat_storage.entity.ChatSession;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
@@ -27,14 +35,179 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
     /**
      * Find messages for a chat session by session ID and user ID
      */
-    @Query("SELECT cm FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId ORDER BY cm.createdAt ASC")
-    List<ChatMessage> findByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId);
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId ORDER BY cm.createdAt ASC")
+    List<ChatMessageDto> findByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId);
 
     /**
      * Find messages for a chat session with pagination by session ID and user ID
      */
-    @Query("SELECT cm FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId ORDER BY cm.createdAt ASC")
-    Page<ChatMessage> findByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId, Pageable pageable);
+    @Query(value = MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId ORDER BY cm.createdAt ASC",
+           countQuery = "SELECT COUNT(cm) FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId")
+    Page<ChatMessageDto> findByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId, Pageable pageable);
+
+    /**
+     * Keyset page: first messages of a user's chat session, no count query
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+           "ORDER BY cm.createdAt ASC, cm.id ASC")
+    List<ChatMessageDto> findFirstPage(@Param("sessionId") Long sessionId, @Param("userId") String userId, Pageable pageable);
+
+    /**
+     * Keyset page: messages of a user's chat session strictly after (createdAt, id), ascending
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+           "AND (cm.createdAt > :createdAt OR (cm.createdAt = :createdAt AND cm.id > :id)) " +
+           "ORDER BY cm.createdAt ASC, cm.id ASC")
+    List<ChatMessageDto> findPageAfter(@Param("sessionId") Long sessionId,
+                                       @Param("userId") String userId,
+                                       @Param("createdAt") LocalDateTime createdAt,
+                                       @Param("id") Long id,
+                                       Pageable pageable);
+
+    /**
+     * Keyset page: messages of a user's chat session strictly before (createdAt, id), descending
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+           "AND (cm.createdAt < :createdAt OR (cm.createdAt = :createdAt AND cm.id < :id)) " +
+           "ORDER BY cm.createdAt DESC, cm.id DESC")
+    List<ChatMessageDto> findPageBefore(@Param("sessionId") Long sessionId,
+                                        @Param("userId") String userId,
+                                        @Param("createdAt") LocalDateTime createdAt,
+                                        @Param("id") Long id,
+                                        Pageable pageable);
+
+    /**
+     * Keyset page: most recent messages of a user's chat session, descending
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+           "ORDER BY cm.createdAt DESC, cm.id DESC")
+    List<ChatMessageDto> findLastPage(@Param("sessionId") Long sessionId, @Param("userId") String userId, Pageable pageable);
+
+    /**
+     * Stream all messages for a chat session in order, fetching rows from the driver in chunks
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm WHERE cm.chatSession.id = :sessionId ORDER BY cm.createdAt ASC, cm.id ASC")
+    Stream<ChatMessageDto> streamByChatSessionId(@Param("sessionId") Long sessionId);
+
+    /**
+     * Stream every message of a user's sessions, grouped by session and in conversation order
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.userId = :userId " +
+           "ORDER BY cs.id ASC, cm.createdAt ASC, cm.id ASC")
+    Stream<ChatMessageDto> streamByUserId(@Param("userId") String userId);
+
+    /**
+     * Stream every message of a user's sessions updated at or after the given time
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.userId = :userId AND cs.updatedAt >= :updatedSince " +
+           "ORDER BY cs.id ASC, cm.createdAt ASC, cm.id ASC")
+    Stream<ChatMessageDto> streamByUserIdUpdatedSince(@Param("userId") String userId, @Param("updatedSince") LocalDateTime updatedSince);
+
+    /**
+     * Full-text search over content and context of all a user's messages, best match first.
+     * Content matches come from the GIN index on chat_messages, context matches from the one on message_contexts;
+     * ranking runs on the matches only and snippets are built for the returned rows only.
+     */
+    @Query(value = "SELECT m.id AS id, m.chat_session_id AS chatSessionId, s.name AS sessionName, " +
+                   "m.sender_type AS senderType, m.created_at AS createdAt, hit.rank AS rank, " +
+                   "ts_headline('english', coalesce(m.content, '') || ' ' || coalesce(ctx.body, ''), " +
+                   "websearch_to_tsquery('english', :query), " +
+                   "'MaxFragments=2, MinWords=5, MaxWords=20, FragmentDelimiter=\" ... \", StartSel=<mark>, StopSel=</mark>') AS snippet " +
+                   "FROM (" +
+                   "SELECT cm.id, ts_rank_cd(chat_message_content_vector(cm.content) || " +
+                   "coalesce(message_context_search_vector(mc.body), ''::tsvector), q) AS rank " +
+                   "FROM chat_messages cm JOIN chat_sessions cs ON cs.id = cm.chat_session_id " +
+                   "LEFT JOIN message_contexts mc ON mc.hash = cm.context_hash, " +
+                   "websearch_to_tsquery('english', :query) q " +
+                   "WHERE cs.user_id = :userId AND cs.deleted_at IS NULL " +
+                   "AND (chat_message_content_vector(cm.content) @@ q OR cm.context_hash IN " +
+                   "(SELECT c.hash FROM message_contexts c WHERE message_context_search_vector(c.body) @@ q)) " +
+                   "ORDER BY rank DESC, cm.id DESC LIMIT :limit OFFSET :offset" +
+                   ") hit " +
+                   "JOIN chat_messages m ON m.id = hit.id " +
+                   "JOIN chat_sessions s ON s.id = m.chat_session_id " +
+                   "LEFT JOIN message_contexts ctx ON ctx.hash = m.context_hash " +
+                   "ORDER BY hit.rank DESC, hit.id DESC",
+           nativeQuery = true)
+    List<MessageSearchHit> searchByUserId(@Param("userId") String userId,
+                                          @Param("query") String query,
+                                          @Param("limit") int limit,
+                                          @Param("offset") long offset);
+
+    /**
+     * Find a message by ID within a user's chat session, with the owner checked on the joined session row.
+     * Without a created_at bound this cannot prune partitions: it probes the (id, created_at) primary key index of
+     * every monthly partition.
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs " +
+           "WHERE cm.id = :messageId AND cm.chatSessionId = :sessionId AND cs.userId = :userId")
+    Optional<ChatMessageDto> findByIdAndChatSessionIdAndUserId(@Param("messageId") Long messageId,
+                                                               @Param("sessionId") Long sessionId,
+                                                               @Param("userId") String userId);
+
+    /**
+     * Delete a message by ID within a user's chat session, returning the number of rows removed.
+     * Like the lookup by ID, it probes every monthly partition.
+     */
+    @Modifying
+    @Query("DELETE FROM ChatMessage cm WHERE cm.id = :messageId AND cm.chatSessionId = :sessionId AND cm.chatSessionId IN " +
+           "(SELECT cs.id FROM ChatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId)")
+    int deleteByIdAndChatSessionIdAndUserId(@Param("messageId") Long messageId,
+                                            @Param("sessionId") Long sessionId,
+                                            @Param("userId") String userId);
+
+    /**
+     * Delete every message of a user's chat session in one statement, returning the number of rows removed
+     */
+    @Modifying
+    @Query("DELETE FROM ChatMessage cm WHERE cm.chatSession.id IN " +
+           "(SELECT cs.id FROM ChatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId)")
+    int deleteAllByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId);
+
+    /**
+     * Delete every message in all of a user's chat sessions in one statement
+     */
+    @Modifying
+    @Query("DELETE FROM ChatMessage cm WHERE cm.chatSession.id IN (SELECT cs.id FROM ChatSession cs WHERE cs.userId = :userId)")
+    int deleteAllByUserId(@Param("userId") String userId);
+
+    /**
+     * Delete up to limit messages of a session, whether or not it is tombstoned. Used by the background purge.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_messages WHERE id IN " +
+                   "(SELECT id FROM chat_messages WHERE chat_session_id = :sessionId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByChatSessionId(@Param("sessionId") Long sessionId, @Param("limit") int limit);
+
+    /**
+     * Count messages across all of a user's chat sessions; reads every monthly partition
+     */
+    @Query("SELECT COUNT(cm) FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.userId = :userId")
+    long countByUserId(@Param("userId") String userId);
+
+    /**
+     * Count messages in a user's chat session; reads every monthly partition
+     */
+    @Query("SELECT COUNT(cm) FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId")
+    long countByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId);
+
+    /**
+     * Find the latest messages of a user's chat session
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId ORDER BY cm.createdAt DESC, cm.id DESC")
+    List<ChatMessageDto> findLatestByChatSessionIdAndUserId(@Param("sessionId") Long sessionId, @Param("userId") String userId, Pageable pageable);
+
+    /**
+     * Find messages by sender type in a user's chat session
+     */
+    @Query(MESSAGE_DTO_SELECT + "FROM ChatMessage cm JOIN cm.chatSession cs WHERE cs.id = :sessionId AND cs.userId = :userId " +
+           "AND cm.senderType = :senderType ORDER BY cm.createdAt ASC")
+    List<ChatMessageDto> findByChatSessionIdAndUserIdAndSenderType(@Param("sessionId") Long sessionId,
+                                                                   @Param("userId") String userId,
+                                                                   @Param("senderType") ChatMessage.SenderType senderType);
 
     /**
      * Count total messages for a chat session
@@ -56,4 +229,10 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
      * Find messages by sender type for a specific session
      */
     List<ChatMessage> findByChatSessionAndSenderTypeOrderByCreatedAtAsc(ChatSession chatSession, ChatMessage.SenderType senderType);
+
+    // Constructor projection: rows are read straight into DTOs, so no managed entity or dirty-checking snapshot is
+    // kept per row. The session ID is read from the chat_session_id column itself. The context is left out; it lives
+    // in message_contexts and is loaded only when asked for.
+    String MESSAGE_DTO_SELECT = "SELECT new bytecode.rag_chat_storage.dto.ChatMessageDto(" +
+                                "cm.id, cm.chatSessionId, cm.senderType, cm.content, cm.createdAt) ";
 }
@@ -1,13 +1,16 @@
 package bytecode.rag_chat_storage.repository;
 
+import bytecode.rag_chat_storage.dto.ChatSessionDto;
 import bytecode.rag_chat_storage.entity.ChatSession;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,23 +20,33 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, Long>
     /**
      * Find all chat sessions for a specific user
      */
-    List<ChatSession> findByUserIdOrderByUpdatedAtDesc(String userId);
+    @Query(SESSION_DTO_SELECT + "FROM ChatSession cs WHERE cs.userId = :userId ORDER BY cs.updatedAt DESC")
+    List<ChatSessionDto> findByUserIdOrderByUpdatedAtDesc(@Param("userId") String userId);
 
     /**
      * Find all chat sessions for a specific user with pagination
      */
-    Page<ChatSession> findByUserIdOrderByUpdatedAtDesc(String userId, Pageable pageable);
+    @Query(value = SESSION_DTO_SELECT + "FROM ChatSession cs WHERE cs.userId = :userId ORDER BY cs.updatedAt DESC",
+           countQuery = "SELECT COUNT(cs) FROM ChatSession cs WHERE cs.userId = :userId")
+    Page<ChatSessionDto> findByUserIdOrderByUpdatedAtDesc(@Param("userId") String userId, Pageable pageable);
 
     /**
      * Find favorite chat sessions for a specific user
      */
-    List<ChatSession> findByUserIdAndIsFavoriteTrueOrderByUpdatedAtDesc(String userId);
+    @Query(SESSION_DTO_SELECT + "FROM ChatSession cs WHERE cs.userId = :userId AND cs.isFavorite = true ORDER BY cs.updatedAt DESC")
+    List<ChatSessionDto> findByUserIdAndIsFavoriteTrueOrderByUpdatedAtDesc(@Param("userId") String userId);
 
     /**
-     * Find a specific chat session by ID and user ID
+     * Find a specific chat session by ID and user ID, to be changed
      */
     Optional<ChatSession> findByIdAndUserId(Long id, String userId);
 
+    /**
+     * Find a specific chat session by ID and user ID, to be read
+     */
+    @Query(SESSION_DTO_SELECT + "FROM ChatSession cs WHERE cs.id = :id AND cs.userId = :userId")
+    Optional<ChatSessionDto> findDtoByIdAndUserId(@Param("id") Long id, @Param("userId") String userId);
+
     /**
      * Check if a chat session exists for a user
      */
@@ -52,12 +65,125 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, Long>
     /**
      * Search sessions by name for a specific user
      */
-    @Query("SELECT cs FROM ChatSession cs WHERE cs.userId = :userId AND LOWER(cs.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) ORDER BY cs.updatedAt DESC")
-    List<ChatSession> findByUserIdAndNameContainingIgnoreCase(@Param("userId") String userId, @Param("searchTerm") String searchTerm);
+    @Query(SESSION_DTO_SELECT + "FROM ChatSession cs WHERE cs.userId = :userId AND LOWER(cs.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) ORDER BY cs.updatedAt DESC")
+    List<ChatSessionDto> findByUserIdAndNameContainingIgnoreCase(@Param("userId") String userId, @Param("searchTerm") String searchTerm);
+
+    /**
+     * Set the word similarity the fuzzy name search requires, for the rest of the current transaction
+     */
+    @Query(value = "SELECT set_config('pg_trgm.word_similarity_threshold', :threshold, true)", nativeQuery = true)
+    String setWordSimilarityThreshold(@Param("threshold") String threshold);
+
+    /**
+     * First page of a typo-tolerant name search, closest match first.
+     * Matches names containing a word similar to the query (pg_trgm word similarity of at least
+     * pg_trgm.word_similarity_threshold) through the trigram GIN index, then ranks the matches.
+     */
+    @Query(value = FUZZY_SELECT + "ORDER BY lower(:query) <<-> lower(cs.name), cs.id LIMIT :limit", nativeQuery = true)
+    List<SessionNameHit> searchByNameSimilarity(@Param("userId") String userId,
+                                                @Param("query") String query,
+                                                @Param("limit") int limit);
+
+    /**
+     * Next page of a typo-tolerant name search, after the given (distance, id) position
+     */
+    @Query(value = FUZZY_SELECT +
+                   "AND (lower(:query) <<-> lower(cs.name) > :distance " +
+                   "OR (lower(:query) <<-> lower(cs.name) = :distance AND cs.id > :afterId)) " +
+                   "ORDER BY lower(:query) <<-> lower(cs.name), cs.id LIMIT :limit",
+           nativeQuery = true)
+    List<SessionNameHit> searchByNameSimilarityAfter(@Param("userId") String userId,
+                                                     @Param("query") String query,
+                                                     @Param("distance") double distance,
+                                                     @Param("afterId") Long afterId,
+                                                     @Param("limit") int limit);
+
+    /**
+     * First page of sessions whose name starts with the prefix, case-insensitively, in name order
+     */
+    @Query(value = PREFIX_SELECT + "ORDER BY lower(cs.name) COLLATE \"C\", cs.id LIMIT :limit", nativeQuery = true)
+    List<SessionNameHit> searchByNamePrefix(@Param("userId") String userId,
+                                            @Param("prefix") String prefix,
+                                            @Param("limit") int limit);
+
+    /**
+     * Next page of a prefix search, after the given (lower-cased name, id) position
+     */
+    @Query(value = PREFIX_SELECT +
+                   "AND (lower(cs.name) COLLATE \"C\", cs.id) > (:afterKey, :afterId) " +
+                   "ORDER BY lower(cs.name) COLLATE \"C\", cs.id LIMIT :limit",
+           nativeQuery = true)
+    List<SessionNameHit> searchByNamePrefixAfter(@Param("userId") String userId,
+                                                 @Param("prefix") String prefix,
+                                                 @Param("afterKey") String afterKey,
+                                                 @Param("afterId") Long afterId,
+                                                 @Param("limit") int limit);
+
+    // Constructor projection: rows are read straight into DTOs, without managed entities in the persistence context
+    String SESSION_DTO_SELECT = "SELECT new bytecode.rag_chat_storage.dto.ChatSessionDto(" +
+                                "cs.id, cs.userId, cs.name, cs.isFavorite, cs.createdAt, cs.updatedAt) ";
+
+    String SESSION_NAME_HIT_COLUMNS = "SELECT cs.id AS id, cs.user_id AS userId, cs.name AS name, cs.is_favorite AS isFavorite, " +
+                                      "cs.created_at AS createdAt, cs.updated_at AS updatedAt, ";
+
+    String FUZZY_SELECT = SESSION_NAME_HIT_COLUMNS +
+                          "CAST(lower(:query) <<-> lower(cs.name) AS float8) AS distance, CAST(NULL AS text) AS sortKey " +
+                          "FROM chat_sessions cs " +
+                          "WHERE cs.user_id = :userId AND cs.deleted_at IS NULL AND lower(:query) <% lower(cs.name) ";
+
+    // The range is the index-friendly form of LIKE 'prefix%' in byte order: chr(1114111) is the highest code point
+    String PREFIX_SELECT = SESSION_NAME_HIT_COLUMNS +
+                           "CAST(NULL AS float8) AS distance, lower(cs.name) AS sortKey " +
+                           "FROM chat_sessions cs " +
+                           "WHERE cs.user_id = :userId AND cs.deleted_at IS NULL " +
+                           "AND lower(cs.name) COLLATE \"C\" >= lower(:prefix) " +
+                           "AND lower(cs.name) COLLATE \"C\" < lower(:prefix) || chr(1114111) ";
+
+    /**
+     * Delete a user's chat session row in one statement, returning the number of rows removed.
+     * Messages must already be gone.
+     */
+    @Modifying
+    @Query("DELETE FROM ChatSession cs WHERE cs.id = :id AND cs.userId = :userId AND cs.deletedAt IS NULL")
+    int deleteByIdAndUserId(@Param("id") Long id, @Param("userId") String userId);
+
+    /**
+     * Delete all of a user's chat session rows in one statement. Messages must already be gone.
+     */
+    @Modifying
+    @Query("DELETE FROM ChatSession cs WHERE cs.userId = :userId AND cs.deletedAt IS NULL")
+    int deleteAllByUserId(@Param("userId") String userId);
+
+    /**
+     * Tombstone a user's chat session so it disappears immediately and can be purged in the background
+     */
+    @Modifying
+    @Query("UPDATE ChatSession cs SET cs.deletedAt = :deletedAt WHERE cs.id = :id AND cs.userId = :userId AND cs.deletedAt IS NULL")
+    int markDeletedByIdAndUserId(@Param("id") Long id, @Param("userId") String userId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * Tombstone all of a user's chat sessions
+     */
+    @Modifying
+    @Query("UPDATE ChatSession cs SET cs.deletedAt = :deletedAt WHERE cs.userId = :userId AND cs.deletedAt IS NULL")
+    int markDeletedByUserId(@Param("userId") String userId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * IDs of all tombstoned sessions waiting to be purged
+     */
+    @Query(value = "SELECT id FROM chat_sessions WHERE deleted_at IS NOT NULL", nativeQuery = true)
+    List<Long> findIdsPendingPurge();
+
+    /**
+     * IDs of a user's tombstoned sessions waiting to be purged
+     */
+    @Query(value = "SELECT id FROM chat_sessions WHERE user_id = :userId AND deleted_at IS NOT NULL", nativeQuery = true)
+    List<Long> findIdsPendingPurgeByUserId(@Param("userId") String userId);
 
     /**
-     * Find sessions with pagination and search
+     * Remove a tombstoned session row once its messages have been purged
      */
-    @Query("SELECT cs FROM ChatSession cs WHERE cs.userId = :userId AND LOWER(cs.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) ORDER BY cs.updatedAt DESC")
-    Page<ChatSession> findByUserIdAndNameContainingIgnoreCase(@Param("userId") String userId, @Param("searchTerm") String searchTerm, Pageable pageable);
+    @Modifying
+    @Query(value = "DELETE FROM chat_sessions WHERE id = :id AND deleted_at IS NOT NULL", nativeQuery = true)
+    int deletePurgedById(@Param("id") Long id);
 }
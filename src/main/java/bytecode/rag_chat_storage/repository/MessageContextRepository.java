@@ -0,0 +1,164 @@
+package bytecode.rag_chat_storage.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Content-addressed store of RAG contexts in message_contexts, keyed by the SHA-256 of their UTF-8 text.
+ *
+ * A context is written once however many messages carry it. Reference counts are kept by triggers on chat_messages
+ * (see the V11 migration); contexts no message refers to any more are deleted in the background after a grace
+ * period, which covers writers that found a context in place and are about to reference it.
+ */
+@Repository
+public class MessageContextRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageContextRepository.class);
+
+    private static final int CLEANUP_CHUNK_SIZE = 1000;
+
+    // Claiming an orphan restarts its grace period, so the cleanup cannot take it from under the new reference
+    private static final String UPSERT_SQL =
+            "INSERT INTO message_contexts (hash, body) VALUES (?, ?) " +
+            "ON CONFLICT (hash) DO UPDATE SET released_at = now() WHERE message_contexts.ref_count = 0";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Duration releaseGrace;
+    private Counter stored;
+    private Counter reused;
+
+    public MessageContextRepository(@Value("${chat.message.context.release-grace:PT1H}") Duration releaseGrace) {
+        this.releaseGrace = releaseGrace;
+    }
+
+    @Autowired
+    void registerMetrics(MeterRegistry meterRegistry) {
+        stored = counter(meterRegistry, "stored");
+        reused = counter(meterRegistry, "reused");
+    }
+
+    /**
+     * SHA-256 of the context's UTF-8 text, as stored in chat_messages.context_hash
+     */
+    public static byte[] hash(String context) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(context.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Make sure every context is stored and return their hashes in the same order, null for a null context.
+     * Call in the transaction that inserts the messages referring to them.
+     */
+    public List<byte[]> store(List<String> contexts) {
+        List<byte[]> hashes = new ArrayList<>(contexts.size());
+        // In Postgres bytea order, the order the triggers lock rows in
+        Map<byte[], String> distinct = new TreeMap<>(Arrays::compareUnsigned);
+        for (String context : contexts) {
+            byte[] hash = context == null ? null : hash(context);
+            hashes.add(hash);
+            if (hash != null) {
+                distinct.putIfAbsent(hash, context);
+            }
+        }
+        if (distinct.isEmpty()) {
+            return hashes;
+        }
+
+        // Contexts other messages already hold need no write at all: no body sent, no row locked
+        Set<ByteBuffer> held = new HashSet<>(jdbcTemplate.query(
+                "SELECT hash FROM message_contexts WHERE hash = ANY (?) AND ref_count > 0",
+                statement -> statement.setArray(1, statement.getConnection()
+                        .createArrayOf("bytea", distinct.keySet().toArray(new byte[0][]))),
+                (row, rowNum) -> ByteBuffer.wrap(row.getBytes(1))));
+        List<Map.Entry<byte[], String>> missing = new ArrayList<>();
+        for (Map.Entry<byte[], String> entry : distinct.entrySet()) {
+            if (!held.contains(ByteBuffer.wrap(entry.getKey()))) {
+                missing.add(entry);
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, missing, missing.size(), (statement, entry) -> {
+                statement.setBytes(1, entry.getKey());
+                statement.setString(2, entry.getValue());
+            });
+        }
+        reused.increment(held.size());
+        stored.increment(missing.size());
+        return hashes;
+    }
+
+    /**
+     * Context text of the given messages, by message ID; messages without one are left out
+     */
+    public Map<Long, String> findByMessageIds(Collection<Long> messageIds) {
+        Map<Long, String> contexts = new HashMap<>();
+        if (messageIds.isEmpty()) {
+            return contexts;
+        }
+        jdbcTemplate.query("SELECT cm.id, mc.body FROM chat_messages cm " +
+                           "JOIN message_contexts mc ON mc.hash = cm.context_hash WHERE cm.id = ANY (?)",
+                statement -> statement.setArray(1, statement.getConnection()
+                        .createArrayOf("bigint", messageIds.toArray(new Long[0]))),
+                row -> {
+                    contexts.put(row.getLong(1), row.getString(2));
+                });
+        return contexts;
+    }
+
+    /**
+     * Delete contexts no message has referred to for the grace period, in chunks so no single statement holds many
+     * row locks. The conditions are repeated outside the subquery so a context claimed meanwhile is skipped.
+     */
+    @Scheduled(fixedDelayString = "${chat.message.context.cleanup-interval:PT10M}",
+               initialDelayString = "${chat.message.context.cleanup-interval:PT10M}")
+    public int deleteReleased() {
+        long graceSeconds = releaseGrace.toSeconds();
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM message_contexts WHERE hash IN " +
+                    "(SELECT hash FROM message_contexts WHERE ref_count = 0 AND released_at < now() - make_interval(secs => ?) LIMIT ?) " +
+                    "AND ref_count = 0 AND released_at < now() - make_interval(secs => ?)",
+                    graceSeconds, CLEANUP_CHUNK_SIZE, graceSeconds);
+            total += deleted;
+        } while (deleted == CLEANUP_CHUNK_SIZE);
+        if (total > 0) {
+            logger.info("Deleted {} message contexts no longer referenced", total);
+        }
+        return total;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.message.contexts")
+                .description("Distinct RAG contexts written with new messages, by whether they were already stored")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,23 @@
+package bytecode.rag_chat_storage.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row returned by the full-text message search
+ */
+public interface MessageSearchHit {
+
+    Long getId();
+
+    Long getChatSessionId();
+
+    String getSessionName();
+
+    String getSenderType();
+
+    LocalDateTime getCreatedAt();
+
+    Double getRank();
+
+    String getSnippet();
+}
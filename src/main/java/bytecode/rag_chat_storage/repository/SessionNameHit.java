@@ -0,0 +1,31 @@
+package bytecode.rag_chat_storage.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row returned by the session-name search, carrying the keyset position it was ordered by
+ */
+public interface SessionNameHit {
+
+    Long getId();
+
+    String getUserId();
+
+    String getName();
+
+    Boolean getIsFavorite();
+
+    LocalDateTime getCreatedAt();
+
+    LocalDateTime getUpdatedAt();
+
+    /**
+     * Word-similarity distance to the query (0 = exact word match); null in prefix mode
+     */
+    Double getDistance();
+
+    /**
+     * Lower-cased name the prefix mode is ordered by; null in fuzzy mode
+     */
+    String getSortKey();
+}
@@ -0,0 +1,28 @@
+package bytecode.rag_chat_storage.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers side effects of a write (cache updates, notifications) until its transaction commits
+ */
+final class AfterCommit {
+
+    private AfterCommit() {}
+
+    /**
+     * Run the action once the current transaction commits, or right away if there is none
+     */
+    static void run(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -3,44 +3,100 @@ package bytecode.rag_chat_storage.service;
 
 import bytecode.rag_chat_storage.dto.AddMessageRequest;
 import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.dto.MessageCursor;
+import bytecode.rag_chat_storage.dto.MessageSearchResultDto;
 import bytecode.rag_chat_storage.entity.ChatMessage;
 import bytecode.rag_chat_storage.entity.ChatSession;
 import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
 import bytecode.rag_chat_storage.repository.ChatMessageRepository;
 import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import bytecode.rag_chat_storage.repository.MessageSearchHit;
+import bytecode.rag_chat_storage.writebehind.MessageWriteBehind;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
+@Timed("chat.service")
 public class ChatMessageService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatMessageService.class);
 
+    private static final int MAX_CURSOR_PAGE_SIZE = 100;
+
+    private static final int MAX_SEARCH_PAGE_SIZE = 50;
+
+    private static final Comparator<ChatMessageDto> CONVERSATION_ORDER =
+            Comparator.comparing(ChatMessageDto::getCreatedAt).thenComparing(ChatMessageDto::getId);
+
     @Autowired
     private ChatMessageRepository chatMessageRepository;
 
     @Autowired
     private ChatSessionRepository chatSessionRepository;
 
+    @Autowired
+    private SessionOwnershipVerifier sessionOwnershipVerifier;
+
+    @Autowired
+    private MessageTailCache messageTailCache;
+
+    @Autowired
+    private MessagePayloadMetrics messagePayloadMetrics;
+
+    @Autowired
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired
+    private MessageEventHub messageEventHub;
+
+    @Autowired
+    private MessageContextRepository messageContextRepository;
+
     /**
      * Add a new message to a chat session
      */
     public ChatMessageDto addMessage(String userId, Long sessionId, AddMessageRequest request) {
         logger.info("Adding message to session: {} for user: {}", sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
+        // Verify session exists and belongs to user; the FK only needs a reference, not a loaded session
+        sessionOwnershipVerifier.verify(userId, sessionId);
+        if (messageWriteBehind.isEnabled()) {
+            ChatMessageDto acceptedDto = messageWriteBehind.append(userId, sessionId, List.of(request)).get(0);
+            logger.info("Accepted message with ID: {} for session: {} for user: {}", acceptedDto.getId(), sessionId, userId);
+            messagePayloadMetrics.record(request.getContent(), request.getContext());
+            messageTailCache.appendAfterCommit(sessionId, List.of(acceptedDto));
+            messageEventHub.publishAfterCommit(sessionId, List.of(acceptedDto));
+            return acceptedDto;
+        }
+        ChatSession session = chatSessionRepository.getReferenceById(sessionId);
         
         // Create new message
         ChatMessage message = new ChatMessage();
@@ -48,68 +104,401 @@ public class ChatMessageService {
         message.setSenderType(request.getSenderType());
         message.setContent(request.getContent());
         message.setContext(request.getContext());
+        if (request.getContext() != null) {
+            message.setContextHash(messageContextRepository.store(Collections.singletonList(request.getContext())).get(0));
+        }
         
-        ChatMessage savedMessage = chatMessageRepository.save(message);
+        // Flush so the insert runs now and @CreationTimestamp is populated before the DTO is built
+        ChatMessage savedMessage = chatMessageRepository.saveAndFlush(message);
         
         logger.info("Added message with ID: {} to session: {} for user: {}", 
                    savedMessage.getId(), sessionId, userId);
         
-        return new ChatMessageDto(savedMessage);
+        messagePayloadMetrics.record(request.getContent(), request.getContext());
+        ChatMessageDto savedDto = new ChatMessageDto(savedMessage);
+        messageTailCache.appendAfterCommit(sessionId, List.of(savedDto));
+        messageEventHub.publishAfterCommit(sessionId, List.of(savedDto));
+        return savedDto;
+    }
+
+    /**
+     * Add several messages to a chat session in one transaction.
+     * The session is verified once and the inserts go out as a JDBC batch.
+     */
+    public List<ChatMessageDto> addMessages(String userId, Long sessionId, List<AddMessageRequest> requests) {
+        logger.info("Adding {} messages to session: {} for user: {}", requests.size(), sessionId, userId);
+
+        // Verify session exists and belongs to user
+        sessionOwnershipVerifier.verify(userId, sessionId);
+        if (messageWriteBehind.isEnabled()) {
+            List<ChatMessageDto> acceptedDtos = messageWriteBehind.append(userId, sessionId, requests);
+            logger.info("Accepted {} messages for session: {} for user: {}", acceptedDtos.size(), sessionId, userId);
+            requests.forEach(request -> messagePayloadMetrics.record(request.getContent(), request.getContext()));
+            messageTailCache.appendAfterCommit(sessionId, acceptedDtos);
+            messageEventHub.publishAfterCommit(sessionId, acceptedDtos);
+            return acceptedDtos;
+        }
+        ChatSession session = chatSessionRepository.getReferenceById(sessionId);
+
+        List<byte[]> contextHashes = messageContextRepository.store(requests.stream()
+                .map(AddMessageRequest::getContext)
+                .collect(Collectors.toList()));
+        List<ChatMessage> messages = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            AddMessageRequest request = requests.get(i);
+            ChatMessage message = new ChatMessage(session, request.getSenderType(), request.getContent(), request.getContext());
+            message.setContextHash(contextHashes.get(i));
+            messages.add(message);
+        }
+
+        // The flush sends the JDBC batch and populates createdAt on every message
+        List<ChatMessage> savedMessages = chatMessageRepository.saveAllAndFlush(messages);
+
+        logger.info("Added {} messages to session: {} for user: {}", savedMessages.size(), sessionId, userId);
+        requests.forEach(request -> messagePayloadMetrics.record(request.getContent(), request.getContext()));
+
+        List<ChatMessageDto> savedDtos = savedMessages.stream()
+                .map(ChatMessageDto::new)
+                .collect(Collectors.toList());
+        messageTailCache.appendAfterCommit(sessionId, savedDtos);
+        messageEventHub.publishAfterCommit(sessionId, savedDtos);
+        return savedDtos;
     }
 
     /**
      * Get all messages for a chat session
      */
-    public List<ChatMessageDto> getMessagesBySessionId(String userId, Long sessionId) {
+    @Transactional(readOnly = true)
+    public List<ChatMessageDto> getMessagesBySessionId(String userId, Long sessionId, boolean includeContext) {
         logger.info("Retrieving messages for session: {} for user: {}", sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
-        
-        List<ChatMessage> messages = chatMessageRepository.findByChatSessionOrderByCreatedAtAsc(session);
+        // Ownership is part of the query; only an empty result needs telling apart from a missing session
+        List<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId);
+        List<ChatMessageDto> messages = chatMessageRepository.findByChatSessionIdAndUserId(sessionId, userId);
+        if (messages.isEmpty() && pending.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
         
-        return messages.stream()
-                .map(ChatMessageDto::new)
-                .collect(Collectors.toList());
+        return presented(merge(messages, pending, CONVERSATION_ORDER, Integer.MAX_VALUE), includeContext);
     }
 
     /**
      * Get messages for a chat session with pagination
      */
-    public Page<ChatMessageDto> getMessagesBySessionId(String userId, Long sessionId, int page, int size) {
+    @Transactional(readOnly = true)
+    public Page<ChatMessageDto> getMessagesBySessionId(String userId, Long sessionId, int page, int size, boolean includeContext) {
         logger.info("Retrieving messages for session: {} for user: {} with pagination - page: {}, size: {}", 
                    sessionId, userId, page, size);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
-        
+        messageWriteBehind.awaitFlushed(sessionId);
         Pageable pageable = PageRequest.of(page, size);
-        Page<ChatMessage> messages = chatMessageRepository.findByChatSessionOrderByCreatedAtAsc(session, pageable);
+        Page<ChatMessageDto> messages = chatMessageRepository.findByChatSessionIdAndUserId(sessionId, userId, pageable);
+        if (messages.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
         
-        return messages.map(ChatMessageDto::new);
+        return new PageImpl<>(presented(messages.getContent(), includeContext), pageable, messages.getTotalElements());
+    }
+
+    /**
+     * Get messages for a chat session using keyset (cursor) pagination.
+     * Seeks on (createdAt, id) so page cost does not grow with depth, and never runs a count query.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDto<ChatMessageDto> getMessagesBySessionId(String userId, Long sessionId, String cursor, int limit,
+                                                                boolean includeContext) {
+        logger.info("Retrieving messages for session: {} for user: {} with cursor pagination - limit: {}",
+                   sessionId, userId, limit);
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_CURSOR_PAGE_SIZE));
+        MessageCursor position = cursor == null || cursor.isBlank() ? null : MessageCursor.decode(cursor);
+
+        // Fetch one extra row to learn whether another page exists in the direction of travel
+        Pageable probe = PageRequest.of(0, pageSize + 1);
+        List<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId);
+        List<ChatMessageDto> rows;
+        if (position == null) {
+            rows = chatMessageRepository.findFirstPage(sessionId, userId, probe);
+        } else if (position.getDirection() == MessageCursor.Direction.AFTER) {
+            rows = chatMessageRepository.findPageAfter(sessionId, userId, position.getCreatedAt(), position.getId(), probe);
+        } else {
+            rows = chatMessageRepository.findPageBefore(sessionId, userId, position.getCreatedAt(), position.getId(), probe);
+        }
+        if (rows.isEmpty() && pending.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
+
+        boolean backwards = position != null && position.getDirection() == MessageCursor.Direction.BEFORE;
+        Comparator<ChatMessageDto> travelOrder = backwards ? CONVERSATION_ORDER.reversed() : CONVERSATION_ORDER;
+        List<ChatMessageDto> page = merge(rows, beyond(pending, position), travelOrder, pageSize + 1);
+        return toCursorPage(presented(page, includeContext), pageSize, backwards, position != null);
+    }
+
+    /**
+     * Get the most recent messages of a chat session as a cursor page in ascending order.
+     * prevCursor, when present, continues into older history via the cursor-paginated endpoint.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDto<ChatMessageDto> getLatestMessagePage(String userId, Long sessionId, int limit, boolean includeContext) {
+        logger.info("Retrieving latest message page for session: {} for user: {} - limit: {}", sessionId, userId, limit);
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_CURSOR_PAGE_SIZE));
+
+        List<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId);
+        List<ChatMessageDto> rows = chatMessageRepository.findLastPage(sessionId, userId, PageRequest.of(0, pageSize + 1));
+        if (rows.isEmpty() && pending.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
+        List<ChatMessageDto> page = merge(rows, pending, CONVERSATION_ORDER.reversed(), pageSize + 1);
+        return toCursorPage(presented(page, includeContext), pageSize, true, false);
+    }
+
+    /**
+     * Open a live stream of the messages added to a chat session from now on.
+     * With lastEventId, the messages added after that one are replayed first; if there are more than a subscriber
+     * can buffer, or the message is gone, the stream asks the client to resync instead.
+     */
+    @Transactional(readOnly = true)
+    public SseEmitter subscribeToMessages(String userId, Long sessionId, Long lastEventId, boolean includeContext) {
+        logger.info("Opening message stream for session: {} for user: {} after message: {}", sessionId, userId, lastEventId);
+
+        sessionOwnershipVerifier.verify(userId, sessionId);
+        SseEmitter emitter = messageEventHub.newEmitter();
+        // Subscribe before reading the backlog so nothing committed in between is missed; overlap is de-duplicated
+        MessageEventHub.Subscription subscription = messageEventHub.subscribe(sessionId, emitter, includeContext);
+        if (lastEventId == null) {
+            subscription.start(List.of());
+            return emitter;
+        }
+
+        try {
+            List<ChatMessageDto> missed = new ArrayList<>();
+            String cursor;
+            try {
+                cursor = MessageCursor.after(getMessage(userId, sessionId, lastEventId, false)).encode();
+            } catch (ResourceNotFoundException e) {
+                subscription.resync();
+                return emitter;
+            }
+            while (cursor != null && missed.size() <= messageEventHub.bufferSize()) {
+                CursorPageDto<ChatMessageDto> page = getMessagesBySessionId(userId, sessionId, cursor, MAX_CURSOR_PAGE_SIZE, includeContext);
+                missed.addAll(page.getContent());
+                cursor = page.getNextCursor();
+            }
+            if (missed.size() > messageEventHub.bufferSize()) {
+                subscription.resync();
+            } else {
+                subscription.start(missed);
+            }
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * Stream every message of a chat session in order without materialising the whole history.
+     * Rows are read through a fetch-size bounded cursor straight into DTOs, so the persistence context stays empty.
+     */
+    @Transactional(readOnly = true)
+    public void streamMessages(String userId, Long sessionId, boolean includeContext, Consumer<ChatMessageDto> sink) {
+        logger.info("Streaming messages for session: {} for user: {}", sessionId, userId);
+
+        // Verify session exists and belongs to user
+        sessionOwnershipVerifier.verify(userId, sessionId);
+        messageWriteBehind.awaitFlushed(sessionId);
+
+        ContextLoadingSink target = new ContextLoadingSink(sink, includeContext);
+        try (Stream<ChatMessageDto> messages = chatMessageRepository.streamByChatSessionId(sessionId)) {
+            messages.forEach(target);
+        }
+        target.flush();
+    }
+
+    /**
+     * Stream every message of all the user's chat sessions, session by session, through the same bounded cursor.
+     * With updatedSince set only sessions touched since then are included, for incremental exports.
+     */
+    @Transactional(readOnly = true)
+    public void streamAllMessages(String userId, LocalDateTime updatedSince, boolean includeContext, Consumer<ChatMessageDto> sink) {
+        logger.info("Streaming messages of all sessions for user: {} updated since: {}", userId, updatedSince);
+        messageWriteBehind.awaitFlushedForUser(userId);
+
+        ContextLoadingSink target = new ContextLoadingSink(sink, includeContext);
+        try (Stream<ChatMessageDto> messages = updatedSince == null
+                ? chatMessageRepository.streamByUserId(userId)
+                : chatMessageRepository.streamByUserIdUpdatedSince(userId, updatedSince)) {
+            messages.forEach(target);
+        }
+        target.flush();
+    }
+
+    /**
+     * Full-text search over message content and RAG context across all the user's sessions, best matches first.
+     * The query accepts web-search syntax: quoted phrases, OR, and -excluded terms.
+     */
+    @Transactional(readOnly = true)
+    public Slice<MessageSearchResultDto> searchMessages(String userId, String query, int page, int size) {
+        logger.info("Searching messages for user: {} - page: {}, size: {}", userId, page, size);
+
+        int pageSize = Math.min(Math.max(size, 1), MAX_SEARCH_PAGE_SIZE);
+        Pageable pageable = PageRequest.of(Math.max(page, 0), pageSize);
+        if (query == null || query.isBlank()) {
+            return new SliceImpl<>(List.of(), pageable, false);
+        }
+        messageWriteBehind.awaitFlushedForUser(userId);
+
+        // Fetch one extra row to learn whether a next page exists without counting every match
+        List<MessageSearchHit> hits = chatMessageRepository.searchByUserId(userId, query, pageSize + 1, pageable.getOffset());
+        List<MessageSearchResultDto> results = hits.stream()
+                .limit(pageSize)
+                .map(MessageSearchResultDto::new)
+                .collect(Collectors.toList());
+
+        return new SliceImpl<>(results, pageable, hits.size() > pageSize);
+    }
+
+    /**
+     * Verify a chat session exists and belongs to the user
+     */
+    @Transactional(readOnly = true)
+    public void verifySessionAccess(String userId, Long sessionId) {
+        sessionOwnershipVerifier.verify(userId, sessionId);
+    }
+
+    /**
+     * Turn up to pageSize + 1 rows into a cursor page.
+     * rows are in travel order: ascending when paging forwards, descending when paging backwards.
+     * fromCursor tells whether the page was reached from a cursor, i.e. there is history on the side we came from.
+     */
+    private CursorPageDto<ChatMessageDto> toCursorPage(List<ChatMessageDto> rows, int pageSize, boolean backwards, boolean fromCursor) {
+        boolean more = rows.size() > pageSize;
+        List<ChatMessageDto> messages = new ArrayList<>(rows.subList(0, Math.min(pageSize, rows.size())));
+
+        if (backwards) {
+            Collections.reverse(messages);
+        }
+        if (messages.isEmpty()) {
+            return new CursorPageDto<>(messages, null, null);
+        }
+
+        boolean hasNext = backwards ? fromCursor : more;
+        boolean hasPrevious = backwards ? more : fromCursor;
+        String nextCursor = hasNext ? MessageCursor.after(messages.get(messages.size() - 1)).encode() : null;
+        String prevCursor = hasPrevious ? MessageCursor.before(messages.get(0)).encode() : null;
+
+        return new CursorPageDto<>(messages, nextCursor, prevCursor);
+    }
+
+    /**
+     * Add messages still pending in the write-behind pipeline to those read from the database, in the given order,
+     * keeping at most limit. A message flushed between the two reads is in both and kept once.
+     */
+    private static List<ChatMessageDto> merge(List<ChatMessageDto> stored, List<ChatMessageDto> pending,
+                                              Comparator<ChatMessageDto> order, int limit) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Set<Long> storedIds = new HashSet<>();
+        stored.forEach(message -> storedIds.add(message.getId()));
+        return Stream.concat(stored.stream(), pending.stream().filter(message -> !storedIds.contains(message.getId())))
+                .sorted(order)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The pending messages on the far side of a cursor position, or all of them on a first page
+     */
+    private static List<ChatMessageDto> beyond(List<ChatMessageDto> pending, MessageCursor position) {
+        if (position == null || pending.isEmpty()) {
+            return pending;
+        }
+        ChatMessageDto at = new ChatMessageDto();
+        at.setCreatedAt(position.getCreatedAt());
+        at.setId(position.getId());
+        Predicate<ChatMessageDto> beyond = position.getDirection() == MessageCursor.Direction.AFTER
+                ? message -> CONVERSATION_ORDER.compare(message, at) > 0
+                : message -> CONVERSATION_ORDER.compare(message, at) < 0;
+        return pending.stream().filter(beyond).collect(Collectors.toList());
+    }
+
+    /**
+     * Messages as handed to the client: with their RAG context, loaded in one query for those read from the database,
+     * or without it. Messages are copied rather than changed, as they may be cached or pending.
+     */
+    private List<ChatMessageDto> presented(List<ChatMessageDto> messages, boolean includeContext) {
+        if (!includeContext) {
+            return messages.stream()
+                    .map(message -> message.getContext() == null ? message : message.withContext(null))
+                    .collect(Collectors.toList());
+        }
+        List<Long> unloaded = messages.stream()
+                .filter(message -> message.getContext() == null)
+                .map(ChatMessageDto::getId)
+                .collect(Collectors.toList());
+        Map<Long, String> contexts = messageContextRepository.findByMessageIds(unloaded);
+        return messages.stream()
+                .map(message -> message.withContext(message.getContext() != null
+                        ? message.getContext()
+                        : contexts.get(message.getId())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Passes streamed messages on, loading their contexts a chunk at a time when they are wanted
+     */
+    private class ContextLoadingSink implements Consumer<ChatMessageDto> {
+
+        private static final int CHUNK_SIZE = 500;
+
+        private final Consumer<ChatMessageDto> sink;
+        private final boolean includeContext;
+        private final List<ChatMessageDto> chunk = new ArrayList<>();
+
+        ContextLoadingSink(Consumer<ChatMessageDto> sink, boolean includeContext) {
+            this.sink = sink;
+            this.includeContext = includeContext;
+        }
+
+        @Override
+        public void accept(ChatMessageDto message) {
+            if (!includeContext) {
+                sink.accept(message);
+                return;
+            }
+            chunk.add(message);
+            if (chunk.size() == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            presented(chunk, true).forEach(sink);
+            chunk.clear();
+        }
     }
 
     /**
      * Get a specific message by ID
      */
-    public ChatMessageDto getMessage(String userId, Long sessionId, Long messageId) {
+    @Transactional(readOnly = true)
+    public ChatMessageDto getMessage(String userId, Long sessionId, Long messageId, boolean includeContext) {
         logger.info("Retrieving message: {} from session: {} for user: {}", messageId, sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
-        
-        ChatMessage message = chatMessageRepository.findById(messageId)
-                .orElseThrow(() -> new ResourceNotFoundException("Message not found with id: " + messageId));
-        
-        // Verify message belongs to the session
-        if (!message.getChatSession().getId().equals(sessionId)) {
-            throw new ResourceNotFoundException("Message not found in session: " + sessionId);
+        Optional<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId).stream()
+                .filter(candidate -> candidate.getId().equals(messageId))
+                .findFirst();
+        if (pending.isPresent()) {
+            return presented(List.of(pending.get()), includeContext).get(0);
         }
         
-        return new ChatMessageDto(message);
+        // Message, session and owner are matched in one query
+        ChatMessageDto message = chatMessageRepository.findByIdAndChatSessionIdAndUserId(messageId, sessionId, userId)
+                .orElseThrow(() -> messageNotFound(userId, sessionId, messageId));
+        
+        return presented(List.of(message), includeContext).get(0);
     }
 
     /**
@@ -118,19 +507,13 @@ public class ChatMessageService {
     public void deleteMessage(String userId, Long sessionId, Long messageId) {
         logger.info("Deleting message: {} from session: {} for user: {}", messageId, sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
-        
-        ChatMessage message = chatMessageRepository.findById(messageId)
-                .orElseThrow(() -> new ResourceNotFoundException("Message not found with id: " + messageId));
-        
-        // Verify message belongs to the session
-        if (!message.getChatSession().getId().equals(sessionId)) {
-            throw new ResourceNotFoundException("Message not found in session: " + sessionId);
+        // Single DELETE scoped to the user's session; nothing is loaded
+        messageWriteBehind.awaitFlushed(sessionId);
+        int deleted = chatMessageRepository.deleteByIdAndChatSessionIdAndUserId(messageId, sessionId, userId);
+        if (deleted == 0) {
+            throw messageNotFound(userId, sessionId, messageId);
         }
-        
-        chatMessageRepository.delete(message);
+        messageTailCache.invalidateAfterCommit(sessionId);
         
         logger.info("Deleted message: {} from session: {} for user: {}", messageId, sessionId, userId);
     }
@@ -138,61 +521,115 @@ public class ChatMessageService {
     /**
      * Delete all messages for a chat session
      */
-    public void deleteMessagesBySessionId(String userId, Long sessionId) {
+    public int deleteMessagesBySessionId(String userId, Long sessionId) {
         logger.info("Deleting all messages for session: {} for user: {}", sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
+        // One set-based DELETE; messages are never loaded into the persistence context
+        messageWriteBehind.awaitFlushed(sessionId);
+        int deleted = chatMessageRepository.deleteAllByChatSessionIdAndUserId(sessionId, userId);
+        if (deleted == 0) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
+        messageTailCache.invalidateAfterCommit(sessionId);
         
-        chatMessageRepository.deleteByChatSession(session);
+        logger.info("Deleted {} messages for session: {} for user: {}", deleted, sessionId, userId);
+        return deleted;
+    }
+
+    /**
+     * Delete all messages in every chat session of a user
+     */
+    public int deleteAllMessagesForUser(String userId) {
+        logger.info("Deleting all messages for user: {}", userId);
         
-        logger.info("Deleted all messages for session: {} for user: {}", sessionId, userId);
+        messageWriteBehind.awaitFlushedForUser(userId);
+        int deleted = chatMessageRepository.deleteAllByUserId(userId);
+        messageTailCache.invalidateUserAfterCommit(userId);
+        
+        logger.info("Deleted {} messages for user: {}", deleted, userId);
+        return deleted;
+    }
+
+    /**
+     * Get message count across all chat sessions of a user
+     */
+    @Transactional(readOnly = true)
+    public long getMessageCountForUser(String userId) {
+        messageWriteBehind.awaitFlushedForUser(userId);
+        return chatMessageRepository.countByUserId(userId);
     }
 
     /**
      * Get message count for a chat session
      */
+    @Transactional(readOnly = true)
     public long getMessageCount(String userId, Long sessionId) {
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
+        messageWriteBehind.awaitFlushed(sessionId);
+        long count = chatMessageRepository.countByChatSessionIdAndUserId(sessionId, userId);
+        if (count == 0) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
         
-        return chatMessageRepository.countByChatSession(session);
+        return count;
     }
 
     /**
      * Get latest messages for a chat session
      */
-    public List<ChatMessageDto> getLatestMessages(String userId, Long sessionId, int limit) {
+    @Transactional(readOnly = true)
+    public List<ChatMessageDto> getLatestMessages(String userId, Long sessionId, int limit, boolean includeContext) {
         logger.info("Retrieving latest {} messages for session: {} for user: {}", limit, sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
+        Optional<List<ChatMessageDto>> cached = messageTailCache.latest(sessionId, userId, limit);
+        if (cached.isPresent()) {
+            return presented(cached.get(), includeContext);
+        }
         
-        Pageable pageable = PageRequest.of(0, limit);
-        List<ChatMessage> messages = chatMessageRepository.findLatestByChatSession(session, pageable);
+        // On a miss read a full tail, so the next calls are served from memory whatever limit they ask for
+        int tailSize = messageTailCache.capacity();
+        boolean fillTail = limit <= tailSize;
+        long stamp = messageTailCache.stamp(sessionId);
         
-        return messages.stream()
-                .map(ChatMessageDto::new)
-                .collect(Collectors.toList());
+        int wanted = fillTail ? tailSize : limit;
+        List<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId);
+        List<ChatMessageDto> messages = chatMessageRepository.findLatestByChatSessionIdAndUserId(sessionId, userId, PageRequest.of(0, wanted));
+        if (messages.isEmpty() && pending.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
+        
+        List<ChatMessageDto> latest = merge(messages, pending, CONVERSATION_ORDER.reversed(), wanted);
+        if (fillTail) {
+            messageTailCache.fill(sessionId, userId, latest, latest.size() < tailSize, stamp);
+            return presented(latest.subList(0, Math.min(limit, latest.size())), includeContext);
+        }
+        return presented(latest, includeContext);
     }
 
     /**
      * Get messages by sender type for a session
      */
-    public List<ChatMessageDto> getMessagesBySenderType(String userId, Long sessionId, ChatMessage.SenderType senderType) {
+    @Transactional(readOnly = true)
+    public List<ChatMessageDto> getMessagesBySenderType(String userId, Long sessionId, ChatMessage.SenderType senderType,
+                                                        boolean includeContext) {
         logger.info("Retrieving {} messages for session: {} for user: {}", senderType, sessionId, userId);
         
-        // Verify session exists and belongs to user
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
-        
-        List<ChatMessage> messages = chatMessageRepository.findByChatSessionAndSenderTypeOrderByCreatedAtAsc(session, senderType);
-        
-        return messages.stream()
-                .map(ChatMessageDto::new)
+        List<ChatMessageDto> pending = messageWriteBehind.pending(sessionId, userId).stream()
+                .filter(message -> message.getSenderType() == senderType)
                 .collect(Collectors.toList());
+        List<ChatMessageDto> messages = chatMessageRepository.findByChatSessionIdAndUserIdAndSenderType(sessionId, userId, senderType);
+        if (messages.isEmpty() && pending.isEmpty()) {
+            sessionOwnershipVerifier.verify(userId, sessionId);
+        }
+        
+        return presented(merge(messages, pending, CONVERSATION_ORDER, Integer.MAX_VALUE), includeContext);
+    }
+
+    /**
+     * Build the not-found error for a message lookup that matched nothing,
+     * reporting a missing session rather than a missing message when that is the cause
+     */
+    private ResourceNotFoundException messageNotFound(String userId, Long sessionId, Long messageId) {
+        sessionOwnershipVerifier.verify(userId, sessionId);
+        return new ResourceNotFoundException("Message not found with id: " + messageId);
     }
 }
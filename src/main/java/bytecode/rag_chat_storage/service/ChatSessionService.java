@@ -1,37 +1,69 @@
 package bytecode.rag_chat_storage.service;
 
 
+import bytecode.rag_chat_storage.config.CacheConfig;
 import bytecode.rag_chat_storage.dto.*;
 import bytecode.rag_chat_storage.entity.ChatSession;
 import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
 import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import bytecode.rag_chat_storage.repository.SessionNameHit;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Service
 @Transactional
+@Timed("chat.service")
 public class ChatSessionService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatSessionService.class);
 
+    private static final int MAX_SEARCH_PAGE_SIZE = 50;
+
     @Autowired
     private ChatSessionRepository chatSessionRepository;
 
     @Autowired
     private ChatMessageService chatMessageService;
 
+    @Autowired
+    private SessionOwnershipVerifier sessionOwnershipVerifier;
+
+    @Autowired
+    private SessionPurgeService sessionPurgeService;
+
+    @Autowired
+    private MessageTailCache messageTailCache;
+
+    @Value("${chat.session.detail-message-window:50}")
+    private int detailMessageWindow;
+
+    @Value("${chat.session.purge.async-threshold:10000}")
+    private long asyncPurgeThreshold;
+
+    @Value("${chat.session.search.similarity-threshold:0.4}")
+    private double similarityThreshold;
+
     /**
      * Create a new chat session
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.SESSION_STATS, key = "#userId")
+    })
     public ChatSessionDto createChatSession(String userId, CreateChatSessionRequest request) {
         logger.info("Creating new chat session for user: {}", userId);
         
@@ -43,43 +75,45 @@ public class ChatSessionService {
     }
 
     /**
-     * Get all chat sessions for a user
+     * Get all chat sessions for a user, cached per user until one of their sessions changes
      */
+    @Cacheable(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId")
+    @Transactional(readOnly = true)
     public List<ChatSessionDto> getAllChatSessions(String userId) {
         logger.info("Retrieving all chat sessions for user: {}", userId);
         
-        List<ChatSession> sessions = chatSessionRepository.findByUserIdOrderByUpdatedAtDesc(userId);
-        return sessions.stream()
-                .map(ChatSessionDto::new)
-                .collect(Collectors.toList());
+        return List.copyOf(chatSessionRepository.findByUserIdOrderByUpdatedAtDesc(userId));
     }
 
     /**
      * Get chat sessions with pagination
      */
+    @Transactional(readOnly = true)
     public Page<ChatSessionDto> getChatSessions(String userId, int page, int size) {
         logger.info("Retrieving chat sessions for user: {} with pagination - page: {}, size: {}", userId, page, size);
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<ChatSession> sessions = chatSessionRepository.findByUserIdOrderByUpdatedAtDesc(userId, pageable);
-        
-        return sessions.map(ChatSessionDto::new);
+        return chatSessionRepository.findByUserIdOrderByUpdatedAtDesc(userId, pageable);
     }
 
     /**
-     * Get a specific chat session by ID
+     * Get a specific chat session by ID with its most recent messages.
+     * Older history is reachable through olderMessagesCursor on the cursor-paginated messages endpoint.
+     * The messages carry their RAG context only with includeContext.
      */
-    public ChatSessionDto getChatSession(String userId, Long sessionId) {
+    @Transactional(readOnly = true)
+    public ChatSessionDto getChatSession(String userId, Long sessionId, boolean includeContext) {
         logger.info("Retrieving chat session: {} for user: {}", sessionId, userId);
         
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
+        ChatSessionDto sessionDto = chatSessionRepository.findDtoByIdAndUserId(sessionId, userId)
                 .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
         
-        ChatSessionDto sessionDto = new ChatSessionDto(session);
+        sessionOwnershipVerifier.remember(userId, sessionId);
         
-        // Load messages for the session
-        List<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId(userId, sessionId);
-        sessionDto.setMessages(messages);
+        // Load only the tail window of messages for the session
+        CursorPageDto<ChatMessageDto> recent = chatMessageService.getLatestMessagePage(userId, sessionId, detailMessageWindow, includeContext);
+        sessionDto.setMessages(recent.getContent());
+        sessionDto.setOlderMessagesCursor(recent.getPrevCursor());
         
         return sessionDto;
     }
@@ -87,6 +121,10 @@ public class ChatSessionService {
     /**
      * Update a chat session name
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.FAVORITE_SESSIONS, key = "#userId")
+    })
     public ChatSessionDto updateChatSession(String userId, Long sessionId, UpdateChatSessionRequest request) {
         logger.info("Updating chat session: {} for user: {}", sessionId, userId);
         
@@ -103,6 +141,11 @@ public class ChatSessionService {
     /**
      * Toggle favorite status of a chat session
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.FAVORITE_SESSIONS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.SESSION_STATS, key = "#userId")
+    })
     public ChatSessionDto toggleFavorite(String userId, Long sessionId) {
         logger.info("Toggling favorite status for chat session: {} for user: {}", sessionId, userId);
         
@@ -118,50 +161,144 @@ public class ChatSessionService {
     }
 
     /**
-     * Delete a chat session and all its messages
+     * Delete a chat session and all its messages.
+     * Sessions above the async purge threshold are tombstoned and their messages removed in the background.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.FAVORITE_SESSIONS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.SESSION_STATS, key = "#userId")
+    })
     public void deleteChatSession(String userId, Long sessionId) {
         logger.info("Deleting chat session: {} for user: {}", sessionId, userId);
         
-        ChatSession session = chatSessionRepository.findByIdAndUserId(sessionId, userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Chat session not found with id: " + sessionId));
+        // Also verifies the session exists and belongs to the user
+        long messageCount = chatMessageService.getMessageCount(userId, sessionId);
         
-        // Delete all messages first
-        chatMessageService.deleteMessagesBySessionId(userId, sessionId);
+        if (messageCount > asyncPurgeThreshold) {
+            if (chatSessionRepository.markDeletedByIdAndUserId(sessionId, userId, LocalDateTime.now()) == 0) {
+                throw new ResourceNotFoundException("Chat session not found with id: " + sessionId);
+            }
+            messageTailCache.invalidateAfterCommit(sessionId);
+            sessionPurgeService.schedulePurge(List.of(sessionId));
+            logger.info("Scheduled purge of chat session: {} ({} messages) for user: {}", sessionId, messageCount, userId);
+        } else {
+            // Set-based deletes: messages first, then the session row
+            chatMessageService.deleteMessagesBySessionId(userId, sessionId);
+            if (chatSessionRepository.deleteByIdAndUserId(sessionId, userId) == 0) {
+                throw new ResourceNotFoundException("Chat session not found with id: " + sessionId);
+            }
+            logger.info("Deleted chat session: {} for user: {}", sessionId, userId);
+        }
+        sessionOwnershipVerifier.forget(userId, sessionId);
+    }
+
+    /**
+     * Delete all chat sessions of a user, returning how many were removed or scheduled for purge
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.SESSION_LISTS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.FAVORITE_SESSIONS, key = "#userId"),
+            @CacheEvict(cacheNames = CacheConfig.SESSION_STATS, key = "#userId")
+    })
+    public int deleteAllChatSessions(String userId) {
+        logger.info("Deleting all chat sessions for user: {}", userId);
+        
+        long messageCount = chatMessageService.getMessageCountForUser(userId);
         
-        // Delete the session
-        chatSessionRepository.delete(session);
+        if (messageCount > asyncPurgeThreshold) {
+            int marked = chatSessionRepository.markDeletedByUserId(userId, LocalDateTime.now());
+            messageTailCache.invalidateUserAfterCommit(userId);
+            sessionPurgeService.schedulePurge(chatSessionRepository.findIdsPendingPurgeByUserId(userId));
+            logger.info("Scheduled purge of {} chat sessions ({} messages) for user: {}", marked, messageCount, userId);
+            return marked;
+        }
         
-        logger.info("Deleted chat session: {} for user: {}", sessionId, userId);
+        chatMessageService.deleteAllMessagesForUser(userId);
+        int deleted = chatSessionRepository.deleteAllByUserId(userId);
+        
+        logger.info("Deleted {} chat sessions for user: {}", deleted, userId);
+        return deleted;
     }
 
     /**
-     * Get favorite chat sessions for a user
+     * Get favorite chat sessions for a user, cached per user until one of their sessions changes
      */
+    @Cacheable(cacheNames = CacheConfig.FAVORITE_SESSIONS, key = "#userId")
+    @Transactional(readOnly = true)
     public List<ChatSessionDto> getFavoriteChatSessions(String userId) {
         logger.info("Retrieving favorite chat sessions for user: {}", userId);
         
-        List<ChatSession> sessions = chatSessionRepository.findByUserIdAndIsFavoriteTrueOrderByUpdatedAtDesc(userId);
-        return sessions.stream()
-                .map(ChatSessionDto::new)
-                .collect(Collectors.toList());
+        return List.copyOf(chatSessionRepository.findByUserIdAndIsFavoriteTrueOrderByUpdatedAtDesc(userId));
     }
 
     /**
      * Search chat sessions by name
      */
+    @Transactional(readOnly = true)
     public List<ChatSessionDto> searchChatSessions(String userId, String searchTerm) {
         logger.info("Searching chat sessions for user: {} with term: {}", userId, searchTerm);
         
-        List<ChatSession> sessions = chatSessionRepository.findByUserIdAndNameContainingIgnoreCase(userId, searchTerm);
-        return sessions.stream()
-                .map(ChatSessionDto::new)
-                .collect(Collectors.toList());
+        return chatSessionRepository.findByUserIdAndNameContainingIgnoreCase(userId, searchTerm);
+    }
+
+    /**
+     * Search chat session names with keyset pagination.
+     * FUZZY ranks names by trigram word similarity to the query, so typos still match; PREFIX is for
+     * autocomplete and returns names starting with the query in alphabetical order.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDto<ChatSessionDto> searchChatSessions(String userId, String query, SessionSearchCursor.Mode mode,
+                                                            String cursor, int limit) {
+        logger.info("Searching chat sessions for user: {} - mode: {}, limit: {}", userId, mode, limit);
+
+        if (query == null || query.isBlank()) {
+            return new CursorPageDto<>(List.of(), null, null);
+        }
+        String term = query.strip();
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_PAGE_SIZE));
+        SessionSearchCursor position = cursor == null || cursor.isBlank() ? null : SessionSearchCursor.decode(cursor, mode);
+
+        // One extra row tells whether there is a next page
+        List<SessionNameHit> hits;
+        if (mode == SessionSearchCursor.Mode.PREFIX) {
+            hits = position == null
+                    ? chatSessionRepository.searchByNamePrefix(userId, term, pageSize + 1)
+                    : chatSessionRepository.searchByNamePrefixAfter(userId, term, position.getSortKey(), position.getId(), pageSize + 1);
+        } else {
+            chatSessionRepository.setWordSimilarityThreshold(String.valueOf(similarityThreshold));
+            hits = position == null
+                    ? chatSessionRepository.searchByNameSimilarity(userId, term, pageSize + 1)
+                    : chatSessionRepository.searchByNameSimilarityAfter(userId, term, position.getDistance(), position.getId(), pageSize + 1);
+        }
+
+        List<SessionNameHit> page = hits.subList(0, Math.min(hits.size(), pageSize));
+        String nextCursor = null;
+        if (hits.size() > pageSize) {
+            SessionNameHit last = page.get(page.size() - 1);
+            nextCursor = (mode == SessionSearchCursor.Mode.PREFIX
+                    ? SessionSearchCursor.prefix(last.getSortKey(), last.getId())
+                    : SessionSearchCursor.fuzzy(last.getDistance(), last.getId())).encode();
+        }
+        return new CursorPageDto<>(page.stream().map(ChatSessionService::toDto).toList(), nextCursor, null);
+    }
+
+    private static ChatSessionDto toDto(SessionNameHit hit) {
+        ChatSessionDto dto = new ChatSessionDto();
+        dto.setId(hit.getId());
+        dto.setUserId(hit.getUserId());
+        dto.setName(hit.getName());
+        dto.setIsFavorite(hit.getIsFavorite());
+        dto.setCreatedAt(hit.getCreatedAt());
+        dto.setUpdatedAt(hit.getUpdatedAt());
+        return dto;
     }
 
     /**
-     * Get session statistics for a user
+     * Get session statistics for a user, cached per user until a session is created, deleted or (un)favorited
      */
+    @Cacheable(cacheNames = CacheConfig.SESSION_STATS, key = "#userId")
+    @Transactional(readOnly = true)
     public SessionStatsDto getSessionStats(String userId) {
         logger.info("Retrieving session statistics for user: {}", userId);
         
@@ -174,6 +311,7 @@ public class ChatSessionService {
     /**
      * Check if a chat session exists for a user
      */
+    @Transactional(readOnly = true)
     public boolean existsChatSession(String userId, Long sessionId) {
         return chatSessionRepository.existsByIdAndUserId(sessionId, userId);
     }
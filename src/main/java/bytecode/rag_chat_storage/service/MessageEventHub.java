@@ -0,0 +1,273 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process fan-out of newly added messages to the Server-Sent Events subscribers of their session.
+ *
+ * Publishing never waits on a subscriber: each one has a bounded buffer that a sender task drains onto its
+ * connection, and at most one sender runs per subscriber. A subscriber that falls a whole buffer behind is sent an
+ * {@code overflow} event and disconnected; it reconnects with Last-Event-ID and catches up from the database.
+ * Only subscribers connected to this instance see a message.
+ */
+@Service
+public class MessageEventHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageEventHub.class);
+
+    static final String MESSAGE_EVENT = "message";
+    static final String OVERFLOW_EVENT = "overflow";
+
+    // Buffered in place of a message to keep idle connections from being cut by proxies
+    private static final Object HEARTBEAT = new Object();
+
+    private final int bufferSize;
+    private final Duration timeout;
+    private final Map<Long, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ExecutorService senders;
+
+    public MessageEventHub(@Value("${chat.message.stream.buffer-size:256}") int bufferSize,
+                           @Value("${chat.message.stream.timeout:PT30M}") Duration timeout) {
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        AtomicInteger threads = new AtomicInteger();
+        // One sender per subscriber with undelivered events; a stalled client only ever holds its own thread
+        this.senders = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "message-stream-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Autowired
+    void registerMetrics(MeterRegistry meterRegistry) {
+        Gauge.builder("chat.message.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open message stream connections on this instance")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Most events a subscriber can fall behind by, and so the longest gap a reconnect catches up on
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Emitter for a new stream connection; it is closed after chat.message.stream.timeout and the client reconnects
+     */
+    public SseEmitter newEmitter() {
+        return new SseEmitter(timeout.toMillis());
+    }
+
+    /**
+     * Start buffering the session's messages for the emitter. Nothing is sent until the subscription is started,
+     * so the caller can first replay what the client missed. Without includeContext, messages go out without their
+     * RAG context.
+     */
+    public Subscription subscribe(Long sessionId, SseEmitter emitter, boolean includeContext) {
+        Subscription subscription = new Subscription(sessionId, emitter, includeContext);
+        subscriptions.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        subscriberCount.incrementAndGet();
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(() -> {
+            subscription.close();
+            emitter.complete();
+        });
+        emitter.onError(error -> subscription.close());
+        return subscription;
+    }
+
+    /**
+     * Send newly added messages to the session's subscribers once the current transaction commits
+     */
+    public void publishAfterCommit(Long sessionId, List<ChatMessageDto> messages) {
+        AfterCommit.run(() -> publish(sessionId, messages));
+    }
+
+    void publish(Long sessionId, List<ChatMessageDto> messages) {
+        Set<Subscription> subscribers = subscriptions.get(sessionId);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            for (ChatMessageDto message : messages) {
+                subscription.offer(message);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.message.stream.heartbeat-interval:PT30S}",
+               initialDelayString = "${chat.message.stream.heartbeat-interval:PT30S}")
+    void sendHeartbeats() {
+        subscriptions.values().forEach(subscribers -> subscribers.forEach(Subscription::heartbeat));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        subscriptions.values().forEach(subscribers -> subscribers.forEach(subscription -> subscription.emitter.complete()));
+        senders.shutdownNow();
+    }
+
+    private void remove(Subscription subscription) {
+        Set<Subscription> subscribers = subscriptions.get(subscription.sessionId);
+        if (subscribers != null && subscribers.remove(subscription)) {
+            subscriberCount.decrementAndGet();
+            subscriptions.computeIfPresent(subscription.sessionId, (id, current) -> current.isEmpty() ? null : current);
+        }
+    }
+
+    /**
+     * One client's stream of a session's messages
+     */
+    public final class Subscription {
+
+        private final Long sessionId;
+        private final SseEmitter emitter;
+        private final boolean includeContext;
+        private final BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final Set<Long> replayed = new HashSet<>();
+        private volatile boolean started;
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        private Subscription(Long sessionId, SseEmitter emitter, boolean includeContext) {
+            this.sessionId = sessionId;
+            this.emitter = emitter;
+            this.includeContext = includeContext;
+        }
+
+        /**
+         * Send the replayed messages, then everything published since {@link #subscribe} that was not among them
+         */
+        public void start(List<ChatMessageDto> missed) {
+            senders.execute(() -> {
+                try {
+                    for (ChatMessageDto message : missed) {
+                        replayed.add(message.getId());
+                        sendMessage(message);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    close();
+                    return;
+                }
+                started = true;
+                schedule();
+            });
+        }
+
+        /**
+         * Tell the client it has missed more than can be replayed, and end the stream
+         */
+        public void resync() {
+            overflowed = true;
+            started = true;
+            schedule();
+        }
+
+        /**
+         * Drop a subscription whose emitter never made it back to the client
+         */
+        public void cancel() {
+            close();
+        }
+
+        private void offer(Object event) {
+            if (closed || overflowed) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                overflowed = true;
+            }
+            schedule();
+        }
+
+        private void heartbeat() {
+            if (!closed && buffer.isEmpty() && buffer.offer(HEARTBEAT)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (started && !closed && sending.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Object event;
+                while (!closed) {
+                    if (overflowed) {
+                        buffer.clear();
+                        emitter.send(SseEmitter.event().name(OVERFLOW_EVENT).data("resync"));
+                        close();
+                        emitter.complete();
+                        return;
+                    }
+                    if ((event = buffer.poll()) == null) {
+                        break;
+                    }
+                    if (event == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else if (!replayed.contains(((ChatMessageDto) event).getId())) {
+                        sendMessage((ChatMessageDto) event);
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away; the container reports it through the emitter callbacks as well
+                logger.debug("Message stream for session {} closed: {}", sessionId, e.getMessage());
+                close();
+            } finally {
+                sending.set(false);
+            }
+            // An event offered after the last poll but before the flag was cleared would otherwise wait for the next one
+            if (!buffer.isEmpty() || overflowed) {
+                schedule();
+            }
+        }
+
+        private void sendMessage(ChatMessageDto message) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .name(MESSAGE_EVENT)
+                    .id(String.valueOf(message.getId()))
+                    .data(includeContext || message.getContext() == null ? message : message.withContext(null),
+                            MediaType.APPLICATION_JSON));
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                buffer.clear();
+                remove(this);
+            }
+        }
+    }
+}
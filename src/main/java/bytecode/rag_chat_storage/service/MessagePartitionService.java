@@ -0,0 +1,189 @@
+package bytecode.rag_chat_storage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the monthly partitions of chat_messages ahead of the clock and drops the expired ones.
+ *
+ * Partitions for the current month and monthsAhead more are created in advance. Should maintenance fall behind,
+ * inserts for a month without a partition land in the DEFAULT partition instead of failing, and the next run gives
+ * those months partitions of their own, moving the rows over. With retentionMonths set, months older than that many
+ * before the current one are detached and dropped whole in one short transaction; the contexts their messages
+ * referred to are released on the way, and the cached message tails are dropped since they may still show them.
+ * Postgres cannot detach concurrently while a default partition exists, so the detach takes an exclusive lock on
+ * chat_messages, waiting at most detach-lock-timeout for running queries; a month it times out on is retried by the
+ * next run.
+ *
+ * Every step can be repeated. Lock timeouts and tables another node created first are expected when several nodes
+ * run maintenance at once and are left to the next run; any other failure is logged as an error, counted on
+ * chat.message.partitions.maintenance{result=failed} and rethrown.
+ */
+@Service
+public class MessagePartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessagePartitionService.class);
+
+    // Partitions, attached or not, named for a month before the cutoff; names sort in month order
+    private static final String EXPIRED_SQL =
+            "SELECT c.relname, i.inhrelid IS NOT NULL, coalesce(i.inhdetachpending, false) FROM pg_class c " +
+            "LEFT JOIN pg_inherits i ON i.inhrelid = c.oid AND i.inhparent = 'chat_messages'::regclass " +
+            "WHERE c.relkind = 'r' AND c.relnamespace = (SELECT relnamespace FROM pg_class WHERE oid = 'chat_messages'::regclass) " +
+            "AND c.relname ~ '^chat_messages_y[0-9]{4}m[0-9]{2}$' AND c.relname < chat_messages_partition_name(?) " +
+            "ORDER BY c.relname";
+
+    private static final String DEFAULT_MONTHS_SQL =
+            "SELECT DISTINCT date_trunc('month', created_at)::date FROM chat_messages_default";
+
+    // lock_not_available, deadlock_detected, duplicate_table
+    private static final Set<String> CONCURRENT_MAINTENANCE_STATES = Set.of("55P03", "40P01", "42P07");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageTailCache messageTailCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${chat.message.partitions.months-ahead:2}")
+    private int monthsAhead;
+
+    @Value("${chat.message.partitions.retention-months:0}")
+    private int retentionMonths;
+
+    @Value("${chat.message.partitions.detach-lock-timeout:PT2S}")
+    private Duration detachLockTimeout;
+
+    private Counter maintenanceCompleted;
+    private Counter maintenanceDeferred;
+    private Counter maintenanceFailed;
+
+    @Autowired
+    void registerMetrics(MeterRegistry meterRegistry) {
+        maintenanceCompleted = maintenanceRuns(meterRegistry, "completed");
+        maintenanceDeferred = maintenanceRuns(meterRegistry, "deferred");
+        maintenanceFailed = maintenanceRuns(meterRegistry, "failed");
+    }
+
+    /**
+     * Create upcoming partitions and drop expired ones; runs at startup and then periodically
+     */
+    @Scheduled(fixedDelayString = "${chat.message.partitions.maintenance-interval:PT1H}")
+    public void maintainPartitions() {
+        LocalDate month = LocalDate.now().withDayOfMonth(1);
+        try {
+            createPartitions(month, monthsAhead);
+            createPartitionsForDefaultRows();
+            if (retentionMonths > 0) {
+                dropPartitionsBefore(month.minusMonths(retentionMonths));
+            }
+            maintenanceCompleted.increment();
+        } catch (DataAccessException e) {
+            if (isConcurrentMaintenance(e)) {
+                // Another node is doing the same or queries held the lock too long; the rest is retried next time
+                maintenanceDeferred.increment();
+                logger.warn("Message partition maintenance deferred to the next run: {}", e.getMessage());
+                return;
+            }
+            maintenanceFailed.increment();
+            logger.error("Message partition maintenance failed", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Create the partitions of the given month and the following ones that do not exist yet; returns how many were created
+     */
+    public int createPartitions(LocalDate from, int monthsAhead) {
+        int created = 0;
+        for (int i = 0; i <= monthsAhead; i++) {
+            LocalDate month = from.withDayOfMonth(1).plusMonths(i);
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT chat_messages_create_partition(?)", Boolean.class, month))) {
+                logger.info("Created message partition for {}", month);
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Create the partitions of the months that have messages in the default partition, moving those messages into
+     * them; returns how many were created
+     */
+    public int createPartitionsForDefaultRows() {
+        List<LocalDate> months = jdbcTemplate.query(DEFAULT_MONTHS_SQL, (row, rowNum) -> row.getDate(1).toLocalDate());
+        if (!months.isEmpty()) {
+            logger.warn("Messages of {} landed in the default partition, moving them to partitions of their own", months);
+        }
+        int created = 0;
+        for (LocalDate month : months) {
+            created += createPartitions(month, 0);
+        }
+        return created;
+    }
+
+    /**
+     * Detach and drop every partition of a month before the given one; returns the names of the partitions dropped
+     */
+    public List<String> dropPartitionsBefore(LocalDate cutoff) {
+        List<Partition> expired = jdbcTemplate.query(EXPIRED_SQL,
+                (row, rowNum) -> new Partition(row.getString(1), row.getBoolean(2), row.getBoolean(3)),
+                cutoff.withDayOfMonth(1));
+        for (Partition partition : expired) {
+            if (partition.detachPending()) {
+                // A concurrent detach that was interrupted
+                jdbcTemplate.execute("ALTER TABLE chat_messages DETACH PARTITION " + partition.name() + " FINALIZE");
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                if (partition.attached() && !partition.detachPending()) {
+                    // Gives up rather than queue every query on chat_messages behind a long-running one
+                    jdbcTemplate.execute("SET LOCAL lock_timeout = " + detachLockTimeout.toMillis());
+                    jdbcTemplate.execute("ALTER TABLE chat_messages DETACH PARTITION " + partition.name());
+                }
+                jdbcTemplate.queryForObject("SELECT chat_messages_drop_partition(?::regclass)", Object.class, partition.name());
+            });
+            logger.info("Dropped expired message partition {}", partition.name());
+        }
+        if (!expired.isEmpty()) {
+            // Tails of any session may hold dropped messages; other nodes' tails expire within their max-staleness
+            messageTailCache.invalidateAll();
+        }
+        return expired.stream().map(Partition::name).toList();
+    }
+
+    private static boolean isConcurrentMaintenance(DataAccessException e) {
+        if (e instanceof PessimisticLockingFailureException || e instanceof DuplicateKeyException) {
+            return true;
+        }
+        return e.getMostSpecificCause() instanceof SQLException sqlException
+                && CONCURRENT_MAINTENANCE_STATES.contains(sqlException.getSQLState());
+    }
+
+    private static Counter maintenanceRuns(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.message.partitions.maintenance")
+                .description("Partition maintenance runs: completed, deferred by a concurrent run or lock timeout, or failed")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Partition(String name, boolean attached, boolean detachPending) {}
+}
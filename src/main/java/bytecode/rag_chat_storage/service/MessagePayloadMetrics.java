@@ -0,0 +1,60 @@
+package bytecode.rag_chat_storage.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Size distribution of stored message content and RAG context, in UTF-8 bytes, as chat.message.payload{field}
+ */
+@Component
+public class MessagePayloadMetrics {
+
+    private final DistributionSummary contentBytes;
+    private final DistributionSummary contextBytes;
+
+    public MessagePayloadMetrics(MeterRegistry meterRegistry) {
+        this.contentBytes = summary(meterRegistry, "content");
+        this.contextBytes = summary(meterRegistry, "context");
+    }
+
+    /**
+     * Record one stored message; a missing context is not counted
+     */
+    public void record(String content, String context) {
+        contentBytes.record(utf8Length(content));
+        if (context != null) {
+            contextBytes.record(utf8Length(context));
+        }
+    }
+
+    private static DistributionSummary summary(MeterRegistry meterRegistry, String field) {
+        return DistributionSummary.builder("chat.message.payload")
+                .description("Size of stored message payloads")
+                .baseUnit("bytes")
+                .tag("field", field)
+                .register(meterRegistry);
+    }
+
+    // Encoded length without encoding: 1 byte up to U+007F, 2 up to U+07FF, 4 per surrogate pair, otherwise 3
+    static long utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,266 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory tail of the most recent messages per chat session, so "latest N" reads skip the database.
+ * Messages are held without their RAG context.
+ *
+ * Each session gets a ring buffer of the last {@code capacity} messages, filled lazily from the database on the
+ * first read and kept current by appends after commit. All buffers together are bounded by a byte budget; the
+ * least valuable sessions are evicted first. Deletes drop the affected buffers after commit.
+ *
+ * A fill only lands if no append or invalidation touched the session while the database was being read, which is
+ * tracked by striped write stamps. A fill that races a write is simply not cached.
+ *
+ * Appends and invalidations only reach the tails of the node that handled them. A tail therefore expires
+ * max-staleness after it was read from the database, however many local appends it has taken since, which bounds
+ * how long another node's writes, deletes or partition drops go unseen here.
+ */
+@Service
+public class MessageTailCache {
+
+    private static final int STAMP_STRIPES = 1024;
+
+    // Rough retained size of a ChatMessageDto and its boxed fields, excluding the strings' characters
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+
+    private static final Comparator<ChatMessageDto> CONVERSATION_ORDER =
+            Comparator.comparing(ChatMessageDto::getCreatedAt).thenComparing(ChatMessageDto::getId);
+
+    private final int capacity;
+    private final Ticker ticker;
+    private final Cache<Long, Tail> tails;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final AtomicLong epoch = new AtomicLong();
+
+    @Autowired
+    public MessageTailCache(@Value("${chat.message.tail-cache.capacity:50}") int capacity,
+                            @Value("${chat.message.tail-cache.max-bytes:67108864}") long maxBytes,
+                            @Value("${chat.message.tail-cache.max-staleness:PT5S}") Duration maxStaleness) {
+        this(capacity, maxBytes, maxStaleness, Ticker.systemTicker());
+    }
+
+    MessageTailCache(int capacity, long maxBytes, Duration maxStaleness, Ticker ticker) {
+        this.capacity = capacity;
+        this.ticker = ticker;
+        long maxStalenessNanos = maxStaleness.toNanos();
+        this.tails = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long sessionId, Tail tail) -> tail.weight())
+                .expireAfter(new Expiry<Long, Tail>() {
+                    @Override
+                    public long expireAfterCreate(Long sessionId, Tail tail, long currentTime) {
+                        return Math.max(0, maxStalenessNanos - (currentTime - tail.filledAt));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long sessionId, Tail tail, long currentTime, long currentDuration) {
+                        // Appends keep the deadline of the fill; a new fill starts a new one
+                        return Math.max(0, maxStalenessNanos - (currentTime - tail.filledAt));
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long sessionId, Tail tail, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+    }
+
+    @Autowired
+    void registerMetrics(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, tails, "messageTails");
+    }
+
+    /**
+     * Number of messages kept per session; larger "latest" requests go to the database
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * The newest {@code limit} messages of the session, newest first, if the cached tail can answer for this user
+     */
+    public Optional<List<ChatMessageDto>> latest(Long sessionId, String userId, int limit) {
+        Tail tail = tails.getIfPresent(sessionId);
+        if (tail == null || !tail.userId.equals(userId)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(tail.newest(limit));
+    }
+
+    /**
+     * Write stamp to take before reading the database for {@link #fill}
+     */
+    public long stamp(Long sessionId) {
+        return epoch.get() + stamps.get(stripe(sessionId));
+    }
+
+    /**
+     * Cache a tail read from the database, newest first. complete means the session has no older messages.
+     * Ignored if the session was written to since the stamp was taken.
+     */
+    public void fill(Long sessionId, String userId, List<ChatMessageDto> newestFirst, boolean complete, long stamp) {
+        Tail tail = new Tail(userId, capacity, complete, ticker.read());
+        for (int i = Math.min(newestFirst.size(), capacity) - 1; i >= 0; i--) {
+            tail.add(newestFirst.get(i));
+        }
+        tails.asMap().compute(sessionId, (id, current) -> stamp(sessionId) == stamp ? tail : current);
+    }
+
+    /**
+     * Append newly saved messages to the session's tail once the current transaction commits
+     */
+    public void appendAfterCommit(Long sessionId, List<ChatMessageDto> messages) {
+        AfterCommit.run(() -> {
+            bump(sessionId);
+            tails.asMap().computeIfPresent(sessionId, (id, tail) -> {
+                messages.forEach(tail::add);
+                return tail;
+            });
+        });
+    }
+
+    /**
+     * Drop the session's tail once the current transaction commits
+     */
+    public void invalidateAfterCommit(Long sessionId) {
+        AfterCommit.run(() -> {
+            bump(sessionId);
+            tails.invalidate(sessionId);
+        });
+    }
+
+    /**
+     * Drop the tails of all the user's sessions once the current transaction commits
+     */
+    public void invalidateUserAfterCommit(String userId) {
+        AfterCommit.run(() -> {
+            epoch.incrementAndGet();
+            tails.asMap().values().removeIf(tail -> tail.userId.equals(userId));
+        });
+    }
+
+    /**
+     * Drop every tail, for changes that cannot tell which sessions they touched
+     */
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        tails.invalidateAll();
+    }
+
+    private void bump(Long sessionId) {
+        stamps.incrementAndGet(stripe(sessionId));
+    }
+
+    private static int stripe(Long sessionId) {
+        return Long.hashCode(sessionId) & (STAMP_STRIPES - 1);
+    }
+
+    private static int estimateBytes(ChatMessageDto message) {
+        return MESSAGE_OVERHEAD_BYTES + 2 * length(message.getContent());
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Fixed-size ring of a session's newest messages, oldest at head, kept in conversation order
+     */
+    static final class Tail {
+
+        private final String userId;
+        // Ticker time of the database read the tail was filled from
+        private final long filledAt;
+        private final ChatMessageDto[] slots;
+        private int head;
+        private int size;
+        private long bytes;
+        // True while the ring holds the whole session history
+        private boolean complete;
+
+        Tail(String userId, int capacity, boolean complete, long filledAt) {
+            this.userId = userId;
+            this.filledAt = filledAt;
+            this.slots = new ChatMessageDto[capacity];
+            this.complete = complete;
+        }
+
+        synchronized void add(ChatMessageDto added) {
+            if (slots.length == 0) {
+                return;
+            }
+            // Context is loaded per request when asked for; caching it would mostly hold duplicates of message_contexts
+            ChatMessageDto message = added.getContext() == null ? added : added.withContext(null);
+            if (size == slots.length) {
+                if (CONVERSATION_ORDER.compare(message, get(0)) < 0) {
+                    return; // older than anything in the tail
+                }
+                bytes -= estimateBytes(get(0));
+                slots[head] = null;
+                head = (head + 1) % slots.length;
+                size--;
+                complete = false;
+            }
+            // Usually the newest message, so this walks back zero positions
+            int position = size;
+            while (position > 0 && CONVERSATION_ORDER.compare(message, get(position - 1)) < 0) {
+                set(position, get(position - 1));
+                position--;
+            }
+            set(position, message);
+            size++;
+            bytes += estimateBytes(message);
+        }
+
+        /**
+         * Newest first, or null if the ring cannot tell whether older messages would belong in the answer
+         */
+        synchronized List<ChatMessageDto> newest(int limit) {
+            if (limit > size && !complete) {
+                return null;
+            }
+            int count = Math.min(limit, size);
+            List<ChatMessageDto> result = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                result.add(get(i));
+            }
+            return result;
+        }
+
+        synchronized int weight() {
+            return (int) Math.min(Integer.MAX_VALUE, bytes + 64L + 8L * slots.length);
+        }
+
+        private ChatMessageDto get(int index) {
+            return slots[(head + index) % slots.length];
+        }
+
+        private void set(int index, ChatMessageDto message) {
+            slots[(head + index) % slots.length] = message;
+        }
+    }
+}
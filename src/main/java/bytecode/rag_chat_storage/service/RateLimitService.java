@@ -1,27 +1,91 @@
 package bytecode.rag_chat_storage.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.distributed.proxy.RemoteBucketBuilder;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimization;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Token buckets per client key, backed by a shared bucket store so limits hold across all replicas.
+ *
+ * Each node keeps a bounded, idle-expiring cache of bucket proxies. A proxy consumes a batch of tokens locally and
+ * reconciles with the store when that allowance or the timeout runs out, so a busy key costs one store round trip
+ * per batch of requests rather than per request. The price is that a key can overshoot its limit by that allowance
+ * on each node, which is why the batch is sized against the bucket: max-unsynchronized-share of its smallest
+ * capacity, capped at max-unsynchronized-tokens. A per-minute limit of 2 is therefore always checked against the
+ * store, while a 20/s burst limit syncs once per 10 requests.
+ */
 @Service
 public class RateLimitService {
 
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ProxyManager<String> bucketStore;
+    private final long maxUnsynchronizedTokens;
+    private final double maxUnsynchronizedShare;
+    private final Duration maxUnsynchronizedTimeout;
+    private final Cache<String, Bucket> buckets;
 
-    public Bucket resolveBucket(String key) {
-        return buckets.computeIfAbsent(key, this::newBucket);
+    public RateLimitService(ProxyManager<String> bucketStore,
+                            @Value("${chat.rate-limit.prefetch.max-unsynchronized-tokens:20}") long maxUnsynchronizedTokens,
+                            @Value("${chat.rate-limit.prefetch.max-unsynchronized-share:0.5}") double maxUnsynchronizedShare,
+                            @Value("${chat.rate-limit.prefetch.max-unsynchronized-timeout:PT1S}") Duration maxUnsynchronizedTimeout,
+                            @Value("${chat.rate-limit.local.max-buckets:100000}") long maxLocalBuckets,
+                            @Value("${chat.rate-limit.local.idle-timeout:PT10M}") Duration localIdleTimeout) {
+        this.bucketStore = bucketStore;
+        this.maxUnsynchronizedTokens = maxUnsynchronizedTokens;
+        this.maxUnsynchronizedShare = maxUnsynchronizedShare;
+        this.maxUnsynchronizedTimeout = maxUnsynchronizedTimeout;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxLocalBuckets)
+                .expireAfterAccess(localIdleTimeout)
+                .recordStats()
+                .build();
     }
 
-    private Bucket newBucket(String key) {
-        // Example: 5 requests per minute
-        Refill refill = Refill.greedy(5, Duration.ofMinutes(1));
-        Bandwidth limit = Bandwidth.classic(5, refill);
-        return Bucket.builder().addLimit(limit).build();
+    @Autowired(required = false)
+    void registerMetrics(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, "rateLimitBuckets");
+    }
+
+    /**
+     * The bucket for the key, created with the given configuration if this node has not seen the key recently
+     */
+    public Bucket resolveBucket(String key, BucketConfiguration configuration) {
+        Bucket bucket = buckets.getIfPresent(key);
+        return bucket != null ? bucket : buckets.get(key, k -> newBucket(k, configuration));
+    }
+
+    private Bucket newBucket(String key, BucketConfiguration configuration) {
+        RemoteBucketBuilder<String> builder = bucketStore.builder();
+        long allowance = unsynchronizedAllowance(configuration);
+        // Below 2 a batch saves nothing: every request is checked against the store
+        if (allowance > 1) {
+            Optimization prefetch = Optimizations.delaying(new DelayParameters(allowance, maxUnsynchronizedTimeout));
+            builder = builder.withOptimization(prefetch);
+        }
+        return builder.build(key, configuration);
+    }
+
+    /**
+     * Tokens a node may consume from a bucket with this configuration before syncing with the store
+     */
+    long unsynchronizedAllowance(BucketConfiguration configuration) {
+        long smallestCapacity = Long.MAX_VALUE;
+        for (Bandwidth bandwidth : configuration.getBandwidths()) {
+            smallestCapacity = Math.min(smallestCapacity, bandwidth.getCapacity());
+        }
+        return Math.min(maxUnsynchronizedTokens, (long) (smallestCapacity * maxUnsynchronizedShare));
     }
 }
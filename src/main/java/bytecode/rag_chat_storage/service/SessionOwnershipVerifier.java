@@ -0,0 +1,86 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
+import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that a chat session belongs to a user, remembering positive answers for the rest of the HTTP request.
+ *
+ * Services call into each other (session detail loads messages, session delete deletes messages), and each
+ * used to repeat the ownership lookup. The memo lives in request attributes, so it never outlives the request
+ * and is simply absent for calls made outside one (background jobs, streaming threads, tests).
+ */
+@Service
+public class SessionOwnershipVerifier {
+
+    private static final String MEMO_ATTRIBUTE = SessionOwnershipVerifier.class.getName() + ".verified";
+
+    @Autowired
+    private ChatSessionRepository chatSessionRepository;
+
+    /**
+     * Throw ResourceNotFoundException unless the session exists and belongs to the user
+     */
+    public void verify(String userId, Long sessionId) {
+        if (isVerified(userId, sessionId)) {
+            return;
+        }
+        if (!chatSessionRepository.existsByIdAndUserId(sessionId, userId)) {
+            throw new ResourceNotFoundException("Chat session not found with id: " + sessionId);
+        }
+        remember(userId, sessionId);
+    }
+
+    /**
+     * Whether ownership was already established earlier in this request
+     */
+    public boolean isVerified(String userId, Long sessionId) {
+        Set<String> memo = memo(false);
+        return memo != null && memo.contains(key(userId, sessionId));
+    }
+
+    /**
+     * Record ownership established by a query the caller already ran
+     */
+    public void remember(String userId, Long sessionId) {
+        Set<String> memo = memo(true);
+        if (memo != null) {
+            memo.add(key(userId, sessionId));
+        }
+    }
+
+    /**
+     * Drop a remembered session, e.g. after it has been deleted
+     */
+    public void forget(String userId, Long sessionId) {
+        Set<String> memo = memo(false);
+        if (memo != null) {
+            memo.remove(key(userId, sessionId));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> memo(boolean create) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Set<String> memo = (Set<String>) attributes.getAttribute(MEMO_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (memo == null && create) {
+            memo = new HashSet<>();
+            attributes.setAttribute(MEMO_ATTRIBUTE, memo, RequestAttributes.SCOPE_REQUEST);
+        }
+        return memo;
+    }
+
+    private static String key(String userId, Long sessionId) {
+        return sessionId + ":" + userId;
+    }
+}
@@ -0,0 +1,106 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.repository.ChatMessageRepository;
+import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Removes tombstoned chat sessions in the background.
+ *
+ * Messages are deleted in fixed-size chunks, each in its own short transaction, so purging a very large session
+ * never holds locks or a transaction open for long. The session row goes last. Tombstones left behind by a
+ * restart are picked up again once the application is ready.
+ */
+@Service
+public class SessionPurgeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionPurgeService.class);
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatSessionRepository chatSessionRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private TaskExecutor taskExecutor;
+
+    @Value("${chat.session.purge.chunk-size:1000}")
+    private int chunkSize;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Purge the given tombstoned sessions in the background, after the current transaction commits
+     */
+    public void schedulePurge(Collection<Long> sessionIds) {
+        List<Long> ids = List.copyOf(sessionIds);
+        if (ids.isEmpty()) {
+            return;
+        }
+        // The purge must not start before the tombstone is visible to other transactions
+        AfterCommit.run(() -> submit(ids));
+    }
+
+    /**
+     * Delete a tombstoned session's messages chunk by chunk, then the session row. Returns the number of messages removed.
+     */
+    public long purgeSession(Long sessionId) {
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> chatMessageRepository.deleteChunkByChatSessionId(sessionId, chunkSize));
+            purged += deleted;
+        } while (deleted == chunkSize);
+
+        transactionTemplate.executeWithoutResult(status -> chatSessionRepository.deletePurgedById(sessionId));
+        logger.info("Purged chat session: {} ({} messages)", sessionId, purged);
+        return purged;
+    }
+
+    /**
+     * Resume purges interrupted by a shutdown
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingPurges() {
+        List<Long> pending = chatSessionRepository.findIdsPendingPurge();
+        if (!pending.isEmpty()) {
+            logger.info("Resuming purge of {} tombstoned chat sessions", pending.size());
+            schedulePurge(pending);
+        }
+    }
+
+    private void submit(List<Long> sessionIds) {
+        for (Long sessionId : sessionIds) {
+            if (!inFlight.add(sessionId)) {
+                continue;
+            }
+            taskExecutor.execute(() -> {
+                try {
+                    purgeSession(sessionId);
+                } catch (RuntimeException e) {
+                    // The tombstone stays in place, so the next startup retries
+                    logger.warn("Failed to purge chat session: {}", sessionId, e);
+                } finally {
+                    inFlight.remove(sessionId);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package bytecode.rag_chat_storage.writebehind;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable local log of opaque records, written to memory-mapped segment files.
+ *
+ * Records are framed as [length][CRC32C][payload] and addressed by their end position in a single logical byte
+ * stream that runs across segments; a segment file is named after the position it starts at. Appends only copy into
+ * the mapping. {@link #awaitDurable} forces the mapping to disk, and callers that arrive while a force is running
+ * are all covered by the next one, so one fsync is shared by every append that queued up behind it.
+ *
+ * {@link #checkpoint} records how far the log has been consumed; {@link #replay} hands back everything after the
+ * checkpoint, stopping at the first torn or corrupt record, and later appends overwrite from there.
+ */
+public class AppendLog implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+    // Length marker for "rest of this segment unused, continue in the next one"
+    private static final int ROLL_MARKER = -1;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FileChannel checkpointChannel;
+    private final Object syncLock = new Object();
+
+    private long checkpoint;
+    private long segmentBase;
+    private MappedByteBuffer segment;
+    private volatile long written;
+    private volatile long synced;
+
+    public AppendLog(Path directory, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment size must exceed " + HEADER_BYTES + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer stored = ByteBuffer.allocate(Long.BYTES);
+        checkpointChannel.read(stored, 0);
+        this.checkpoint = stored.position() == Long.BYTES ? stored.flip().getLong() : 0;
+    }
+
+    /**
+     * Hand every record after the checkpoint to the consumer with its end position, in order, and position the log
+     * to append after the last intact one. Must be called once, before the first append.
+     */
+    public synchronized void replay(BiConsumer<Long, ByteBuffer> consumer) throws IOException {
+        List<Long> bases = segmentBases();
+        long position = checkpoint;
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            if (base + segmentSize <= position && i < bases.size() - 1) {
+                continue; // fully consumed, left over from before the last checkpoint
+            }
+            MappedByteBuffer mapped = map(base);
+            int offset = (int) Math.max(0, position - base);
+            boolean rolled = false;
+            while (offset + HEADER_BYTES <= segmentSize) {
+                int length = mapped.getInt(offset);
+                if (length == ROLL_MARKER) {
+                    rolled = true;
+                    break;
+                }
+                if (length <= 0 || offset + HEADER_BYTES + length > segmentSize) {
+                    break;
+                }
+                ByteBuffer payload = mapped.slice(offset + HEADER_BYTES, length);
+                if (crc(payload) != mapped.getInt(offset + Integer.BYTES)) {
+                    break;
+                }
+                offset += HEADER_BYTES + length;
+                consumer.accept(base + offset, payload.asReadOnlyBuffer());
+            }
+            segmentBase = base;
+            segment = mapped;
+            position = base + offset;
+            if (rolled || offset + HEADER_BYTES > segmentSize) {
+                if (i == bases.size() - 1) {
+                    position = base + segmentSize;
+                    openSegment(position);
+                }
+                continue;
+            }
+            // Anything after a torn record is unreachable: clear it so it cannot be mistaken for a record once
+            // appends resume here, and drop later segments so they are not replayed next time
+            if (mapped.getInt(offset) != 0) {
+                mapped.put(offset, new byte[segmentSize - offset]);
+                mapped.force();
+            }
+            for (long later : bases.subList(i + 1, bases.size())) {
+                Files.deleteIfExists(segmentPath(later));
+            }
+            break;
+        }
+        if (segment == null) {
+            openSegment(checkpoint);
+            position = checkpoint;
+        }
+        written = position;
+        synced = position;
+    }
+
+    /**
+     * Copy a record into the log, returning its end position. Not durable until {@link #awaitDurable} returns.
+     */
+    public synchronized long append(byte[] payload) {
+        if (segment == null) {
+            throw new IllegalStateException("replay must run before the first append");
+        }
+        if (HEADER_BYTES + payload.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds the segment size of " + segmentSize);
+        }
+        int offset = (int) (written - segmentBase);
+        if (offset + HEADER_BYTES + payload.length > segmentSize) {
+            if (offset + Integer.BYTES <= segmentSize) {
+                segment.putInt(offset, ROLL_MARKER);
+            }
+            // Appends before the roll were promised to the old segment; sync it before moving on
+            segment.force();
+            openSegment(segmentBase + segmentSize);
+            offset = 0;
+        }
+        segment.put(offset + HEADER_BYTES, payload);
+        segment.putInt(offset + Integer.BYTES, crc(ByteBuffer.wrap(payload)));
+        // Length last; with the CRC, a record cut short by a crash is never taken for a whole one
+        segment.putInt(offset, payload.length);
+        written = segmentBase + offset + HEADER_BYTES + payload.length;
+        return written;
+    }
+
+    /**
+     * Block until everything up to the position is on disk
+     */
+    public void awaitDurable(long position) {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return; // covered by the force another caller just finished
+            }
+            long target;
+            MappedByteBuffer current;
+            synchronized (this) {
+                target = written;
+                current = segment;
+            }
+            current.force();
+            synced = target;
+        }
+    }
+
+    /**
+     * Record that everything up to the position has been consumed, and delete segments that lie wholly before it
+     */
+    public void checkpoint(long position) throws IOException {
+        long activeBase;
+        synchronized (this) {
+            if (position <= checkpoint) {
+                return;
+            }
+            checkpoint = position;
+            activeBase = segmentBase;
+        }
+        checkpointChannel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, position), 0);
+        checkpointChannel.force(false);
+        for (long base : segmentBases()) {
+            if (base + segmentSize <= position && base < activeBase) {
+                Files.deleteIfExists(segmentPath(base));
+            }
+        }
+    }
+
+    /**
+     * End position of the last record appended
+     */
+    public long position() {
+        return written;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        checkpointChannel.close();
+    }
+
+    private void openSegment(long base) {
+        segmentBase = base;
+        segment = map(base);
+    }
+
+    private MappedByteBuffer map(long base) {
+        try (FileChannel channel = FileChannel.open(segmentPath(base),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map append log segment " + segmentPath(base), e);
+        }
+    }
+
+    private List<Long> segmentBases() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        bases.sort(null);
+        return bases;
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,87 @@
+package bytecode.rag_chat_storage.writebehind;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A message accepted by the write-behind pipeline, with the user it was written for, and its append log encoding
+ */
+public final class LoggedMessage {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final ChatMessage.SenderType[] SENDER_TYPES = ChatMessage.SenderType.values();
+
+    private final String userId;
+    private final ChatMessageDto message;
+
+    public LoggedMessage(String userId, ChatMessageDto message) {
+        this.userId = userId;
+        this.message = message;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ChatMessageDto getMessage() {
+        return message;
+    }
+
+    public byte[] encode() {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] context = message.getContext() == null ? null : message.getContext().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 1 + 8 + 4 + 4 * 3 + user.length + content.length
+                                                + (context == null ? 0 : context.length));
+        buffer.put(FORMAT_VERSION);
+        buffer.putLong(message.getId());
+        buffer.putLong(message.getChatSessionId());
+        buffer.put((byte) message.getSenderType().ordinal());
+        buffer.putLong(message.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(message.getCreatedAt().getNano());
+        putBytes(buffer, user);
+        putBytes(buffer, content);
+        putBytes(buffer, context);
+        return buffer.array();
+    }
+
+    public static LoggedMessage decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown append log record version " + version);
+        }
+        ChatMessageDto message = new ChatMessageDto();
+        message.setId(buffer.getLong());
+        message.setChatSessionId(buffer.getLong());
+        message.setSenderType(SENDER_TYPES[buffer.get()]);
+        long epochSecond = buffer.getLong();
+        message.setCreatedAt(LocalDateTime.ofEpochSecond(epochSecond, buffer.getInt(), ZoneOffset.UTC));
+        String userId = getString(buffer);
+        message.setContent(getString(buffer));
+        message.setContext(getString(buffer));
+        return new LoggedMessage(userId, message);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,455 @@
+package bytecode.rag_chat_storage.writebehind;
+
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Optional write-behind path for message appends (chat.message.write-behind.enabled).
+ *
+ * An append gets its ID and timestamp here, is written to the local {@link AppendLog}, and is acknowledged once the
+ * log is synced, without waiting for a Postgres commit. A single flusher thread drains the log to chat_messages in
+ * batches, in log order, so messages of a session land in the order they were accepted. A failed batch is retried
+ * with backoff; inserts are idempotent on the message ID, so replaying the log after a crash is safe. Messages whose
+ * session has been deleted by the time they are flushed are dropped.
+ *
+ * Until a message is flushed it is kept in a per-session backlog, which reads merge in ({@link #pending}) or wait
+ * out ({@link #awaitFlushed}), so users always see their own writes. The backlog is local to this node.
+ *
+ * When disabled, nothing is started and every method is a no-op.
+ */
+@Service
+public class MessageWriteBehind implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    // Must match the allocationSize of chat_messages_seq on ChatMessage: a nextval of N reserves N - 49 .. N,
+    // the same block Hibernate's pooled optimizer would take, so the two never hand out the same ID
+    private static final int ID_BLOCK_SIZE = 50;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    // A replayed message carries its logged timestamp, so (id, created_at), the partitioned primary key, detects it
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_messages (id, chat_session_id, sender_type, content, context_hash, created_at) " +
+            "SELECT ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM chat_sessions WHERE id = ? AND deleted_at IS NULL) " +
+            "ON CONFLICT (id, created_at) DO NOTHING";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MessageContextRepository messageContextRepository;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final int maxPending;
+    private final Duration flushTimeout;
+
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Map<Long, SessionBacklog> backlogs = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition work = flushLock.newCondition();
+    private final Condition flushed = flushLock.newCondition();
+
+    // Guarded by appendLock
+    private long nextId = 1;
+    private long lastReservedId;
+    private LocalDateTime lastCreatedAt = LocalDateTime.MIN;
+
+    private AppendLog log;
+    private Thread flusher;
+    private volatile boolean running;
+    private volatile boolean urgent;
+    private volatile long flushedPosition;
+
+    public MessageWriteBehind(@Value("${chat.message.write-behind.enabled:false}") boolean enabled,
+                              @Value("${chat.message.write-behind.directory:data/append-log}") Path directory,
+                              @Value("${chat.message.write-behind.segment-size:67108864}") int segmentSize,
+                              @Value("${chat.message.write-behind.batch-size:500}") int batchSize,
+                              @Value("${chat.message.write-behind.flush-interval:PT0.1S}") Duration flushInterval,
+                              @Value("${chat.message.write-behind.max-pending:100000}") int maxPending,
+                              @Value("${chat.message.write-behind.flush-timeout:PT10S}") Duration flushTimeout) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxPending = maxPending;
+        this.flushTimeout = flushTimeout;
+    }
+
+    @Autowired
+    void registerMetrics(MeterRegistry meterRegistry) {
+        if (enabled) {
+            Gauge.builder("chat.message.write_behind.pending", queue, LinkedBlockingQueue::size)
+                    .description("Messages acknowledged but not yet flushed to the database")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Accept messages for a session the user has been verified to own, returning them with their IDs and
+     * timestamps once they are durable in the local log
+     */
+    public List<ChatMessageDto> append(String userId, Long sessionId, List<AddMessageRequest> requests) {
+        if (!running) {
+            throw new IllegalStateException("The write-behind pipeline is not running");
+        }
+        if (queue.size() + requests.size() > maxPending) {
+            throw new DataAccessResourceFailureException("Write-behind backlog of " + maxPending + " messages is full");
+        }
+        List<ChatMessageDto> accepted = new ArrayList<>(requests.size());
+        long end = 0;
+        // IDs, timestamps and log order are assigned together, so log order is conversation order
+        synchronized (appendLock) {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+            lastCreatedAt = now.isAfter(lastCreatedAt) ? now : lastCreatedAt;
+            for (AddMessageRequest request : requests) {
+                ChatMessageDto message = new ChatMessageDto();
+                message.setId(nextId());
+                message.setChatSessionId(sessionId);
+                message.setSenderType(request.getSenderType());
+                message.setContent(request.getContent());
+                message.setContext(request.getContext());
+                message.setCreatedAt(lastCreatedAt);
+                LoggedMessage logged = new LoggedMessage(userId, message);
+                end = log.append(logged.encode());
+                enqueue(new Entry(end, logged));
+                accepted.add(message);
+            }
+        }
+        log.awaitDurable(end);
+        if (queue.size() >= batchSize) {
+            signalWork(false);
+        }
+        return accepted;
+    }
+
+    /**
+     * The session's messages that have not reached the database yet, in conversation order.
+     * Take this before querying the database: a message flushed in between then shows up on one side or the other,
+     * possibly both, so callers merge by ID.
+     */
+    public List<ChatMessageDto> pending(Long sessionId, String userId) {
+        if (!enabled) {
+            return List.of();
+        }
+        SessionBacklog backlog = backlogs.get(sessionId);
+        return backlog == null || !backlog.userId.equals(userId) ? List.of() : backlog.snapshot();
+    }
+
+    /**
+     * Block until every message accepted so far for the session is in the database
+     */
+    public void awaitFlushed(Long sessionId) {
+        if (!enabled) {
+            return;
+        }
+        SessionBacklog backlog = backlogs.get(sessionId);
+        if (backlog != null) {
+            awaitPosition(backlog.lastPosition());
+        }
+    }
+
+    /**
+     * Block until every message accepted so far for any of the user's sessions is in the database
+     */
+    public void awaitFlushedForUser(String userId) {
+        if (!enabled) {
+            return;
+        }
+        long target = backlogs.values().stream()
+                .filter(backlog -> backlog.userId.equals(userId))
+                .mapToLong(SessionBacklog::lastPosition)
+                .max()
+                .orElse(0);
+        if (target > 0) {
+            awaitPosition(target);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        try {
+            log = new AppendLog(directory, segmentSize);
+            log.replay((position, payload) -> enqueue(new Entry(position, LoggedMessage.decode(payload))));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the message append log in " + directory.toAbsolutePath(), e);
+        }
+        if (!queue.isEmpty()) {
+            logger.info("Recovered {} unflushed messages from the append log", queue.size());
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "message-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Drain what is queued and stop; anything that cannot be flushed stays in the log for the next start
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        signalWork(true);
+        try {
+            flusher.join(flushTimeout.toMillis());
+            log.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Closing the message append log failed", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Starts before and stops after the web server, so no request sees the pipeline down
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private long nextId() {
+        if (nextId > lastReservedId) {
+            Long high = jdbcTemplate.queryForObject("SELECT nextval('chat_messages_seq')", Long.class);
+            lastReservedId = high;
+            nextId = Math.max(1, high - ID_BLOCK_SIZE + 1);
+        }
+        return nextId++;
+    }
+
+    private void enqueue(Entry entry) {
+        ChatMessageDto message = entry.logged.getMessage();
+        backlogs.compute(message.getChatSessionId(), (sessionId, backlog) -> {
+            SessionBacklog target = backlog == null ? new SessionBacklog(entry.logged.getUserId()) : backlog;
+            target.add(entry);
+            return target;
+        });
+        queue.add(entry);
+    }
+
+    private void flushLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (true) {
+            if (batch.isEmpty()) {
+                awaitWork();
+                queue.drainTo(batch, batchSize);
+                if (batch.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            try {
+                insert(batch);
+                complete(batch);
+                batch.clear();
+                backoff = INITIAL_BACKOFF_MILLIS;
+            } catch (RuntimeException | IOException e) {
+                if (!running) {
+                    logger.warn("Stopping with {} messages not flushed; they stay in the append log", batch.size() + queue.size(), e);
+                    return;
+                }
+                logger.warn("Flushing {} messages failed, retrying in {} ms", batch.size(), backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Wait until the flush interval has passed, a full batch is queued, a reader is waiting, or we are stopping
+     */
+    private void awaitWork() {
+        flushLock.lock();
+        try {
+            long remaining = flushInterval.toNanos();
+            while (running && !urgent && queue.size() < batchSize && remaining > 0) {
+                remaining = work.awaitNanos(remaining);
+            }
+            urgent = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void insert(List<Entry> batch) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            List<byte[]> contextHashes = messageContextRepository.store(batch.stream()
+                    .map(entry -> entry.logged.getMessage().getContext())
+                    .collect(Collectors.toList()));
+            Iterator<byte[]> nextHash = contextHashes.iterator();
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (statement, entry) -> {
+                ChatMessageDto message = entry.logged.getMessage();
+                statement.setLong(1, message.getId());
+                statement.setLong(2, message.getChatSessionId());
+                statement.setString(3, message.getSenderType().name());
+                statement.setString(4, message.getContent());
+                statement.setBytes(5, nextHash.next());
+                statement.setObject(6, message.getCreatedAt());
+                statement.setLong(7, message.getChatSessionId());
+            });
+        });
+    }
+
+    /**
+     * The batch is committed: advance the checkpoint, release the backlog and wake readers waiting for it
+     */
+    private void complete(List<Entry> batch) throws IOException {
+        long end = batch.get(batch.size() - 1).position;
+        log.checkpoint(end);
+        Set<Long> sessionIds = new HashSet<>();
+        batch.forEach(entry -> sessionIds.add(entry.logged.getMessage().getChatSessionId()));
+        for (Long sessionId : sessionIds) {
+            backlogs.computeIfPresent(sessionId, (id, backlog) -> backlog.removeUpTo(end) ? null : backlog);
+        }
+        flushLock.lock();
+        try {
+            flushedPosition = end;
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void awaitPosition(long position) {
+        flushLock.lock();
+        try {
+            long remaining = flushTimeout.toNanos();
+            while (flushedPosition < position) {
+                if (remaining <= 0) {
+                    throw new DataAccessResourceFailureException("Pending messages were not flushed within " + flushTimeout);
+                }
+                urgent = true;
+                work.signal();
+                remaining = flushed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessResourceFailureException("Interrupted while waiting for pending messages to be flushed", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void signalWork(boolean now) {
+        flushLock.lock();
+        try {
+            urgent |= now;
+            work.signal();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * A logged message and the log position just after it
+     */
+    private static final class Entry {
+
+        private final long position;
+        private final LoggedMessage logged;
+
+        Entry(long position, LoggedMessage logged) {
+            this.position = position;
+            this.logged = logged;
+        }
+    }
+
+    /**
+     * Unflushed messages of one session, in log order
+     */
+    private static final class SessionBacklog {
+
+        private final String userId;
+        private final List<Entry> entries = new ArrayList<>();
+
+        SessionBacklog(String userId) {
+            this.userId = userId;
+        }
+
+        synchronized void add(Entry entry) {
+            entries.add(entry);
+        }
+
+        synchronized List<ChatMessageDto> snapshot() {
+            List<ChatMessageDto> messages = new ArrayList<>(entries.size());
+            entries.forEach(entry -> messages.add(entry.logged.getMessage()));
+            return messages;
+        }
+
+        synchronized long lastPosition() {
+            return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).position;
+        }
+
+        /**
+         * Drop entries up to the position, returning whether the backlog is now empty
+         */
+        synchronized boolean removeUpTo(long position) {
+            entries.removeIf(entry -> entry.position <= position);
+            return entries.isEmpty();
+        }
+    }
+}
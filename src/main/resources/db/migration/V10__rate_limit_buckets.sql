@@ -0,0 +1,9 @@
+-- Shared Bucket4j state for cluster-wide rate limits, see JdbcBucketStore.
+-- expires_at is deliberately not indexed: it changes on every write, and leaving it out of indexes keeps those
+-- updates HOT. The periodic cleanup scans the table instead, which only holds recently active keys.
+
+CREATE TABLE IF NOT EXISTS rate_limit_buckets (
+    id         TEXT         PRIMARY KEY,
+    state      BYTEA        NOT NULL,
+    expires_at TIMESTAMP(6) WITH TIME ZONE NOT NULL
+) WITH (fillfactor = 70);
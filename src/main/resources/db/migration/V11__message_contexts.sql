@@ -0,0 +1,100 @@
+-- Move RAG context out of chat_messages into a content-addressed table shared by every message that carries it.
+-- Messages reference a context by the SHA-256 of its UTF-8 text; identical contexts are stored once and counted.
+-- Runs in one transaction and rewrites chat_messages: schedule it in a maintenance window on large tables.
+-- Dropping the column does not return its space until the table is rewritten (VACUUM FULL or pg_repack).
+
+CREATE TABLE message_contexts (
+    hash        BYTEA        PRIMARY KEY,
+    body        TEXT         NOT NULL,
+    ref_count   BIGINT       NOT NULL DEFAULT 0,
+    -- Last time a reference was dropped or the row was (re)claimed for a new one; orphans are kept for a grace period after it
+    released_at TIMESTAMP(6) NOT NULL DEFAULT now()
+);
+
+ALTER TABLE chat_messages ADD COLUMN context_hash BYTEA;
+
+UPDATE chat_messages SET context_hash = sha256(convert_to(context, 'UTF8')) WHERE context IS NOT NULL;
+
+INSERT INTO message_contexts (hash, body)
+SELECT context_hash, context FROM chat_messages WHERE context_hash IS NOT NULL
+ON CONFLICT (hash) DO NOTHING;
+
+UPDATE message_contexts mc SET ref_count = r.refs
+FROM (SELECT context_hash, count(*) AS refs FROM chat_messages WHERE context_hash IS NOT NULL GROUP BY context_hash) r
+WHERE mc.hash = r.context_hash;
+
+-- Also drops idx_chat_messages_search, which indexed content and context together
+ALTER TABLE chat_messages DROP COLUMN context;
+
+ALTER TABLE chat_messages ADD CONSTRAINT fk_chat_messages_context
+    FOREIGN KEY (context_hash) REFERENCES message_contexts (hash);
+
+-- Serves the foreign key check when an orphaned context is deleted, and context hits in search
+CREATE INDEX idx_chat_messages_context_hash ON chat_messages (context_hash) WHERE context_hash IS NOT NULL;
+
+-- Orphans waiting for the background cleanup
+CREATE INDEX idx_message_contexts_released ON message_contexts (released_at) WHERE ref_count = 0;
+
+-- Reference counts follow inserts and deletes of messages, whichever statement does them.
+-- Rows are locked in hash order so writers sharing contexts cannot deadlock on them.
+
+CREATE FUNCTION message_contexts_retain() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    PERFORM 1 FROM message_contexts WHERE hash IN (SELECT context_hash FROM added) ORDER BY hash FOR NO KEY UPDATE;
+    UPDATE message_contexts mc SET ref_count = mc.ref_count + r.refs
+    FROM (SELECT context_hash, count(*) AS refs FROM added WHERE context_hash IS NOT NULL GROUP BY context_hash) r
+    WHERE mc.hash = r.context_hash;
+    RETURN NULL;
+END
+$$;
+
+CREATE FUNCTION message_contexts_release() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    PERFORM 1 FROM message_contexts WHERE hash IN (SELECT context_hash FROM removed) ORDER BY hash FOR NO KEY UPDATE;
+    UPDATE message_contexts mc SET ref_count = mc.ref_count - r.refs, released_at = now()
+    FROM (SELECT context_hash, count(*) AS refs FROM removed WHERE context_hash IS NOT NULL GROUP BY context_hash) r
+    WHERE mc.hash = r.context_hash;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER chat_messages_retain_contexts
+    AFTER INSERT ON chat_messages
+    REFERENCING NEW TABLE AS added
+    FOR EACH STATEMENT EXECUTE FUNCTION message_contexts_retain();
+
+CREATE TRIGGER chat_messages_release_contexts
+    AFTER DELETE ON chat_messages
+    REFERENCING OLD TABLE AS removed
+    FOR EACH STATEMENT EXECUTE FUNCTION message_contexts_release();
+
+-- Full-text search now matches content on chat_messages and context on message_contexts, each with its own index.
+-- Weights as before: hits in the conversation itself rank above hits in the RAG context.
+
+CREATE FUNCTION chat_message_content_vector(content text)
+    RETURNS tsvector
+    LANGUAGE sql
+    IMMUTABLE
+    PARALLEL SAFE
+AS $$
+    SELECT setweight(to_tsvector('english'::regconfig, coalesce(content, '')), 'A')
+$$;
+
+CREATE FUNCTION message_context_search_vector(body text)
+    RETURNS tsvector
+    LANGUAGE sql
+    IMMUTABLE
+    PARALLEL SAFE
+AS $$
+    SELECT setweight(to_tsvector('english'::regconfig, coalesce(body, '')), 'B')
+$$;
+
+CREATE INDEX idx_chat_messages_search ON chat_messages USING GIN (chat_message_content_vector(content));
+
+CREATE INDEX idx_message_contexts_search ON message_contexts USING GIN (message_context_search_vector(body));
+
+DROP FUNCTION chat_message_search_vector(text, text);
@@ -0,0 +1,21 @@
+-- Compress message text in Postgres rather than in the application, so full-text indexes and search snippets keep
+-- working on plain text. TOAST compresses the values of rows over about 2 KB on write, and they are decompressed
+-- only when the column is read.
+--
+-- LZ4 compresses and decompresses several times faster than the built-in pglz; it is used when the server is built
+-- with it (the official images are) and pglz is kept otherwise.
+-- STORAGE MAIN keeps a compressed value in the row instead of moving it to the TOAST table whenever it is still over
+-- 2 KB, so reading a message does not take extra TOAST index and chunk lookups unless the row would not fit a page.
+-- Only values written from now on are affected: existing rows keep their current form until they are rewritten.
+
+ALTER TABLE chat_messages ALTER COLUMN content SET STORAGE MAIN;
+ALTER TABLE message_contexts ALTER COLUMN body SET STORAGE MAIN;
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_settings WHERE name = 'default_toast_compression' AND 'lz4' = ANY (enumvals)) THEN
+        ALTER TABLE chat_messages ALTER COLUMN content SET COMPRESSION lz4;
+        ALTER TABLE message_contexts ALTER COLUMN body SET COMPRESSION lz4;
+    END IF;
+END
+$$;
@@ -0,0 +1,122 @@
+-- Partition chat_messages by month of created_at. Vacuum and index maintenance then work one month at a time, and
+-- retention drops a whole month instead of deleting its rows. MessagePartitionService creates the upcoming months
+-- and drops expired ones; this script creates one for every month that already has messages, the previous month
+-- and the next two.
+--
+-- Copies every message into the new table in one transaction: schedule it in a maintenance window on large tables.
+-- The primary key becomes (id, created_at), since a partitioned table's unique keys must include the partition key.
+-- IDs still come from chat_messages_seq and stay unique.
+
+ALTER TABLE chat_messages RENAME TO chat_messages_unpartitioned;
+
+CREATE TABLE chat_messages (
+    id              BIGINT       NOT NULL,
+    chat_session_id BIGINT       NOT NULL,
+    sender_type     VARCHAR(255) NOT NULL CHECK (sender_type IN ('USER', 'ASSISTANT')),
+    content         TEXT         NOT NULL,
+    created_at      TIMESTAMP(6) NOT NULL,
+    context_hash    BYTEA,
+    CONSTRAINT pk_chat_messages PRIMARY KEY (id, created_at),
+    CONSTRAINT fk_chat_messages_chat_session FOREIGN KEY (chat_session_id) REFERENCES chat_sessions (id),
+    CONSTRAINT fk_chat_messages_context FOREIGN KEY (context_hash) REFERENCES message_contexts (hash)
+) PARTITION BY RANGE (created_at);
+
+-- Same storage as V12 set on the old table; partitions take it over from here
+DO $$
+DECLARE
+    compression char;
+BEGIN
+    SELECT attcompression INTO compression FROM pg_attribute
+    WHERE attrelid = 'chat_messages_unpartitioned'::regclass AND attname = 'content';
+    ALTER TABLE chat_messages ALTER COLUMN content SET STORAGE MAIN;
+    IF compression = 'l' THEN
+        ALTER TABLE chat_messages ALTER COLUMN content SET COMPRESSION lz4;
+    END IF;
+END
+$$;
+
+-- Partitions are named by month, zero-padded, so names sort in month order
+CREATE FUNCTION chat_messages_partition_name(month date)
+    RETURNS text
+    LANGUAGE sql
+    IMMUTABLE
+AS $$
+    SELECT 'chat_messages_' || to_char(month, '"y"YYYY"m"MM')
+$$;
+
+-- Create the partition holding the given date's month unless it exists; returns whether it was created
+CREATE FUNCTION chat_messages_create_partition(month date)
+    RETURNS boolean
+    LANGUAGE plpgsql
+AS $$
+DECLARE
+    first_day date := date_trunc('month', month);
+    partition text := chat_messages_partition_name(first_day);
+BEGIN
+    IF to_regclass(partition) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF chat_messages FOR VALUES FROM (%L) TO (%L)',
+                   partition, first_day, first_day + interval '1 month');
+    RETURN true;
+END
+$$;
+
+-- Drop a partition already detached from chat_messages. Dropping a table fires no delete triggers, so the contexts
+-- its messages refer to are released here, locked in hash order like message_contexts_release does.
+CREATE FUNCTION chat_messages_drop_partition(partition regclass)
+    RETURNS void
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_inherits WHERE inhrelid = partition) THEN
+        RAISE EXCEPTION '% is still attached to chat_messages', partition;
+    END IF;
+    EXECUTE format('SELECT 1 FROM message_contexts WHERE hash IN (SELECT context_hash FROM %s) ' ||
+                   'ORDER BY hash FOR NO KEY UPDATE', partition);
+    EXECUTE format('UPDATE message_contexts mc SET ref_count = mc.ref_count - r.refs, released_at = now() ' ||
+                   'FROM (SELECT context_hash, count(*) AS refs FROM %s WHERE context_hash IS NOT NULL ' ||
+                   'GROUP BY context_hash) r WHERE mc.hash = r.context_hash', partition);
+    EXECUTE format('DROP TABLE %s', partition);
+END
+$$;
+
+SELECT chat_messages_create_partition(month::date)
+FROM (
+    SELECT DISTINCT date_trunc('month', created_at) AS month FROM chat_messages_unpartitioned
+    UNION
+    SELECT generate_series(date_trunc('month', now()) - interval '1 month',
+                           date_trunc('month', now()) + interval '2 months', interval '1 month')
+) months;
+
+-- Without triggers yet, so the reference counts of message_contexts carry over unchanged
+INSERT INTO chat_messages (id, chat_session_id, sender_type, content, created_at, context_hash)
+SELECT id, chat_session_id, sender_type, content, created_at, context_hash FROM chat_messages_unpartitioned;
+
+-- Dropping the old table fires no delete triggers either
+DROP TABLE chat_messages_unpartitioned;
+
+-- Same indexes as before, now created on every partition
+
+CREATE INDEX idx_chat_messages_session_created ON chat_messages (chat_session_id, created_at, id);
+
+CREATE INDEX idx_chat_messages_session_sender ON chat_messages (chat_session_id, sender_type, created_at);
+
+CREATE INDEX idx_chat_messages_context_hash ON chat_messages (context_hash) WHERE context_hash IS NOT NULL;
+
+CREATE INDEX idx_chat_messages_search ON chat_messages USING GIN (chat_message_content_vector(content));
+
+-- Statement-level with transition tables, which a partitioned table supports; they see the rows of every partition
+
+CREATE TRIGGER chat_messages_retain_contexts
+    AFTER INSERT ON chat_messages
+    REFERENCING NEW TABLE AS added
+    FOR EACH STATEMENT EXECUTE FUNCTION message_contexts_retain();
+
+CREATE TRIGGER chat_messages_release_contexts
+    AFTER DELETE ON chat_messages
+    REFERENCING OLD TABLE AS removed
+    FOR EACH STATEMENT EXECUTE FUNCTION message_contexts_release();
+
+-- Autovacuum analyzes the partitions but never the partitioned table itself
+ANALYZE chat_messages;
@@ -0,0 +1,41 @@
+-- A DEFAULT partition catches messages for months that have no partition yet, e.g. when MessagePartitionService
+-- has not run across a month boundary, so inserts (the write-behind flusher's included) never fail for want of one.
+-- Maintenance moves its rows into their own month's partition when it creates that.
+--
+-- While the default partition exists, creating a month's partition scans it for rows of that month; it is
+-- expected to be empty, so that stays cheap.
+
+CREATE TABLE chat_messages_default PARTITION OF chat_messages DEFAULT;
+
+-- Create the partition holding the given date's month unless it exists; returns whether it was created.
+-- Rows of that month already in the default partition are moved into it, partition to partition, so the context
+-- triggers on chat_messages do not fire and the reference counts stay as they are.
+CREATE OR REPLACE FUNCTION chat_messages_create_partition(month date)
+    RETURNS boolean
+    LANGUAGE plpgsql
+AS $$
+DECLARE
+    first_day date := date_trunc('month', month);
+    next_day date := first_day + interval '1 month';
+    partition text := chat_messages_partition_name(first_day);
+BEGIN
+    IF to_regclass(partition) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    -- Writes to the default partition wait until the month's rows are out of it
+    LOCK TABLE chat_messages_default IN EXCLUSIVE MODE;
+    IF NOT EXISTS (SELECT 1 FROM chat_messages_default WHERE created_at >= first_day AND created_at < next_day) THEN
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF chat_messages FOR VALUES FROM (%L) TO (%L)',
+                       partition, first_day, next_day);
+        RETURN true;
+    END IF;
+    EXECUTE format('CREATE TABLE %I (LIKE chat_messages INCLUDING DEFAULTS INCLUDING CONSTRAINTS ' ||
+                   'INCLUDING STORAGE INCLUDING COMPRESSION)', partition);
+    EXECUTE format('WITH moved AS (DELETE FROM chat_messages_default WHERE created_at >= %L AND created_at < %L ' ||
+                   'RETURNING *) INSERT INTO %I SELECT * FROM moved', first_day, next_day, partition);
+    -- Builds the indexes and foreign keys of chat_messages on the new partition
+    EXECUTE format('ALTER TABLE chat_messages ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   partition, first_day, next_day);
+    RETURN true;
+END
+$$;
@@ -0,0 +1,11 @@
+-- Move compressed message text back out of the row. STORAGE MAIN (V12) kept values of up to a page in the heap
+-- tuple, so every read of chat_messages, including those that never look at the text (counts, ID lookups, the
+-- session list), went through more heap pages and buffer cache. EXTENDED still compresses rows over about 2 KB,
+-- with LZ4 where V12 set it, and then moves whatever is still over 2 KB to the TOAST table, where it is only
+-- fetched when the column is read.
+--
+-- Also applies to every partition of chat_messages and to the ones created from now on. Only values written from
+-- now on are affected: existing rows keep their current form until they are rewritten.
+
+ALTER TABLE chat_messages ALTER COLUMN content SET STORAGE EXTENDED;
+ALTER TABLE message_contexts ALTER COLUMN body SET STORAGE EXTENDED;
@@ -0,0 +1,21 @@
+-- Baseline schema, equivalent to what Hibernate ddl-auto generated for ChatSession / ChatMessage.
+-- Databases that were created by ddl-auto are baselined at this version and skip this script.
+
+CREATE TABLE IF NOT EXISTS chat_sessions (
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id     VARCHAR(255) NOT NULL,
+    name        VARCHAR(255) NOT NULL,
+    is_favorite BOOLEAN      NOT NULL,
+    created_at  TIMESTAMP(6) NOT NULL,
+    updated_at  TIMESTAMP(6) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS chat_messages (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    chat_session_id BIGINT       NOT NULL,
+    sender_type     VARCHAR(255) NOT NULL CHECK (sender_type IN ('USER', 'ASSISTANT')),
+    content         TEXT         NOT NULL,
+    context         TEXT,
+    created_at      TIMESTAMP(6) NOT NULL,
+    CONSTRAINT fk_chat_messages_chat_session FOREIGN KEY (chat_session_id) REFERENCES chat_sessions (id)
+);
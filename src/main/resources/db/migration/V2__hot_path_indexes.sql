@@ -0,0 +1,22 @@
+-- Indexes for the ChatSessionRepository / ChatMessageRepository query paths.
+-- Built CONCURRENTLY so existing large tables keep taking writes; Flyway runs this script outside a transaction.
+--
+-- findByIdAndUserId / existsByIdAndUserId are served by the primary key on chat_sessions.id.
+
+-- findByUserIdOrderByUpdatedAtDesc (list + paginated), countByUserId
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_sessions_user_updated
+    ON chat_sessions (user_id, updated_at DESC);
+
+-- findByUserIdAndIsFavoriteTrueOrderByUpdatedAtDesc, countByUserIdAndIsFavoriteTrue
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_sessions_user_favorite
+    ON chat_sessions (user_id, updated_at DESC)
+    WHERE is_favorite;
+
+-- findByChatSessionOrderByCreatedAtAsc, keyset pages (findFirstPage / findPageAfter / findPageBefore),
+-- findLatestByChatSession (backward scan), countByChatSession, deleteByChatSession, FK lookups on session delete
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_session_created
+    ON chat_messages (chat_session_id, created_at, id);
+
+-- findByChatSessionAndSenderTypeOrderByCreatedAtAsc
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_session_sender
+    ON chat_messages (chat_session_id, sender_type, created_at);
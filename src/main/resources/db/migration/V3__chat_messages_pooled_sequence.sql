@@ -0,0 +1,8 @@
+-- Replace the IDENTITY column on chat_messages with a pooled sequence so Hibernate can batch inserts.
+-- INCREMENT BY must match allocationSize on ChatMessage.id; Hibernate treats each value as the top of a block of 50.
+
+CREATE SEQUENCE IF NOT EXISTS chat_messages_seq INCREMENT BY 50;
+
+ALTER TABLE chat_messages ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+SELECT setval('chat_messages_seq', COALESCE((SELECT MAX(id) FROM chat_messages), 0) + 50, false);
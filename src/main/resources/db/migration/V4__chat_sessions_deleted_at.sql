@@ -0,0 +1,5 @@
+-- Tombstone for sessions too large to delete inside the request.
+-- A non-null deleted_at hides the session from every query; SessionPurgeService removes its messages in chunks
+-- and then the row itself.
+
+ALTER TABLE chat_sessions ADD COLUMN IF NOT EXISTS deleted_at timestamp(6);
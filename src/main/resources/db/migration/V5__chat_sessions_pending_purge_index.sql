@@ -0,0 +1,4 @@
+-- Lets the purge sweep find tombstoned sessions without scanning chat_sessions. Almost always empty.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_sessions_pending_purge
+    ON chat_sessions (id) WHERE deleted_at IS NOT NULL;
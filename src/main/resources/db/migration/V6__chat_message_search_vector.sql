@@ -0,0 +1,13 @@
+-- Single definition of the full-text document for a message, shared by the GIN index and the search query.
+-- Content is weighted above the RAG context so hits in the conversation itself rank first.
+-- Must stay IMMUTABLE (explicit regconfig) to be usable in an index expression.
+
+CREATE OR REPLACE FUNCTION chat_message_search_vector(content text, context text)
+    RETURNS tsvector
+    LANGUAGE sql
+    IMMUTABLE
+    PARALLEL SAFE
+AS $$
+    SELECT setweight(to_tsvector('english'::regconfig, coalesce(content, '')), 'A')
+        || setweight(to_tsvector('english'::regconfig, coalesce(context, '')), 'B')
+$$;
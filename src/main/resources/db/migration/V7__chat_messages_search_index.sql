@@ -0,0 +1,4 @@
+-- Expression index rather than a stored tsvector column: no table rewrite, and it can be built without blocking writes.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_search
+    ON chat_messages USING GIN (chat_message_search_vector(content, context));
@@ -0,0 +1,6 @@
+-- Trigram matching for session-name search. btree_gin lets user_id share a GIN index with the trigram column,
+-- so one index lookup is scoped to a single user's sessions.
+-- Both extensions are trusted, so the database owner can install them without superuser.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS btree_gin;
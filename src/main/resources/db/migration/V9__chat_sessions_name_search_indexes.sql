@@ -0,0 +1,13 @@
+-- Indexes for session-name search. Tombstoned sessions are never searched, so both are partial.
+
+-- Fuzzy search (the <% word-similarity filter) and the substring LIKE of findByUserIdAndNameContainingIgnoreCase.
+-- GIN rather than GiST: results are ordered by (distance, id), which a nearest-neighbour GiST scan cannot
+-- deliver without sorting every match anyway, and GIN lookups are several times cheaper.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_sessions_user_name_trgm
+    ON chat_sessions USING GIN (user_id, lower(name) gin_trgm_ops)
+    WHERE deleted_at IS NULL;
+
+-- Prefix / autocomplete: range scan and keyset order on (lower(name), id) in byte order
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_sessions_user_name_prefix
+    ON chat_sessions (user_id, lower(name) COLLATE "C", id)
+    WHERE deleted_at IS NULL;
@@ -0,0 +1,82 @@
+package bytecode.rag_chat_storage.controller;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageStreamsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    void ndjson_writesOneMessagePerLine() throws IOException {
+        String body = render(MessageStreams.ndjson(objectMapper, this::threeMessages));
+
+        String[] lines = body.split("\n", -1);
+        assertEquals(4, lines.length);
+        assertEquals("", lines[3]);
+        for (int i = 0; i < 3; i++) {
+            JsonNode node = objectMapper.readTree(lines[i]);
+            assertEquals(i + 1, node.get("id").asLong());
+            assertEquals("turn " + i, node.get("content").asText());
+        }
+    }
+
+    @Test
+    void ndjson_linesAfterTheFirstAreBareJson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageStreams.ndjson(objectMapper, this::threeMessages).writeTo(out);
+        byte[] first = (objectMapper.writeValueAsString(message(0)) + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] second = (objectMapper.writeValueAsString(message(1)) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        byte[] body = out.toByteArray();
+        assertArrayEquals(second, Arrays.copyOfRange(body, first.length, first.length + second.length));
+    }
+
+    @Test
+    void ndjson_emptyHistoryIsEmptyBody() throws IOException {
+        assertEquals("", render(MessageStreams.ndjson(objectMapper, sink -> { })));
+    }
+
+    @Test
+    void jsonArray_writesSingleArray() throws IOException {
+        JsonNode array = objectMapper.readTree(render(MessageStreams.jsonArray(objectMapper, this::threeMessages)));
+
+        assertTrue(array.isArray());
+        assertEquals(3, array.size());
+        assertEquals("turn 2", array.get(2).get("content").asText());
+    }
+
+    private void threeMessages(Consumer<ChatMessageDto> sink) {
+        for (int i = 0; i < 3; i++) {
+            sink.accept(message(i));
+        }
+    }
+
+    private static ChatMessageDto message(int i) {
+        ChatMessageDto message = new ChatMessageDto();
+        message.setId((long) i + 1);
+        message.setChatSessionId(7L);
+        message.setSenderType(ChatMessage.SenderType.USER);
+        message.setContent("turn " + i);
+        return message;
+    }
+
+    private static String render(StreamingResponseBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
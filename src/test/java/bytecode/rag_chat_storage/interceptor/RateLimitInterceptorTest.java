@@ -0,0 +1,91 @@
+package bytecode.rag_chat_storage.interceptor;
+
+import bytecode.rag_chat_storage.ratelimit.InMemoryBucketStore;
+import bytecode.rag_chat_storage.ratelimit.RateLimitPolicyResolver;
+import bytecode.rag_chat_storage.ratelimit.RateLimitProperties;
+import bytecode.rag_chat_storage.service.RateLimitService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitInterceptorTest {
+
+    private final RateLimitInterceptor interceptor = new RateLimitInterceptor();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    RateLimitInterceptorTest() {
+        RateLimitProperties properties = new RateLimitProperties();
+        RateLimitProperties.Policy writes = new RateLimitProperties.Policy();
+        writes.setName("writes");
+        writes.setMethods(List.of("POST"));
+        writes.setPaths(List.of("/api/**"));
+        writes.setTiers(Map.of("standard", List.of(new RateLimitProperties.Limit(2, Duration.ofMinutes(1)))));
+        properties.setPolicies(List.of(writes));
+        properties.setDefaultLimits(Map.of("standard", List.of(new RateLimitProperties.Limit(100, Duration.ofMinutes(1)))));
+
+        RateLimitService service = new RateLimitService(new InMemoryBucketStore(1000, Duration.ofMinutes(1)), 0, 0.5,
+                Duration.ofSeconds(1), 1000, Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(interceptor, "rateLimiterService", service);
+        ReflectionTestUtils.setField(interceptor, "policyResolver", new RateLimitPolicyResolver(properties));
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void reportsRemainingTokensAndRetryAfterOnceExhausted() throws Exception {
+        MockHttpServletResponse first = call("POST", "/api/v1/sessions", "writer");
+        assertEquals(200, first.getStatus());
+        assertEquals("1", first.getHeader(RateLimitInterceptor.REMAINING_HEADER));
+
+        assertEquals("0", call("POST", "/api/v1/sessions", "writer").getHeader(RateLimitInterceptor.REMAINING_HEADER));
+
+        MockHttpServletResponse rejected = call("POST", "/api/v1/sessions", "writer");
+        assertEquals(429, rejected.getStatus());
+        assertEquals("0", rejected.getHeader(RateLimitInterceptor.REMAINING_HEADER));
+        // One of two tokens per minute refills in 30s
+        long retryAfter = Long.parseLong(rejected.getHeader(RateLimitInterceptor.RETRY_AFTER_HEADER));
+        assertTrue(retryAfter > 0 && retryAfter <= 30, "Retry-After " + retryAfter);
+
+        assertEquals(2, meterRegistry.get("chat.rate_limit.requests").tags("policy", "writes", "result", "accepted").counter().count());
+        assertEquals(1, meterRegistry.get("chat.rate_limit.requests").tags("policy", "writes", "result", "rejected").counter().count());
+    }
+
+    @Test
+    void exhaustedWritesLeaveReadsAlone() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            call("POST", "/api/v1/sessions", "busy");
+        }
+
+        MockHttpServletResponse read = call("GET", "/api/v1/sessions", "busy");
+        assertEquals(200, read.getStatus());
+        assertEquals("99", read.getHeader(RateLimitInterceptor.REMAINING_HEADER));
+    }
+
+    @Test
+    void asyncRedispatchOfAStreamDoesNotSpendAnotherToken() throws Exception {
+        call("POST", "/api/v1/sessions", "streamer");
+
+        MockHttpServletRequest redispatch = new MockHttpServletRequest("POST", "/api/v1/sessions");
+        redispatch.addHeader("X-User-ID", "streamer");
+        redispatch.setDispatcherType(DispatcherType.ASYNC);
+        assertTrue(interceptor.preHandle(redispatch, new MockHttpServletResponse(), new Object()));
+
+        assertEquals("0", call("POST", "/api/v1/sessions", "streamer").getHeader(RateLimitInterceptor.REMAINING_HEADER));
+    }
+
+    private MockHttpServletResponse call(String method, String path, String userId) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.addHeader("X-User-ID", userId);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        interceptor.preHandle(request, response, new Object());
+        return response;
+    }
+}
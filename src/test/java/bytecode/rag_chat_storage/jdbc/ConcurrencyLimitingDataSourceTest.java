@@ -0,0 +1,111 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ConcurrencyLimitingDataSourceTest {
+
+    private final DataSource target = mock(DataSource.class);
+
+    ConcurrencyLimitingDataSourceTest() throws SQLException {
+        when(target.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+    }
+
+    @Test
+    void closingAConnectionReturnsItsPermitOnce() throws SQLException {
+        ConcurrencyLimitingDataSource dataSource = new ConcurrencyLimitingDataSource(target, 1, 0, Duration.ZERO);
+
+        Connection first = dataSource.getConnection();
+        first.close();
+        first.close();
+
+        Connection second = dataSource.getConnection();
+        assertThrows(JdbcConcurrencyLimitExceededException.class, dataSource::getConnection,
+                "a repeated close must not hand out a second permit");
+        second.close();
+    }
+
+    @Test
+    void callerBeyondTheQueueIsRejectedImmediately() throws Exception {
+        ConcurrencyLimitingDataSource dataSource = new ConcurrencyLimitingDataSource(target, 1, 1, Duration.ofSeconds(10));
+        Connection held = dataSource.getConnection();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Connection> queued = CompletableFuture.supplyAsync(() -> {
+            started.countDown();
+            try {
+                return dataSource.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.await();
+        awaitWaiting(dataSource, 1);
+
+        long start = System.nanoTime();
+        assertThrows(JdbcConcurrencyLimitExceededException.class, dataSource::getConnection);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        held.close();
+        queued.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void queuedCallerGivesUpAfterTheAcquireTimeout() throws SQLException {
+        ConcurrencyLimitingDataSource dataSource = new ConcurrencyLimitingDataSource(target, 1, 10, Duration.ofMillis(100));
+        Connection held = dataSource.getConnection();
+
+        assertThrows(JdbcConcurrencyLimitExceededException.class, dataSource::getConnection);
+
+        held.close();
+        dataSource.getConnection().close();
+    }
+
+    @Test
+    void failedConnectReleasesThePermit() throws SQLException {
+        DataSource failing = mock(DataSource.class);
+        when(failing.getConnection()).thenThrow(new SQLException("down")).thenAnswer(invocation -> mock(Connection.class));
+        ConcurrencyLimitingDataSource dataSource = new ConcurrencyLimitingDataSource(failing, 1, 0, Duration.ZERO);
+
+        assertThrows(SQLException.class, dataSource::getConnection);
+
+        assertNotNull(dataSource.getConnection());
+    }
+
+    @Test
+    void activeWaitingAndRejectedArePublished() throws SQLException {
+        ConcurrencyLimitingDataSource dataSource = new ConcurrencyLimitingDataSource(target, 1, 0, Duration.ZERO);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        dataSource.bindTo(registry);
+
+        Connection held = dataSource.getConnection();
+        assertThrows(JdbcConcurrencyLimitExceededException.class, dataSource::getConnection);
+
+        assertEquals(1.0, registry.get("chat.jdbc.limiter.active").gauge().value());
+        assertEquals(0.0, registry.get("chat.jdbc.limiter.waiting").gauge().value());
+        assertEquals(1.0, registry.get("chat.jdbc.limiter.rejected").functionCounter().count());
+        held.close();
+        assertEquals(0.0, registry.get("chat.jdbc.limiter.active").gauge().value());
+    }
+
+    private static void awaitWaiting(ConcurrencyLimitingDataSource dataSource, int expected) throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        dataSource.bindTo(registry);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("chat.jdbc.limiter.waiting").gauge().value() < expected) {
+            assertTrue(System.nanoTime() < deadline, "caller never queued");
+            Thread.sleep(10);
+        }
+    }
+}
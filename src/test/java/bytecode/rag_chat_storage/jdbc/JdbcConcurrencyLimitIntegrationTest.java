@@ -0,0 +1,54 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.service.ChatSessionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = {
+        "chat.jdbc.concurrency-limit.enabled=true",
+        "chat.jdbc.concurrency-limit.max-concurrent=2",
+        "chat.jdbc.concurrency-limit.max-waiting=0"
+})
+class JdbcConcurrencyLimitIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void poolIsWrappedAndPublishesItsMetrics() {
+        ConcurrencyLimitingDataSource limiter = assertInstanceOf(ConcurrencyLimitingDataSource.class, dataSource);
+
+        assertEquals(2, limiter.getMaxConcurrent());
+        assertNotNull(meterRegistry.find("chat.jdbc.limiter.active").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections.max").gauge(), "pool metrics still see Hikari behind the limiter");
+    }
+
+    @Test
+    void saturatedLimitFailsFastAsResourceFailure() throws Exception {
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            Exception ex = assertThrows(Exception.class,
+                    () -> chatSessionService.createChatSession("jdbc-limit", new CreateChatSessionRequest("Blocked")));
+            assertTrue(ex instanceof CannotCreateTransactionException || ex instanceof DataAccessResourceFailureException,
+                    "Unexpected " + ex);
+        }
+
+        assertNotNull(chatSessionService.createChatSession("jdbc-limit", new CreateChatSessionRequest("Admitted")).getId());
+    }
+}
@@ -0,0 +1,67 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.service.ChatSessionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Concurrency limit and read replicas together: the primary and the replica each get a limiter of their own
+ */
+class JdbcConcurrencyLimitWithReplicasIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    private static final String USER_ID = "jdbc-limit-replicas";
+
+    private static final EmbeddedPostgres REPLICA = ReadReplicaRoutingIntegrationTest.startReplica();
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("chat.jdbc.replicas.enabled", () -> "true");
+        registry.add("chat.jdbc.replicas.urls", () -> REPLICA.getJdbcUrl("postgres", "postgres"));
+        registry.add("chat.jdbc.replicas.max-lag", () -> "PT10S");
+        registry.add("chat.jdbc.concurrency-limit.enabled", () -> "true");
+        registry.add("chat.jdbc.concurrency-limit.max-concurrent", () -> "1");
+        registry.add("chat.jdbc.concurrency-limit.max-waiting", () -> "0");
+    }
+
+    @Test
+    void everyPoolGetsItsOwnLimiter() {
+        assertInstanceOf(ReplicaRoutingDataSource.class, dataSource, "the router is not wrapped as a whole");
+        assertNotNull(meterRegistry.find("chat.jdbc.limiter.active").tag("pool", "primary").gauge());
+        assertNotNull(meterRegistry.find("chat.jdbc.limiter.active").tag("pool", "replica-1").gauge());
+    }
+
+    @Test
+    void saturatedPrimaryDoesNotHoldUpReplicaReads() throws Exception {
+        try (Connection held = dataSource.getConnection(); Statement statement = held.createStatement()) {
+            // The statement fetched the primary's only connection
+            assertEquals(1.0, meterRegistry.get("chat.jdbc.limiter.active").tag("pool", "primary").gauge().value());
+
+            assertTrue(chatSessionService.getChatSessions(USER_ID, 0, 10).isEmpty(), "read served by the replica");
+            assertThrows(Exception.class,
+                    () -> chatSessionService.createChatSession(USER_ID, new CreateChatSessionRequest("Blocked")));
+        }
+
+        assertNotNull(chatSessionService.createChatSession(USER_ID, new CreateChatSessionRequest("Admitted")).getId());
+    }
+}
@@ -0,0 +1,136 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.ChatSessionDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.interceptor.ReadYourWritesInterceptor;
+import bytecode.rag_chat_storage.service.ChatSessionService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routes against a second embedded Postgres standing in for a replica. It has the schema but never receives the
+ * primary's rows, so a read that finds nothing was served by it.
+ */
+class ReadReplicaRoutingIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    private static final String USER_ID = "replica-routing";
+
+    private static final EmbeddedPostgres REPLICA = startReplica();
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ReadYourWritesInterceptor readYourWritesInterceptor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void replicaProperties(DynamicPropertyRegistry registry) {
+        registry.add("chat.jdbc.replicas.enabled", () -> "true");
+        registry.add("chat.jdbc.replicas.urls", () -> REPLICA.getJdbcUrl("postgres", "postgres"));
+        registry.add("chat.jdbc.replicas.max-lag", () -> "PT10S");
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void readOnlyServiceCallsReadFromTheReplica() {
+        assertInstanceOf(ReplicaRoutingDataSource.class, dataSource);
+        ChatSessionDto created = chatSessionService.createChatSession(USER_ID, new CreateChatSessionRequest("Routed"));
+
+        assertTrue(chatSessionService.getChatSessions(USER_ID, 0, 10).isEmpty(), "read-only page served by the replica");
+        assertFalse(chatSessionService.existsChatSession(USER_ID, created.getId()));
+    }
+
+    @Test
+    void writesAndPlainJdbcUseThePrimary() {
+        ChatSessionDto created = chatSessionService.createChatSession(USER_ID, new CreateChatSessionRequest("Written"));
+
+        ChatSessionDto updated = chatSessionService.toggleFavorite(USER_ID, created.getId());
+
+        assertTrue(updated.getIsFavorite());
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM chat_sessions WHERE id = ?", Integer.class, created.getId()));
+    }
+
+    @Test
+    void userReadsTheirOwnWriteFromThePrimary() throws Exception {
+        String writer = USER_ID + "-writer";
+        handle("POST", writer);
+        ChatSessionDto created = chatSessionService.createChatSession(writer, new CreateChatSessionRequest("Mine"));
+
+        handle("GET", writer);
+        assertEquals(1, chatSessionService.getChatSessions(writer, 0, 10).getTotalElements());
+        assertTrue(chatSessionService.existsChatSession(writer, created.getId()));
+
+        handle("GET", USER_ID + "-reader");
+        assertTrue(chatSessionService.getChatSessions(writer, 0, 10).isEmpty(), "other users' requests still use the replica");
+    }
+
+    @Test
+    void lagCheckReportsAServerThatIsNotAStandbyAsCaughtUp() {
+        JdbcTemplate replica = new JdbcTemplate(REPLICA.getPostgresDatabase());
+
+        assertEquals(0.0, replica.queryForObject(ReplicaRoutingDataSource.LAG_QUERY, Double.class));
+    }
+
+    /**
+     * Start a request from the user and run it through the interceptor, as the dispatcher would
+     */
+    private void handle(String method, String userId) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/v1/sessions");
+        request.addHeader("X-User-ID", userId);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        readYourWritesInterceptor.preHandle(request, response, null);
+        readYourWritesInterceptor.afterCompletion(request, response, null, null);
+    }
+
+    static EmbeddedPostgres startReplica() {
+        try {
+            EmbeddedPostgres replica = EmbeddedPostgres.builder().start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    replica.close();
+                } catch (IOException ignored) {
+                    // JVM is exiting
+                }
+            }));
+            Flyway.configure()
+                    .dataSource(replica.getPostgresDatabase())
+                    .locations("classpath:db/migration")
+                    .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                    .load()
+                    .migrate();
+            return replica;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start embedded replica", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package bytecode.rag_chat_storage.jdbc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final DataSource primary = mock(DataSource.class);
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Map<String, DataSource> replicas = new LinkedHashMap<>();
+    private final AtomicBoolean pinned = new AtomicBoolean();
+
+    ReplicaRoutingDataSourceTest() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+    }
+
+    @Test
+    void writesStayOnThePrimary() throws SQLException {
+        Connection replicaConnection = replica("replica-1", 0);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        assertSame(primaryConnection, target(dataSource, false));
+        assertNotSame(replicaConnection, target(dataSource, false));
+    }
+
+    @Test
+    void readsTakeTurnsBetweenReplicas() throws SQLException {
+        Connection first = replica("replica-1", 0);
+        Connection second = replica("replica-2", 0);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        assertSame(first, target(dataSource, true));
+        assertSame(second, target(dataSource, true));
+        assertSame(first, target(dataSource, true));
+    }
+
+    @Test
+    void replicaBehindMaxLagIsSkipped() throws SQLException {
+        replica("replica-1", 10);
+        Connection current = replica("replica-2", 0.5);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        dataSource.refreshLag();
+
+        assertSame(current, target(dataSource, true));
+        assertSame(current, target(dataSource, true));
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWhenEveryReplicaLags() throws SQLException {
+        replica("replica-1", 10);
+        replica("replica-2", Double.POSITIVE_INFINITY);
+        ReplicaRoutingDataSource dataSource = routing();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        dataSource.bindTo(registry);
+
+        dataSource.refreshLag();
+
+        assertSame(primaryConnection, target(dataSource, true));
+        assertEquals(1, registry.get("chat.jdbc.reads").tag("target", "fallback").functionCounter().count());
+        assertEquals(10, registry.get("chat.jdbc.replica.lag").tag("replica", "replica-1").gauge().value());
+        assertTrue(Double.isNaN(registry.get("chat.jdbc.replica.lag").tag("replica", "replica-2").gauge().value()));
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWhenReplicationStops() throws SQLException {
+        // Caught up while streaming; once its WAL receiver is gone the lag check reports it as unavailable
+        Connection replicaConnection = replica("replica-1", 0, Double.POSITIVE_INFINITY);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        dataSource.refreshLag();
+        assertSame(replicaConnection, target(dataSource, true));
+
+        dataSource.refreshLag();
+        assertSame(primaryConnection, target(dataSource, true));
+    }
+
+    @Test
+    void pinnedCallerReadsFromThePrimary() throws SQLException {
+        replica("replica-1", 0);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        pinned.set(true);
+
+        assertSame(primaryConnection, target(dataSource, true));
+    }
+
+    @Test
+    void replicaRefusingConnectionsIsSkippedUntilItsNextCheck() throws SQLException {
+        Connection replicaConnection = replica("replica-1", 0);
+        DataSource down = mock(DataSource.class);
+        when(down.getConnection()).thenThrow(new SQLException("Connection refused"));
+        replicas.put("replica-2", down);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        assertSame(replicaConnection, target(dataSource, true));
+        assertSame(replicaConnection, target(dataSource, true), "the refused read goes to the next replica");
+        assertSame(replicaConnection, target(dataSource, true));
+        verify(down, times(1)).getConnection();
+
+        dataSource.refreshLag();
+        verify(down, times(2)).getConnection();
+        assertSame(replicaConnection, target(dataSource, true));
+        assertSame(replicaConnection, target(dataSource, true));
+    }
+
+    @Test
+    void replicaAtItsConcurrencyLimitIsOnlyPassedOverForThatRead() throws SQLException {
+        Connection busyConnection = mock(Connection.class);
+        DataSource busy = mock(DataSource.class);
+        when(busy.getConnection())
+                .thenThrow(new JdbcConcurrencyLimitExceededException("JDBC concurrency limit of 1 reached"))
+                .thenReturn(busyConnection);
+        replicas.put("replica-1", busy);
+        Connection other = replica("replica-2", 0);
+        ReplicaRoutingDataSource dataSource = routing();
+
+        assertSame(other, target(dataSource, true), "the turned-away read goes to the next replica");
+        assertSame(busyConnection, target(dataSource, true), "the busy replica stays in rotation");
+    }
+
+    private ReplicaRoutingDataSource routing() {
+        return new ReplicaRoutingDataSource(primary, replicas, Duration.ofSeconds(2), pinned::get);
+    }
+
+    /**
+     * The connection a statement would run on, for a transaction that is read-only or not
+     */
+    private static Connection target(ReplicaRoutingDataSource dataSource, boolean readOnly) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setReadOnly(readOnly);
+        return ((ConnectionProxy) connection).getTargetConnection();
+    }
+
+    /**
+     * A replica whose lag checks report the given lags in seconds, the last one from then on
+     */
+    private Connection replica(String name, double lagSeconds, double... laterLagSeconds) throws SQLException {
+        DataSource replica = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        ResultSet lag = mock(ResultSet.class);
+        when(replica.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(lag);
+        when(lag.next()).thenReturn(true);
+        when(lag.getDouble(1)).thenReturn(lagSeconds,
+                Arrays.stream(laterLagSeconds).boxed().toArray(Double[]::new));
+        replicas.put(name, replica);
+        return connection;
+    }
+}
@@ -0,0 +1,75 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.service.RateLimitService;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcBucketStoreIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    private static final BucketConfiguration FIVE_PER_MINUTE = BucketConfiguration.builder()
+            .addLimit(Bandwidth.builder().capacity(5).refillGreedy(5, Duration.ofMinutes(1)).build())
+            .build();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JdbcBucketStore jdbcBucketStore;
+
+    @Test
+    void replicasShareOneBucket() {
+        RateLimitService first = node(new JdbcBucketStore(jdbcTemplate, Duration.ofMinutes(1)));
+        RateLimitService second = node(new JdbcBucketStore(jdbcTemplate, Duration.ofMinutes(1)));
+
+        int allowed = 0;
+        for (int i = 0; i < 12; i++) {
+            RateLimitService node = i % 2 == 0 ? first : second;
+            if (node.resolveBucket("user:jdbc-shared", FIVE_PER_MINUTE).tryConsume(1)) {
+                allowed++;
+            }
+        }
+
+        assertEquals(5, allowed);
+        assertEquals(1, count("user:jdbc-shared"));
+    }
+
+    @Test
+    void rowExpiresOnceTheBucketWouldBeFullAgain() {
+        node(jdbcBucketStore).resolveBucket("user:jdbc-expiry", FIVE_PER_MINUTE).tryConsume(1);
+
+        Long secondsLeft = jdbcTemplate.queryForObject(
+                "SELECT CAST(extract(epoch FROM expires_at - now()) AS bigint) FROM rate_limit_buckets WHERE id = ?",
+                Long.class, "user:jdbc-expiry");
+        // One of five tokens refills in 12s, plus the one minute grace period
+        assertTrue(secondsLeft > 60 && secondsLeft <= 72, "expires in " + secondsLeft + "s");
+    }
+
+    @Test
+    void cleanupDeletesOnlyExpiredRows() {
+        RateLimitService service = node(jdbcBucketStore);
+        service.resolveBucket("user:jdbc-stale", FIVE_PER_MINUTE).tryConsume(1);
+        service.resolveBucket("user:jdbc-live", FIVE_PER_MINUTE).tryConsume(1);
+        jdbcTemplate.update("UPDATE rate_limit_buckets SET expires_at = now() - interval '1 second' WHERE id = ?", "user:jdbc-stale");
+
+        assertTrue(jdbcBucketStore.deleteExpired() >= 1);
+
+        assertEquals(0, count("user:jdbc-stale"));
+        assertEquals(1, count("user:jdbc-live"));
+    }
+
+    private static RateLimitService node(JdbcBucketStore store) {
+        return new RateLimitService(store, 0, 0.5, Duration.ofSeconds(1), 1000, Duration.ofMinutes(10));
+    }
+
+    private long count(String key) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM rate_limit_buckets WHERE id = ?", Long.class, key);
+    }
+}
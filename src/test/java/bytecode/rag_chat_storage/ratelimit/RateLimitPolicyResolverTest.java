@@ -0,0 +1,115 @@
+package bytecode.rag_chat_storage.ratelimit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitPolicyResolverTest {
+
+    private final RateLimitPolicyResolver resolver = new RateLimitPolicyResolver(properties());
+
+    @AfterEach
+    void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void firstMatchingPolicyWins() throws NoSuchMethodException {
+        assertEquals("delete-all", resolve("DELETE", "/api/v1/sessions", "deleteAll").getName());
+        assertEquals("writes", resolve("DELETE", "/api/v1/sessions/{sessionId}", "delete").getName());
+        assertEquals("reads", resolve("GET", "/api/v1/sessions/{sessionId}/messages/latest", "latest").getName());
+        assertEquals("default", resolve("GET", "/actuator/health", "health").getName());
+    }
+
+    @Test
+    void policyIsCachedPerHandlerMethod() throws NoSuchMethodException {
+        RateLimitPolicy first = resolve("GET", "/api/v1/sessions/{sessionId}/messages/latest", "latest");
+
+        // A second request to the same handler is not matched again, whatever its path says
+        assertSame(first, resolve("GET", "/elsewhere", "latest"));
+    }
+
+    @Test
+    void tiersGetTheirOwnLimitsAndBuckets() throws NoSuchMethodException {
+        RateLimitPolicy reads = resolve("GET", "/api/v1/sessions/{sessionId}/messages/latest", "latest");
+
+        assertEquals(2, reads.configuration("premium").getBandwidths().length);
+        assertEquals(100, reads.configuration("premium").getBandwidths()[0].getCapacity());
+        assertEquals(20, reads.configuration(null).getBandwidths()[0].getCapacity());
+        assertSame(reads.configuration(null), reads.configuration("unknown"));
+        assertNotEquals(reads.bucketKey("premium", "user:a"), reads.bucketKey(null, "user:a"));
+    }
+
+    @Test
+    void tierComesFromTheTokenClaim() {
+        assertNull(resolver.resolveTier());
+
+        Jwt jwt = Jwt.withTokenValue("token").header("alg", "none").subject("user1").claim("tier", "premium").build();
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+
+        assertEquals("premium", resolver.resolveTier());
+    }
+
+    @Test
+    void policyWithoutDefaultTierIsRejected() {
+        RateLimitProperties properties = properties();
+        properties.getPolicies().get(0).getTiers().remove("standard");
+
+        assertThrows(IllegalStateException.class, () -> new RateLimitPolicyResolver(properties));
+    }
+
+    private RateLimitPolicy resolve(String method, String pattern, String handlerName) throws NoSuchMethodException {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, pattern);
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+        HandlerMethod handler = new HandlerMethod(new Handlers(), Handlers.class.getMethod(handlerName));
+        return resolver.resolve(request, handler);
+    }
+
+    static RateLimitProperties properties() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setPolicies(new ArrayList<>(List.of(
+                policy("delete-all", List.of("DELETE"), List.of("/api/v1/sessions"),
+                        Map.of("standard", List.of(limit(2, Duration.ofMinutes(1))))),
+                policy("writes", List.of("POST", "PUT", "PATCH", "DELETE"), List.of("/api/**"),
+                        Map.of("standard", List.of(limit(3, Duration.ofSeconds(1)), limit(10, Duration.ofMinutes(1))))),
+                policy("reads", List.of("GET"), List.of("/api/**"),
+                        Map.of("standard", List.of(limit(20, Duration.ofSeconds(1)), limit(300, Duration.ofMinutes(1))),
+                               "premium", List.of(limit(100, Duration.ofSeconds(1)), limit(1500, Duration.ofMinutes(1))))))));
+        properties.setDefaultLimits(Map.of("standard", List.of(limit(60, Duration.ofMinutes(1)))));
+        return properties;
+    }
+
+    private static RateLimitProperties.Policy policy(String name, List<String> methods, List<String> paths,
+                                                     Map<String, List<RateLimitProperties.Limit>> tiers) {
+        RateLimitProperties.Policy policy = new RateLimitProperties.Policy();
+        policy.setName(name);
+        policy.setMethods(methods);
+        policy.setPaths(paths);
+        policy.setTiers(new HashMap<>(tiers));
+        return policy;
+    }
+
+    private static RateLimitProperties.Limit limit(long capacity, Duration period) {
+        return new RateLimitProperties.Limit(capacity, period);
+    }
+
+    public static class Handlers {
+        public void deleteAll() {}
+        public void delete() {}
+        public void latest() {}
+        public void health() {}
+    }
+}
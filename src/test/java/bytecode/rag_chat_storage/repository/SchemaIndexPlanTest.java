@@ -0,0 +1,262 @@
+package bytecode.rag_chat_storage.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Applies the Flyway migrations to an embedded Postgres, seeds enough rows for the planner to
+ * prefer indexes, and checks that the SQL behind each repository method is served by the intended index.
+ */
+class SchemaIndexPlanTest {
+
+    private static EmbeddedPostgres postgres;
+    private static DataSource dataSource;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        dataSource = postgres.getPostgresDatabase();
+
+        Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .load()
+                .migrate();
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO chat_sessions (user_id, name, is_favorite, created_at, updated_at) " +
+                    "SELECT 'user' || (g % 500), 'Session ' || g, g % 10 = 0, " +
+                    "now() - g * interval '1 minute', now() - g * interval '1 minute' " +
+                    "FROM generate_series(1, 20000) g");
+            statement.execute("INSERT INTO message_contexts (hash, body) " +
+                    "SELECT sha256(convert_to('context ' || g, 'UTF8')), 'context ' || g FROM generate_series(0, 1999) g");
+            // Every tenth message carries one of the shared contexts. Spread over the four monthly partitions the
+            // migration creates (previous month to two months ahead), so each is big enough to be planned with its indexes.
+            statement.execute("INSERT INTO chat_messages (id, chat_session_id, sender_type, content, context_hash, created_at) " +
+                    "SELECT g, (g % 200) + 1, CASE WHEN g % 2 = 0 THEN 'USER' ELSE 'ASSISTANT' END, 'message ' || g, " +
+                    "CASE WHEN g % 10 = 0 THEN sha256(convert_to('context ' || (g / 10 % 2000), 'UTF8')) END, " +
+                    "date_trunc('month', now()) - interval '1 month' + g * interval '50 seconds' " +
+                    "FROM generate_series(1, 200000) g");
+            // One user with tens of thousands of sessions, for the name search paths
+            statement.execute("INSERT INTO chat_sessions (user_id, name, is_favorite, created_at, updated_at) " +
+                    "SELECT 'heavy', (ARRAY['Roadmap', 'Budget', 'Hiring', 'Launch', 'Retro'])[g % 5 + 1] || ' ' || g, false, " +
+                    "now() - g * interval '1 minute', now() - g * interval '1 minute' " +
+                    "FROM generate_series(1, 30000) g");
+            // VACUUM also flushes the GIN pending lists the bulk insert left behind, as autovacuum would
+            statement.execute("VACUUM ANALYZE");
+        }
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Test
+    void findByUserIdOrderByUpdatedAtDesc_usesUserUpdatedIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_sessions WHERE user_id = 'user42' ORDER BY updated_at DESC",
+                "idx_chat_sessions_user_updated");
+    }
+
+    @Test
+    void countByUserId_usesUserUpdatedIndex() throws Exception {
+        assertUsesIndex("SELECT count(*) FROM chat_sessions WHERE user_id = 'user42'",
+                "idx_chat_sessions_user_updated");
+    }
+
+    @Test
+    void findFavorites_usesPartialIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_sessions WHERE user_id = 'user42' AND is_favorite = true ORDER BY updated_at DESC",
+                "idx_chat_sessions_user_favorite");
+    }
+
+    @Test
+    void countFavorites_usesPartialIndex() throws Exception {
+        assertUsesIndex("SELECT count(*) FROM chat_sessions WHERE user_id = 'user42' AND is_favorite = true",
+                "idx_chat_sessions_user_favorite");
+    }
+
+    @Test
+    void findByIdAndUserId_usesPrimaryKey() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_sessions WHERE id = 42 AND user_id = 'user42'",
+                "chat_sessions_pkey");
+    }
+
+    @Test
+    void findByChatSessionOrderByCreatedAtAsc_usesSessionCreatedIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_messages WHERE chat_session_id = 42 ORDER BY created_at ASC",
+                "idx_chat_messages_session_created");
+    }
+
+    @Test
+    void keysetPageAfter_usesSessionCreatedIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_messages WHERE chat_session_id = 42 " +
+                        "AND (created_at > now() - interval '1 day' OR (created_at = now() - interval '1 day' AND id > 100)) " +
+                        "ORDER BY created_at ASC, id ASC LIMIT 21",
+                "idx_chat_messages_session_created");
+    }
+
+    @Test
+    void findLatestByChatSession_usesBackwardScan() throws Exception {
+        String plan = assertUsesIndex("SELECT * FROM chat_messages WHERE chat_session_id = 42 ORDER BY created_at DESC LIMIT 10",
+                "idx_chat_messages_session_created");
+        assertTrue(plan.contains("Backward"), plan);
+    }
+
+    @Test
+    void countByChatSession_usesSessionCreatedIndex() throws Exception {
+        assertUsesIndex("SELECT count(*) FROM chat_messages WHERE chat_session_id = 42",
+                "idx_chat_messages_session_created");
+    }
+
+    @Test
+    void keysetPageAfter_prunesEarlierMonths() throws Exception {
+        String plan = explain("SELECT * FROM chat_messages WHERE chat_session_id = 42 " +
+                "AND (created_at > date_trunc('month', now()) OR (created_at = date_trunc('month', now()) AND id > 100)) " +
+                "ORDER BY created_at ASC, id ASC LIMIT 21");
+        assertFalse(plan.contains(partitionName(-1)), "previous month not pruned:\n" + plan);
+        assertTrue(plan.contains(partitionName(0)), plan);
+    }
+
+    @Test
+    void findLatestByChatSession_readsOnlyTheNewestRowsOfEachMonth() throws Exception {
+        String plan = explain("SELECT * FROM chat_messages WHERE chat_session_id = 42 ORDER BY created_at DESC, id DESC LIMIT 10");
+        // The default partition rules out an ordered Append; merging each month's index still stops at the LIMIT
+        assertTrue(plan.contains("Merge Append"), plan);
+        assertTrue(plan.contains("Index Scan Backward"), plan);
+        assertFalse(plan.contains("Seq Scan on " + partitionName(0)), plan);
+    }
+
+    @Test
+    void newPartition_keepsContentStorageAndIndexes() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SELECT chat_messages_create_partition((now() + interval '60 months')::date)");
+            try (ResultSet rs = statement.executeQuery("SELECT a.attstorage, " +
+                    "(SELECT count(*) FROM pg_index WHERE indrelid = a.attrelid) FROM pg_attribute a " +
+                    "WHERE a.attrelid = '" + partitionName(60) + "'::regclass AND a.attname = 'content'")) {
+                assertTrue(rs.next());
+                assertEquals("x", rs.getString(1), "STORAGE EXTENDED from the parent");
+                assertEquals(5, rs.getInt(2), "primary key and the four indexes of the parent");
+            } finally {
+                // Leave the other plans alone
+                statement.execute("ALTER TABLE chat_messages DETACH PARTITION " + partitionName(60));
+                statement.execute("SELECT chat_messages_drop_partition('" + partitionName(60) + "')");
+            }
+        }
+    }
+
+    @Test
+    void findByChatSessionAndSenderType_usesSessionSenderIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_messages WHERE chat_session_id = 42 AND sender_type = 'USER' ORDER BY created_at ASC",
+                "idx_chat_messages_session_sender");
+    }
+
+    @Test
+    void searchByUserId_usesFullTextIndex() throws Exception {
+        assertUsesIndex("SELECT id FROM chat_messages " +
+                        "WHERE chat_message_content_vector(content) @@ websearch_to_tsquery('english', '4242')",
+                "idx_chat_messages_search");
+    }
+
+    @Test
+    void searchByUserId_usesContextFullTextIndex() throws Exception {
+        assertUsesIndex("SELECT hash FROM message_contexts " +
+                        "WHERE message_context_search_vector(body) @@ websearch_to_tsquery('english', '1234')",
+                "idx_message_contexts_search");
+    }
+
+    @Test
+    void messagesOfAContext_useContextHashIndex() throws Exception {
+        assertUsesIndex("SELECT id FROM chat_messages WHERE context_hash = sha256(convert_to('context 1234', 'UTF8'))",
+                "idx_chat_messages_context_hash");
+    }
+
+    @Test
+    void searchByNameSimilarity_usesTrigramIndex() throws Exception {
+        assertUsesIndex("SELECT id FROM chat_sessions " +
+                        "WHERE user_id = 'heavy' AND deleted_at IS NULL AND 'roadmpa 4242' <% lower(name) " +
+                        "ORDER BY 'roadmpa 4242' <<-> lower(name), id LIMIT 21",
+                "idx_chat_sessions_user_name_trgm");
+    }
+
+    @Test
+    void searchByNamePrefix_usesPrefixIndex() throws Exception {
+        assertUsesIndex("SELECT id FROM chat_sessions " +
+                        "WHERE user_id = 'heavy' AND deleted_at IS NULL " +
+                        "AND lower(name) COLLATE \"C\" >= 'launch 1' AND lower(name) COLLATE \"C\" < 'launch 1' || chr(1114111) " +
+                        "AND (lower(name) COLLATE \"C\", id) > ('launch 1234', 1234) " +
+                        "ORDER BY lower(name) COLLATE \"C\", id LIMIT 21",
+                "idx_chat_sessions_user_name_prefix");
+    }
+
+    @Test
+    void findByUserIdAndNameContaining_usesTrigramIndex() throws Exception {
+        assertUsesIndex("SELECT * FROM chat_sessions WHERE user_id = 'heavy' AND deleted_at IS NULL " +
+                        "AND lower(name) LIKE '%roadmap 424%' ORDER BY updated_at DESC",
+                "idx_chat_sessions_user_name_trgm");
+    }
+
+    /**
+     * Assert the plan uses the index, or for an index on chat_messages, its copy on some partition
+     */
+    private String assertUsesIndex(String sql, String indexName) throws Exception {
+        String plan = explain(sql);
+        List<String> names = new ArrayList<>(List.of(indexName));
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT inhrelid::regclass::text FROM pg_inherits WHERE inhparent = ?::regclass")) {
+            statement.setString(1, indexName);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        assertTrue(names.stream().anyMatch(plan::contains), "Expected " + indexName + " in plan:\n" + plan);
+        // The default partition is empty, and scanning an empty table is cheapest without an index
+        assertFalse(plan.replace("Seq Scan on chat_messages_default", "").contains("Seq Scan"),
+                "Unexpected sequential scan in plan:\n" + plan);
+        return plan;
+    }
+
+    /**
+     * Name of the partition for the month the given number of months from now
+     */
+    private String partitionName(int months) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT chat_messages_partition_name((now() + interval '" + months + " months')::date)")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private String explain(String sql) throws Exception {
+        StringBuilder plan = new StringBuilder();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the single-message append path with the batch path on a real Postgres.
+ * Timings are logged for comparison; assertions are on statement counts, which are deterministic.
+ */
+class ChatMessageBatchThroughputTest extends AbstractPostgresIntegrationTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageBatchThroughputTest.class);
+
+    private static final int MESSAGES = 500;
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Test
+    void addMessages_preservesOrderAndAssignsIds() {
+        Long sessionId = chatSessionService.createChatSession("batch-order", new CreateChatSessionRequest("Order")).getId();
+
+        List<ChatMessageDto> saved = chatMessageService.addMessages("batch-order", sessionId, requests(3));
+        List<ChatMessageDto> stored = chatMessageService.getMessagesBySessionId("batch-order", sessionId, false);
+
+        assertEquals(3, stored.size());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(saved.get(i).getId());
+            assertEquals(saved.get(i).getId(), stored.get(i).getId());
+            assertEquals("turn " + i, stored.get(i).getContent());
+        }
+    }
+
+    @Test
+    void batchPath_issuesFarFewerStatementsThanSinglePath() {
+        Long singleSession = chatSessionService.createChatSession("throughput", new CreateChatSessionRequest("Single")).getId();
+        Long batchSession = chatSessionService.createChatSession("throughput", new CreateChatSessionRequest("Batch")).getId();
+        List<AddMessageRequest> requests = requests(MESSAGES);
+
+        // Warm up connection pool, statement cache and JIT on both paths
+        chatMessageService.addMessage("throughput", singleSession, requests.get(0));
+        chatMessageService.addMessages("throughput", batchSession, requests.subList(0, BATCH_SIZE));
+
+        Statistics statistics = statistics();
+
+        statistics.clear();
+        long start = System.nanoTime();
+        for (AddMessageRequest request : requests) {
+            chatMessageService.addMessage("throughput", singleSession, request);
+        }
+        long singleNanos = System.nanoTime() - start;
+        long singleStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i += BATCH_SIZE) {
+            chatMessageService.addMessages("throughput", batchSession, requests.subList(i, i + BATCH_SIZE));
+        }
+        long batchNanos = System.nanoTime() - start;
+        long batchStatements = statistics.getPrepareStatementCount();
+        long batchInserts = statistics.getEntityInsertCount();
+
+        logger.info("Single path: {} messages in {} ms ({} msg/s, {} statements)",
+                MESSAGES, singleNanos / 1_000_000, throughput(singleNanos), singleStatements);
+        logger.info("Batch path:  {} messages in {} ms ({} msg/s, {} statements, batch size {})",
+                MESSAGES, batchNanos / 1_000_000, throughput(batchNanos), batchStatements, BATCH_SIZE);
+
+        assertEquals(MESSAGES, batchInserts);
+        assertTrue(batchStatements * 10 < singleStatements,
+                "Expected batch path to use <10% of single-path statements: " + batchStatements + " vs " + singleStatements);
+    }
+
+    private static List<AddMessageRequest> requests(int count) {
+        List<AddMessageRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ChatMessage.SenderType sender = i % 2 == 0 ? ChatMessage.SenderType.USER : ChatMessage.SenderType.ASSISTANT;
+            requests.add(new AddMessageRequest(sender, "turn " + i));
+        }
+        return requests;
+    }
+
+    private static long throughput(long nanos) {
+        return MESSAGES * 1_000_000_000L / Math.max(nanos, 1);
+    }
+}
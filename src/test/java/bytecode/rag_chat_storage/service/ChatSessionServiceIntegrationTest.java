@@ -0,0 +1,151 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.ChatSessionDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatSessionServiceIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void getChatSession_returnsTailWindowAndCursorToOlderHistory() {
+        Long sessionId = createSessionWithMessages("detail-window", 60);
+
+        ChatSessionDto detail = chatSessionService.getChatSession("detail-window", sessionId, false);
+
+        assertEquals(50, detail.getMessages().size());
+        assertEquals("turn 10", detail.getMessages().get(0).getContent());
+        assertEquals("turn 59", detail.getMessages().get(49).getContent());
+        assertNotNull(detail.getOlderMessagesCursor());
+
+        CursorPageDto<ChatMessageDto> older = chatMessageService.getMessagesBySessionId(
+                "detail-window", sessionId, detail.getOlderMessagesCursor(), 100, false);
+
+        assertEquals(10, older.getContent().size());
+        assertEquals("turn 0", older.getContent().get(0).getContent());
+        assertEquals("turn 9", older.getContent().get(9).getContent());
+        assertFalse(older.isHasPrevious());
+        assertTrue(older.isHasNext());
+    }
+
+    @Test
+    void getChatSession_shortSessionHasNoOlderCursor() {
+        Long sessionId = createSessionWithMessages("detail-short", 3);
+
+        ChatSessionDto detail = chatSessionService.getChatSession("detail-short", sessionId, false);
+
+        assertEquals(3, detail.getMessages().size());
+        assertNull(detail.getOlderMessagesCursor());
+    }
+
+    @Test
+    void streamMessages_deliversFullHistoryInOrder() {
+        Long sessionId = createSessionWithMessages("stream-history", 120);
+
+        List<ChatMessageDto> streamed = new ArrayList<>();
+        chatMessageService.streamMessages("stream-history", sessionId, false, streamed::add);
+
+        assertEquals(120, streamed.size());
+        for (int i = 0; i < 120; i++) {
+            assertEquals("turn " + i, streamed.get(i).getContent());
+        }
+    }
+
+    @Test
+    void streamMessages_rejectsOtherUsersSession() {
+        Long sessionId = createSessionWithMessages("stream-owner", 1);
+
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.verifySessionAccess("stream-intruder", sessionId)
+        );
+    }
+
+    @Test
+    void streamAllMessages_groupsBySessionInConversationOrder() {
+        Long first = createSessionWithMessages("export-all", 30);
+        Long second = createSessionWithMessages("export-all", 20);
+        createSessionWithMessages("export-all-bystander", 5);
+
+        List<ChatMessageDto> streamed = new ArrayList<>();
+        chatMessageService.streamAllMessages("export-all", null, false, streamed::add);
+
+        assertEquals(50, streamed.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(first, streamed.get(i).getChatSessionId());
+            assertEquals("turn " + i, streamed.get(i).getContent());
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(second, streamed.get(30 + i).getChatSessionId());
+            assertEquals("turn " + i, streamed.get(30 + i).getContent());
+        }
+    }
+
+    @Test
+    void streamAllMessages_updatedSinceSkipsUntouchedSessions() {
+        Long stale = createSessionWithMessages("export-since", 3);
+        Long fresh = createSessionWithMessages("export-since", 2);
+        jdbcTemplate.update("UPDATE chat_sessions SET updated_at = ? WHERE id = ?", LocalDateTime.now().minusDays(2), stale);
+
+        List<ChatMessageDto> streamed = new ArrayList<>();
+        chatMessageService.streamAllMessages("export-since", LocalDateTime.now().minusDays(1), false, streamed::add);
+
+        assertEquals(2, streamed.size());
+        assertTrue(streamed.stream().allMatch(message -> fresh.equals(message.getChatSessionId())));
+    }
+
+    @Test
+    void getLatestMessages_servedFromTailAndKeptCurrentByWrites() {
+        Long sessionId = createSessionWithMessages("tail-cache", 80);
+
+        assertEquals("turn 79", chatMessageService.getLatestMessages("tail-cache", sessionId, 5, false).get(0).getContent());
+
+        statistics().clear();
+        List<ChatMessageDto> latest = chatMessageService.getLatestMessages("tail-cache", sessionId, 20, false);
+        assertEquals(0, statistics().getPrepareStatementCount());
+        assertEquals(20, latest.size());
+        assertEquals("turn 60", latest.get(19).getContent());
+
+        ChatMessageDto added = chatMessageService.addMessage("tail-cache", sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "fresh"));
+        statistics().clear();
+        assertEquals("fresh", chatMessageService.getLatestMessages("tail-cache", sessionId, 1, false).get(0).getContent());
+        assertEquals(0, statistics().getPrepareStatementCount());
+
+        chatMessageService.deleteMessage("tail-cache", sessionId, added.getId());
+        assertEquals("turn 79", chatMessageService.getLatestMessages("tail-cache", sessionId, 1, false).get(0).getContent());
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.getLatestMessages("tail-intruder", sessionId, 1, false));
+    }
+
+    private Long createSessionWithMessages(String userId, int count) {
+        Long sessionId = chatSessionService.createChatSession(userId, new CreateChatSessionRequest("Session")).getId();
+        List<AddMessageRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(new AddMessageRequest(ChatMessage.SenderType.USER, "turn " + i));
+        }
+        chatMessageService.addMessages(userId, sessionId, requests);
+        return sessionId;
+    }
+}
@@ -3,11 +3,16 @@ package bytecode.rag_chat_storage.service;
 
 import bytecode.rag_chat_storage.dto.AddMessageRequest;
 import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.dto.MessageCursor;
 import bytecode.rag_chat_storage.entity.ChatMessage;
 import bytecode.rag_chat_storage.entity.ChatSession;
+import bytecode.rag_chat_storage.exception.InvalidCursorException;
 import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
 import bytecode.rag_chat_storage.repository.ChatMessageRepository;
 import bytecode.rag_chat_storage.repository.ChatSessionRepository;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import bytecode.rag_chat_storage.writebehind.MessageWriteBehind;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -17,6 +22,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,6 +41,24 @@ class ChatSessionServiceTest {
     @Mock
     private ChatSessionRepository chatSessionRepository;
 
+    @Mock
+    private SessionOwnershipVerifier sessionOwnershipVerifier;
+
+    @Mock
+    private MessageTailCache messageTailCache;
+
+    @Mock
+    private MessagePayloadMetrics messagePayloadMetrics;
+
+    @Mock
+    private MessageWriteBehind messageWriteBehind;
+
+    @Mock
+    private MessageEventHub messageEventHub;
+
+    @Mock
+    private MessageContextRepository messageContextRepository;
+
     private ChatSession session;
     private ChatMessage message;
 
@@ -59,15 +83,16 @@ class ChatSessionServiceTest {
         request.setSenderType(ChatMessage.SenderType.USER);
         request.setContent("Hello");
 
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1"))
-                .thenReturn(Optional.of(session));
-        when(chatMessageRepository.save(any(ChatMessage.class))).thenReturn(message);
+        when(chatSessionRepository.getReferenceById(1L)).thenReturn(session);
+        when(chatMessageRepository.saveAndFlush(any(ChatMessage.class))).thenReturn(message);
 
         ChatMessageDto result = chatMessageService.addMessage("user1", 1L, request);
 
         assertNotNull(result);
         assertEquals("Hello", result.getContent());
-        verify(chatMessageRepository, times(1)).save(any(ChatMessage.class));
+        verify(sessionOwnershipVerifier).verify("user1", 1L);
+        verify(chatSessionRepository, never()).findByIdAndUserId(any(), any());
+        verify(chatMessageRepository, times(1)).saveAndFlush(any(ChatMessage.class));
     }
 
     @Test
@@ -76,77 +101,128 @@ class ChatSessionServiceTest {
         request.setSenderType(ChatMessage.SenderType.USER);
         request.setContent("Hello");
 
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.empty());
+        doThrow(new ResourceNotFoundException("Chat session not found with id: 1"))
+                .when(sessionOwnershipVerifier).verify("user1", 1L);
 
         assertThrows(ResourceNotFoundException.class, () ->
                 chatMessageService.addMessage("user1", 1L, request)
         );
+        verify(chatMessageRepository, never()).saveAndFlush(any(ChatMessage.class));
     }
 
     @Test
     void getMessagesBySessionId_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1"))
-                .thenReturn(Optional.of(session));
-        when(chatMessageRepository.findByChatSessionOrderByCreatedAtAsc(session))
-                .thenReturn(List.of(message));
+        when(chatMessageRepository.findByChatSessionIdAndUserId(1L, "user1"))
+                .thenReturn(List.of(new ChatMessageDto(message)));
 
-        List<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId("user1", 1L);
+        List<ChatMessageDto> messages = chatMessageService.getMessagesBySessionId("user1", 1L, false);
 
         assertEquals(1, messages.size());
         assertEquals("Hello", messages.get(0).getContent());
+        // Ownership is checked by the join; no separate session lookup
+        verifyNoInteractions(chatSessionRepository, sessionOwnershipVerifier);
+    }
+
+    @Test
+    void getMessagesBySessionId_emptyResultChecksOwnership() {
+        when(chatMessageRepository.findByChatSessionIdAndUserId(1L, "user1")).thenReturn(List.of());
+        doThrow(new ResourceNotFoundException("Chat session not found with id: 1"))
+                .when(sessionOwnershipVerifier).verify("user1", 1L);
+
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.getMessagesBySessionId("user1", 1L, false)
+        );
     }
 
     @Test
     void getMessagesBySessionId_paginated() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        Page<ChatMessage> page = new PageImpl<>(List.of(message));
-        when(chatMessageRepository.findByChatSessionOrderByCreatedAtAsc(eq(session), any(Pageable.class)))
+        Page<ChatMessageDto> page = new PageImpl<>(List.of(new ChatMessageDto(message)));
+        when(chatMessageRepository.findByChatSessionIdAndUserId(eq(1L), eq("user1"), any(Pageable.class)))
                 .thenReturn(page);
 
-        Page<ChatMessageDto> result = chatMessageService.getMessagesBySessionId("user1", 1L, 0, 10);
+        Page<ChatMessageDto> result = chatMessageService.getMessagesBySessionId("user1", 1L, 0, 10, false);
 
         assertEquals(1, result.getContent().size());
         assertEquals("Hello", result.getContent().get(0).getContent());
     }
 
+    @Test
+    void getMessagesBySessionId_cursorFirstPage() {
+        ChatMessage second = new ChatMessage(session, ChatMessage.SenderType.ASSISTANT, "Hi");
+        second.setId(2L);
+        second.setCreatedAt(LocalDateTime.of(2024, 1, 15, 10, 31));
+        message.setCreatedAt(LocalDateTime.of(2024, 1, 15, 10, 30));
+
+        when(chatMessageRepository.findFirstPage(eq(1L), eq("user1"), any(Pageable.class)))
+                .thenReturn(List.of(new ChatMessageDto(message), new ChatMessageDto(second)));
+
+        CursorPageDto<ChatMessageDto> result = chatMessageService.getMessagesBySessionId("user1", 1L, null, 1, false);
+
+        assertEquals(1, result.getContent().size());
+        assertEquals(1L, result.getContent().get(0).getId());
+        assertTrue(result.isHasNext());
+        assertFalse(result.isHasPrevious());
+
+        MessageCursor next = MessageCursor.decode(result.getNextCursor());
+        assertEquals(MessageCursor.Direction.AFTER, next.getDirection());
+        assertEquals(1L, next.getId());
+        verify(chatMessageRepository, never()).countByChatSessionIdAndUserId(any(), any());
+    }
+
+    @Test
+    void getMessagesBySessionId_cursorBackwards() {
+        message.setCreatedAt(LocalDateTime.of(2024, 1, 15, 10, 30));
+        String cursor = new MessageCursor(MessageCursor.Direction.BEFORE, LocalDateTime.of(2024, 1, 15, 10, 31), 2L).encode();
+
+        when(chatMessageRepository.findPageBefore(eq(1L), eq("user1"), eq(LocalDateTime.of(2024, 1, 15, 10, 31)), eq(2L), any(Pageable.class)))
+                .thenReturn(List.of(new ChatMessageDto(message)));
+
+        CursorPageDto<ChatMessageDto> result = chatMessageService.getMessagesBySessionId("user1", 1L, cursor, 10, false);
+
+        assertEquals(1, result.getContent().size());
+        assertTrue(result.isHasNext());
+        assertFalse(result.isHasPrevious());
+    }
+
+    @Test
+    void getMessagesBySessionId_invalidCursor() {
+        assertThrows(InvalidCursorException.class, () ->
+                chatMessageService.getMessagesBySessionId("user1", 1L, "not-a-cursor", 10, false)
+        );
+    }
+
     @Test
     void getMessage_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.findById(1L)).thenReturn(Optional.of(message));
+        when(chatMessageRepository.findByIdAndChatSessionIdAndUserId(1L, 1L, "user1")).thenReturn(Optional.of(new ChatMessageDto(message)));
 
-        ChatMessageDto result = chatMessageService.getMessage("user1", 1L, 1L);
+        ChatMessageDto result = chatMessageService.getMessage("user1", 1L, 1L, false);
 
         assertEquals("Hello", result.getContent());
     }
 
     @Test
     void getMessage_messageNotInSession() {
-        ChatSession otherSession = new ChatSession();
-        otherSession.setId(2L);
-        message.setChatSession(otherSession);
-
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.findById(1L)).thenReturn(Optional.of(message));
+        // Message 1 lives in another session, so the scoped lookup matches nothing
+        when(chatMessageRepository.findByIdAndChatSessionIdAndUserId(1L, 1L, "user1")).thenReturn(Optional.empty());
 
         assertThrows(ResourceNotFoundException.class, () ->
-                chatMessageService.getMessage("user1", 1L, 1L)
+                chatMessageService.getMessage("user1", 1L, 1L, false)
         );
     }
 
     @Test
     void deleteMessage_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.findById(1L)).thenReturn(Optional.of(message));
+        when(chatMessageRepository.deleteByIdAndChatSessionIdAndUserId(1L, 1L, "user1")).thenReturn(1);
 
         chatMessageService.deleteMessage("user1", 1L, 1L);
 
-        verify(chatMessageRepository, times(1)).delete(message);
+        verify(chatMessageRepository, times(1)).deleteByIdAndChatSessionIdAndUserId(1L, 1L, "user1");
+        verify(chatMessageRepository, never()).findById(any());
     }
 
     @Test
     void getMessageCount_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.countByChatSession(session)).thenReturn(5L);
+        when(chatMessageRepository.countByChatSessionIdAndUserId(1L, "user1")).thenReturn(5L);
 
         long count = chatMessageService.getMessageCount("user1", 1L);
 
@@ -155,22 +231,30 @@ class ChatSessionServiceTest {
 
     @Test
     void getLatestMessages_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.findLatestByChatSession(eq(session), any(Pageable.class)))
-                .thenReturn(List.of(message));
+        when(chatMessageRepository.findLatestByChatSessionIdAndUserId(eq(1L), eq("user1"), any(Pageable.class)))
+                .thenReturn(List.of(new ChatMessageDto(message)));
+
+        List<ChatMessageDto> messages = chatMessageService.getLatestMessages("user1", 1L, 10, false);
+
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    void getLatestMessages_servedFromTailCache() {
+        when(messageTailCache.latest(1L, "user1", 10)).thenReturn(Optional.of(List.of(new ChatMessageDto(message))));
 
-        List<ChatMessageDto> messages = chatMessageService.getLatestMessages("user1", 1L, 10);
+        List<ChatMessageDto> messages = chatMessageService.getLatestMessages("user1", 1L, 10, false);
 
         assertEquals(1, messages.size());
+        verifyNoInteractions(chatMessageRepository, sessionOwnershipVerifier);
     }
 
     @Test
     void getMessagesBySenderType_success() {
-        when(chatSessionRepository.findByIdAndUserId(1L, "user1")).thenReturn(Optional.of(session));
-        when(chatMessageRepository.findByChatSessionAndSenderTypeOrderByCreatedAtAsc(session, ChatMessage.SenderType.USER))
-                .thenReturn(List.of(message));
+        when(chatMessageRepository.findByChatSessionIdAndUserIdAndSenderType(1L, "user1", ChatMessage.SenderType.USER))
+                .thenReturn(List.of(new ChatMessageDto(message)));
 
-        List<ChatMessageDto> messages = chatMessageService.getMessagesBySenderType("user1", 1L, ChatMessage.SenderType.USER);
+        List<ChatMessageDto> messages = chatMessageService.getMessagesBySenderType("user1", 1L, ChatMessage.SenderType.USER, false);
 
         assertEquals(1, messages.size());
     }
@@ -0,0 +1,61 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCompressionIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    private static final String SENTENCE = "The quarterly budget forecast assumes steady hiring and a launch in spring. ";
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void longTextIsStoredCompressed() {
+        String content = SENTENCE.repeat(60);
+        ChatMessageDto message = addMessage("compress-long", content, content);
+
+        Map<String, Object> sizes = jdbcTemplate.queryForMap(
+                "SELECT pg_column_size(cm.content) AS content_stored, octet_length(cm.content) AS content_raw, " +
+                "pg_column_size(mc.body) AS body_stored, octet_length(mc.body) AS body_raw " +
+                "FROM chat_messages cm JOIN message_contexts mc ON mc.hash = cm.context_hash WHERE cm.id = ?",
+                message.getId());
+
+        assertTrue(((Number) sizes.get("content_stored")).intValue() < ((Number) sizes.get("content_raw")).intValue() / 2, sizes.toString());
+        assertTrue(((Number) sizes.get("body_stored")).intValue() < ((Number) sizes.get("body_raw")).intValue() / 2, sizes.toString());
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT count(*) FROM pg_attribute " +
+                "WHERE attstorage = 'x' AND ((attrelid = 'chat_messages'::regclass AND attname = 'content') " +
+                "OR (attrelid = 'message_contexts'::regclass AND attname = 'body'))", Integer.class));
+    }
+
+    @Test
+    void compressedTextReadsBackAndStaysSearchable() {
+        String content = SENTENCE.repeat(600) + "zeppelin";
+        ChatMessageDto message = addMessage("compress-large", content, null);
+
+        assertEquals(content, chatMessageService.getMessage("compress-large", message.getChatSessionId(), message.getId(), false).getContent());
+        assertEquals(1, chatMessageService.searchMessages("compress-large", "zeppelin", 0, 10).getNumberOfElements());
+    }
+
+    private ChatMessageDto addMessage(String userId, String content, String context) {
+        Long sessionId = chatSessionService.createChatSession(userId, new CreateChatSessionRequest("Compression")).getId();
+        return chatMessageService.addMessage(userId, sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, content, context));
+    }
+}
@@ -0,0 +1,98 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageContextIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private MessageContextRepository messageContextRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void identicalContextsAreStoredOnceAndCounted() {
+        String shared = "ctx-dedup: retrieved passage shared by every turn";
+        Long first = createSession("ctx-dedup");
+        Long second = createSession("ctx-dedup");
+
+        chatMessageService.addMessages("ctx-dedup", first, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "one", shared),
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "two", shared)));
+        chatMessageService.addMessage("ctx-dedup", second, new AddMessageRequest(ChatMessage.SenderType.USER, "three", shared));
+
+        assertEquals(3L, refCount(shared));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT count(*) FROM message_contexts WHERE hash = ?",
+                Integer.class, (Object) MessageContextRepository.hash(shared)));
+    }
+
+    @Test
+    void contextIsReturnedOnlyWhenRequested() {
+        Long sessionId = createSession("ctx-lazy");
+        ChatMessageDto added = chatMessageService.addMessage("ctx-lazy", sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "answer", "ctx-lazy: retrieved passage"));
+
+        assertEquals("ctx-lazy: retrieved passage", added.getContext());
+        assertNull(chatMessageService.getMessagesBySessionId("ctx-lazy", sessionId, false).get(0).getContext());
+        assertNull(chatMessageService.getMessage("ctx-lazy", sessionId, added.getId(), false).getContext());
+        assertEquals("ctx-lazy: retrieved passage",
+                chatMessageService.getMessagesBySessionId("ctx-lazy", sessionId, true).get(0).getContext());
+        assertEquals("ctx-lazy: retrieved passage",
+                chatMessageService.getMessage("ctx-lazy", sessionId, added.getId(), true).getContext());
+    }
+
+    @Test
+    void releasedContextIsDeletedOnlyAfterTheGracePeriod() {
+        String released = "ctx-gc: context whose messages are gone";
+        String reclaimed = "ctx-gc: context referenced again before the cleanup";
+        Long sessionId = createSession("ctx-gc");
+        List<ChatMessageDto> added = chatMessageService.addMessages("ctx-gc", sessionId, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "one", released),
+                new AddMessageRequest(ChatMessage.SenderType.USER, "two", reclaimed)));
+
+        added.forEach(message -> chatMessageService.deleteMessage("ctx-gc", sessionId, message.getId()));
+        assertEquals(0L, refCount(released));
+        assertEquals(0L, refCount(reclaimed));
+
+        messageContextRepository.deleteReleased();
+        assertNotNull(refCount(released), "still within the grace period");
+
+        jdbcTemplate.update("UPDATE message_contexts SET released_at = now() - interval '1 day' WHERE hash = ANY (?)",
+                statement -> statement.setArray(1, statement.getConnection().createArrayOf("bytea",
+                        new byte[][] {MessageContextRepository.hash(released), MessageContextRepository.hash(reclaimed)})));
+        chatMessageService.addMessage("ctx-gc", sessionId, new AddMessageRequest(ChatMessage.SenderType.USER, "three", reclaimed));
+        messageContextRepository.deleteReleased();
+
+        assertNull(refCount(released));
+        assertEquals(1L, refCount(reclaimed));
+        assertEquals(reclaimed, chatMessageService.getLatestMessages("ctx-gc", sessionId, 1, true).get(0).getContext());
+    }
+
+    private Long refCount(String context) {
+        List<Long> counts = jdbcTemplate.queryForList("SELECT ref_count FROM message_contexts WHERE hash = ?",
+                Long.class, (Object) MessageContextRepository.hash(context));
+        return counts.isEmpty() ? null : counts.get(0);
+    }
+
+    private Long createSession(String userId) {
+        return chatSessionService.createChatSession(userId, new CreateChatSessionRequest("Session")).getId();
+    }
+}
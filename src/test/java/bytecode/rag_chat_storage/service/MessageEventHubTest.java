@@ -0,0 +1,158 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageEventHubTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private MessageEventHub hub = new MessageEventHub(256, Duration.ofMinutes(1));
+
+    @AfterEach
+    void shutdown() {
+        hub.shutdown();
+    }
+
+    @Test
+    void publishedMessagesReachSubscribersOfTheirSessionOnly() throws Exception {
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter other = new RecordingEmitter();
+        hub.subscribe(1L, first, false).start(List.of());
+        hub.subscribe(2L, other, false).start(List.of());
+
+        hub.publishAfterCommit(1L, List.of(message(1), message(2)));
+
+        assertEquals("message #1", first.next());
+        assertEquals("message #2", first.next());
+        assertNull(other.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void replayedMessagesAreNotSentAgainWhenPublishedDuringCatchUp() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        MessageEventHub.Subscription subscription = hub.subscribe(1L, emitter, false);
+        hub.publish(1L, List.of(message(2), message(3)));
+
+        subscription.start(List.of(message(1), message(2)));
+
+        assertEquals("message #1", emitter.next());
+        assertEquals("message #2", emitter.next());
+        assertEquals("message #3", emitter.next());
+        assertNull(emitter.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void slowSubscriberIsToldToResyncWithoutHoldingUpPublishers() throws Exception {
+        hub.shutdown();
+        hub = new MessageEventHub(2, Duration.ofMinutes(1));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        hub.registerMetrics(meterRegistry);
+        CountDownLatch stalled = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(stalled);
+        hub.subscribe(1L, slow, false).start(List.of());
+
+        long started = System.nanoTime();
+        for (int id = 1; id <= 100; id++) {
+            hub.publish(1L, List.of(message(id)));
+        }
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1), "publishing waited on the stalled client");
+        stalled.countDown();
+
+        String event;
+        while ((event = slow.next()).startsWith("message")) {
+            // whatever was in flight before the buffer overflowed
+        }
+        assertEquals("overflow", event);
+        assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, meterRegistry.get("chat.message.stream.subscribers").gauge().value());
+    }
+
+    @Test
+    void idleSubscribersGetHeartbeats() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hub.subscribe(1L, emitter, false).start(List.of());
+
+        hub.sendHeartbeats();
+
+        assertEquals("heartbeat", emitter.next());
+    }
+
+    private static ChatMessageDto message(long id) {
+        ChatMessageDto message = new ChatMessageDto();
+        message.setId(id);
+        message.setChatSessionId(1L);
+        message.setSenderType(ChatMessage.SenderType.USER);
+        message.setContent("turn " + id);
+        message.setCreatedAt(T0.plusSeconds(id));
+        return message;
+    }
+
+    /**
+     * Records each event as "message #id", "overflow" or "heartbeat" instead of writing to a response
+     */
+    private static class RecordingEmitter extends SseEmitter {
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        private final CountDownLatch gate;
+
+        RecordingEmitter() {
+            this(new CountDownLatch(0));
+        }
+
+        RecordingEmitter(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            StringBuilder text = new StringBuilder();
+            ChatMessageDto message = null;
+            for (DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof ChatMessageDto dto) {
+                    message = dto;
+                } else {
+                    text.append(part.getData());
+                }
+            }
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (message != null) {
+                events.add("message #" + message.getId());
+            } else if (text.toString().contains("event:" + MessageEventHub.OVERFLOW_EVENT)) {
+                events.add("overflow");
+            } else {
+                events.add("heartbeat");
+            }
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed.countDown();
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event, "no event delivered");
+            return event;
+        }
+    }
+}
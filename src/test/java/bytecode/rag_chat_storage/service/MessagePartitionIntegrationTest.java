@@ -0,0 +1,156 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Expired months are placed decades back, so dropping them never touches what other tests wrote
+ */
+class MessagePartitionIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private MessagePartitionService messagePartitionService;
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void upcomingMonthsAlreadyExist() {
+        assertEquals(0, messagePartitionService.createPartitions(LocalDate.now(), 2));
+        assertTrue(exists(LocalDate.now().plusMonths(2)));
+    }
+
+    @Test
+    void expiredMonthIsDroppedAndItsContextsReleased() {
+        String context = "partition-retention: passage quoted in two months";
+        LocalDate expired = LocalDate.of(2001, 1, 1);
+        LocalDate kept = expired.plusMonths(1);
+        assertEquals(2, messagePartitionService.createPartitions(expired, 1));
+        Long sessionId = chatSessionService.createChatSession("partition-retention", new CreateChatSessionRequest("Old")).getId();
+        List<ChatMessageDto> added = chatMessageService.addMessages("partition-retention", sessionId, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "expired", context),
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "kept", context)));
+        // Rows move between partitions on update, without touching the reference counts
+        jdbcTemplate.update("UPDATE chat_messages SET created_at = ? WHERE id = ?", expired.atTime(12, 0), added.get(0).getId());
+        jdbcTemplate.update("UPDATE chat_messages SET created_at = ? WHERE id = ?", kept.atTime(12, 0), added.get(1).getId());
+        assertEquals(2L, refCount(context));
+        assertEquals(2, chatMessageService.getLatestMessages("partition-retention", sessionId, 5, false).size());
+
+        List<String> dropped = messagePartitionService.dropPartitionsBefore(kept);
+
+        assertTrue(dropped.contains("chat_messages_y2001m01"), dropped.toString());
+        assertFalse(exists(expired));
+        assertTrue(exists(kept));
+        assertEquals(1L, refCount(context));
+        assertEquals(List.of(added.get(1).getId()), chatMessageService.getMessagesBySessionId("partition-retention", sessionId, false)
+                .stream().map(ChatMessageDto::getId).toList());
+        assertEquals(List.of(added.get(1).getId()), chatMessageService.getLatestMessages("partition-retention", sessionId, 5, false)
+                .stream().map(ChatMessageDto::getId).toList(), "the cached tail must not outlive the partition");
+        assertFalse(messagePartitionService.dropPartitionsBefore(kept).contains("chat_messages_y2001m01"));
+    }
+
+    @Test
+    void detachBlockedByARunningQueryIsRetriedByTheNextRun() throws Exception {
+        LocalDate month = LocalDate.of(1998, 3, 1);
+        messagePartitionService.createPartitions(month, 0);
+
+        try (Connection reader = dataSource.getConnection(); Statement statement = reader.createStatement()) {
+            reader.setAutoCommit(false);
+            statement.execute("LOCK TABLE chat_messages IN ACCESS SHARE MODE");
+            DataAccessException timeout = assertThrows(DataAccessException.class,
+                    () -> messagePartitionService.dropPartitionsBefore(month.plusMonths(1)));
+            assertEquals("55P03", ((SQLException) timeout.getMostSpecificCause()).getSQLState(), "lock_not_available");
+            assertTrue(exists(month), "the detach was rolled back");
+            reader.rollback();
+        }
+
+        assertTrue(messagePartitionService.dropPartitionsBefore(month.plusMonths(1)).contains("chat_messages_y1998m03"));
+        assertFalse(exists(month));
+    }
+
+    @Test
+    void maintenanceRunCompletes() {
+        double completed = meterRegistry.get("chat.message.partitions.maintenance").tag("result", "completed").counter().count();
+
+        messagePartitionService.maintainPartitions();
+
+        assertEquals(completed + 1,
+                meterRegistry.get("chat.message.partitions.maintenance").tag("result", "completed").counter().count());
+    }
+
+    @Test
+    void messagesOfAMonthWithoutPartitionLandInTheDefaultOneUntilMaintenanceMovesThem() {
+        String context = "partition-default: passage quoted ahead of time";
+        LocalDate month = LocalDate.of(2090, 3, 1);
+        Long sessionId = chatSessionService.createChatSession("partition-default", new CreateChatSessionRequest("Ahead")).getId();
+        ChatMessageDto added = chatMessageService.addMessages("partition-default", sessionId, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "from the future", context))).get(0);
+        jdbcTemplate.update("UPDATE chat_messages SET created_at = ? WHERE id = ?", month.atTime(12, 0), added.getId());
+        assertFalse(exists(month));
+        assertEquals(1, inDefaultPartition(added.getId()));
+
+        assertEquals(1, messagePartitionService.createPartitionsForDefaultRows());
+
+        assertTrue(exists(month));
+        assertEquals(0, inDefaultPartition(added.getId()));
+        assertEquals(1L, refCount(context));
+        assertEquals(List.of(added.getId()), chatMessageService.getMessagesBySessionId("partition-default", sessionId, false)
+                .stream().map(ChatMessageDto::getId).toList());
+        assertEquals(0, messagePartitionService.createPartitionsForDefaultRows());
+    }
+
+    @Test
+    void partitionLeftDetachedByAnInterruptedRunIsDropped() {
+        LocalDate month = LocalDate.of(1999, 6, 1);
+        messagePartitionService.createPartitions(month, 0);
+        jdbcTemplate.execute("ALTER TABLE chat_messages DETACH PARTITION chat_messages_y1999m06");
+
+        assertTrue(messagePartitionService.dropPartitionsBefore(month.plusMonths(1)).contains("chat_messages_y1999m06"));
+        assertFalse(exists(month));
+    }
+
+    private boolean exists(LocalDate month) {
+        return jdbcTemplate.queryForObject("SELECT to_regclass(chat_messages_partition_name(?)) IS NOT NULL",
+                Boolean.class, month);
+    }
+
+    private int inDefaultPartition(Long messageId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM chat_messages_default WHERE id = ?", Integer.class, messageId);
+    }
+
+    private Long refCount(String context) {
+        List<Long> counts = jdbcTemplate.queryForList("SELECT ref_count FROM message_contexts WHERE hash = ?",
+                Long.class, (Object) MessageContextRepository.hash(context));
+        return counts.isEmpty() ? null : counts.get(0);
+    }
+}
@@ -0,0 +1,18 @@
+package bytecode.rag_chat_storage.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagePayloadMetricsTest {
+
+    @Test
+    void utf8LengthMatchesEncoding() {
+        for (String value : new String[]{"", "plain ascii", "héllo wörld", "价格预测", "emoji 🚀 and ✓"}) {
+            assertEquals(value.getBytes(StandardCharsets.UTF_8).length, MessagePayloadMetrics.utf8Length(value), value);
+        }
+        assertEquals(0, MessagePayloadMetrics.utf8Length(null));
+    }
+}
@@ -0,0 +1,100 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.MessageSearchResultDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageSearchIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Test
+    void searchMessages_ranksContentAboveContextAndHighlights() {
+        Long sessionId = createSession("search-rank", "Embeddings");
+        chatMessageService.addMessages("search-rank", sessionId, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "How do I tune the vector index?", "retrieved: kubernetes notes"),
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "Start with the defaults.", "retrieved: vector indexes explained"),
+                new AddMessageRequest(ChatMessage.SenderType.USER, "Unrelated question about lunch", null)));
+
+        Slice<MessageSearchResultDto> results = chatMessageService.searchMessages("search-rank", "vector", 0, 10);
+
+        assertEquals(2, results.getNumberOfElements());
+        MessageSearchResultDto best = results.getContent().get(0);
+        assertEquals(ChatMessage.SenderType.USER, best.getSenderType());
+        assertEquals("Embeddings", best.getSessionName());
+        assertEquals(sessionId, best.getChatSessionId());
+        assertNotNull(best.getCreatedAt());
+        assertTrue(best.getSnippet().contains("<mark>vector</mark>"), best.getSnippet());
+        assertTrue(best.getRank() > results.getContent().get(1).getRank());
+        assertTrue(results.getContent().get(1).getSnippet().contains("<mark>vector</mark>"), "context hits are snippeted too");
+    }
+
+    @Test
+    void searchMessages_matchesStemsAndPhrases() {
+        Long sessionId = createSession("search-stems", "Stems");
+        chatMessageService.addMessage("search-stems", sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.USER, "We were indexing documents all night"));
+
+        assertEquals(1, chatMessageService.searchMessages("search-stems", "indexes", 0, 10).getNumberOfElements());
+        assertEquals(1, chatMessageService.searchMessages("search-stems", "\"indexing documents\"", 0, 10).getNumberOfElements());
+        assertEquals(0, chatMessageService.searchMessages("search-stems", "\"documents indexing\"", 0, 10).getNumberOfElements());
+        assertEquals(0, chatMessageService.searchMessages("search-stems", "indexing -documents", 0, 10).getNumberOfElements());
+    }
+
+    @Test
+    void searchMessages_paginatesWithoutOverlap() {
+        Long sessionId = createSession("search-pages", "Pages");
+        List<AddMessageRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            requests.add(new AddMessageRequest(ChatMessage.SenderType.USER, "retrieval augmented generation step " + i));
+        }
+        chatMessageService.addMessages("search-pages", sessionId, requests);
+
+        Set<Long> seen = new HashSet<>();
+        Slice<MessageSearchResultDto> page = chatMessageService.searchMessages("search-pages", "retrieval", 0, 10);
+        int pages = 1;
+        page.forEach(result -> assertTrue(seen.add(result.getMessageId())));
+        while (page.hasNext()) {
+            page = chatMessageService.searchMessages("search-pages", "retrieval", page.getNumber() + 1, 10);
+            page.forEach(result -> assertTrue(seen.add(result.getMessageId())));
+            pages++;
+        }
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+    }
+
+    @Test
+    void searchMessages_isScopedToUserAndLiveSessions() {
+        Long mine = createSession("search-owner", "Mine");
+        chatMessageService.addMessage("search-owner", mine, new AddMessageRequest(ChatMessage.SenderType.USER, "quarterly forecast"));
+        Long theirs = createSession("search-other", "Theirs");
+        chatMessageService.addMessage("search-other", theirs, new AddMessageRequest(ChatMessage.SenderType.USER, "quarterly forecast"));
+
+        assertEquals(1, chatMessageService.searchMessages("search-owner", "forecast", 0, 10).getNumberOfElements());
+
+        chatSessionService.deleteChatSession("search-owner", mine);
+        assertEquals(0, chatMessageService.searchMessages("search-owner", "forecast", 0, 10).getNumberOfElements());
+        assertEquals(0, chatMessageService.searchMessages("search-owner", "   ", 0, 10).getNumberOfElements());
+    }
+
+    private Long createSession(String userId, String name) {
+        return chatSessionService.createChatSession(userId, new CreateChatSessionRequest(name)).getId();
+    }
+}
@@ -0,0 +1,144 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTailCacheTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private final MessageTailCache cache = new MessageTailCache(5, 1_000_000, Duration.ofMinutes(1));
+
+    @Test
+    void fillThenAppendKeepsNewestMessagesNewestFirst() {
+        cache.fill(1L, "user1", newestFirst(1, 3), true, cache.stamp(1L));
+
+        cache.appendAfterCommit(1L, List.of(message(4), message(5), message(6), message(7)));
+
+        assertEquals(List.of(7L, 6L, 5L, 4L, 3L), ids(cache.latest(1L, "user1", 5).orElseThrow()));
+        assertEquals(List.of(7L, 6L), ids(cache.latest(1L, "user1", 2).orElseThrow()));
+    }
+
+    @Test
+    void incompleteTailOnlyAnswersWhatItHolds() {
+        cache.fill(1L, "user1", newestFirst(11, 15), false, cache.stamp(1L));
+
+        assertTrue(cache.latest(1L, "user1", 5).isPresent());
+        assertTrue(cache.latest(1L, "user1", 6).isEmpty());
+    }
+
+    @Test
+    void completeTailAnswersLargerLimitsUntilItOverflows() {
+        cache.fill(1L, "user1", newestFirst(1, 2), true, cache.stamp(1L));
+        assertEquals(2, cache.latest(1L, "user1", 50).orElseThrow().size());
+
+        cache.appendAfterCommit(1L, List.of(message(3), message(4), message(5), message(6)));
+
+        assertTrue(cache.latest(1L, "user1", 50).isEmpty(), "message 1 fell out, so the tail no longer holds the full history");
+        assertEquals(5, cache.latest(1L, "user1", 5).orElseThrow().size());
+    }
+
+    @Test
+    void outOfOrderAppendIsPlacedInConversationOrder() {
+        cache.fill(1L, "user1", newestFirst(1, 3), true, cache.stamp(1L));
+
+        cache.appendAfterCommit(1L, List.of(message(5), message(4)));
+
+        assertEquals(List.of(5L, 4L, 3L, 2L, 1L), ids(cache.latest(1L, "user1", 5).orElseThrow()));
+    }
+
+    @Test
+    void otherUserIsNeverServed() {
+        cache.fill(1L, "user1", newestFirst(1, 3), true, cache.stamp(1L));
+
+        assertTrue(cache.latest(1L, "intruder", 3).isEmpty());
+    }
+
+    @Test
+    void fillRacingAWriteIsDropped() {
+        long stamp = cache.stamp(1L);
+        cache.appendAfterCommit(1L, List.of(message(4)));
+
+        cache.fill(1L, "user1", newestFirst(1, 3), true, stamp);
+
+        assertTrue(cache.latest(1L, "user1", 1).isEmpty());
+    }
+
+    @Test
+    void invalidationDropsSessionOrUser() {
+        cache.fill(1L, "user1", newestFirst(1, 3), true, cache.stamp(1L));
+        cache.fill(2L, "user1", newestFirst(1, 3), true, cache.stamp(2L));
+        cache.fill(3L, "user2", newestFirst(1, 3), true, cache.stamp(3L));
+
+        cache.invalidateAfterCommit(1L);
+        assertTrue(cache.latest(1L, "user1", 1).isEmpty());
+        assertTrue(cache.latest(2L, "user1", 1).isPresent());
+
+        cache.invalidateUserAfterCommit("user1");
+        assertTrue(cache.latest(2L, "user1", 1).isEmpty());
+        assertTrue(cache.latest(3L, "user2", 1).isPresent());
+    }
+
+    @Test
+    void tailExpiresMaxStalenessAfterItsFillDespiteLocalAppends() {
+        AtomicLong now = new AtomicLong();
+        MessageTailCache expiring = new MessageTailCache(5, 1_000_000, Duration.ofSeconds(5), now::get);
+        expiring.fill(1L, "user1", newestFirst(1, 3), true, expiring.stamp(1L));
+
+        now.addAndGet(Duration.ofSeconds(4).toNanos());
+        expiring.appendAfterCommit(1L, List.of(message(4)));
+        assertTrue(expiring.latest(1L, "user1", 1).isPresent());
+
+        // Another node's writes are only picked up by a new fill, however busy this node keeps the tail
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertTrue(expiring.latest(1L, "user1", 1).isEmpty());
+    }
+
+    @Test
+    void memoryBudgetBoundsTheNumberOfTails() {
+        MessageTailCache small = new MessageTailCache(5, 20_000, Duration.ofMinutes(1));
+        for (long sessionId = 1; sessionId <= 100; sessionId++) {
+            small.fill(sessionId, "user1", newestFirst(1, 5), true, small.stamp(sessionId));
+        }
+
+        long cached = 0;
+        for (long sessionId = 1; sessionId <= 100; sessionId++) {
+            if (small.latest(sessionId, "user1", 1).isPresent()) {
+                cached++;
+            }
+        }
+        assertTrue(cached > 0 && cached < 100, "Expected the budget to evict some tails, kept " + cached);
+    }
+
+    private static List<ChatMessageDto> newestFirst(int from, int to) {
+        List<ChatMessageDto> messages = new ArrayList<>();
+        for (int i = to; i >= from; i--) {
+            messages.add(message(i));
+        }
+        return messages;
+    }
+
+    private static ChatMessageDto message(long id) {
+        ChatMessageDto message = new ChatMessageDto();
+        message.setId(id);
+        message.setChatSessionId(1L);
+        message.setSenderType(ChatMessage.SenderType.USER);
+        message.setContent("turn " + id);
+        message.setCreatedAt(T0.plusSeconds(id));
+        return message;
+    }
+
+    private static List<Long> ids(List<ChatMessageDto> messages) {
+        return messages.stream().map(ChatMessageDto::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,86 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tests normally only get a simple registry; this one checks the Prometheus export too
+@AutoConfigureObservability(tracing = false)
+class MetricsIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    private static final Set<String> HIGH_CARDINALITY_TAGS = Set.of("userId", "user_id", "sessionId", "session_id", "messageId");
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PrometheusMeterRegistry prometheusMeterRegistry;
+
+    @Test
+    void serviceAndRepositoryCallsAreTimed() {
+        Long sessionId = chatSessionService.createChatSession("metrics-timed", new CreateChatSessionRequest("Timed")).getId();
+        chatMessageService.getMessageCount("metrics-timed", sessionId);
+
+        assertTrue(meterRegistry.get("chat.service").tags("class", ChatSessionService.class.getName(), "method", "createChatSession").timer().count() > 0);
+        assertTrue(meterRegistry.get("chat.service").tags("class", ChatMessageService.class.getName(), "method", "getMessageCount").timer().count() > 0);
+        assertTrue(meterRegistry.get("spring.data.repository.invocations").tags("repository", "ChatMessageRepository").timers().stream()
+                .anyMatch(timer -> timer.count() > 0));
+    }
+
+    @Test
+    void payloadSizesAreRecordedInBytes() {
+        Long sessionId = chatSessionService.createChatSession("metrics-payload", new CreateChatSessionRequest("Payload")).getId();
+        DistributionSummary content = meterRegistry.get("chat.message.payload").tag("field", "content").summary();
+        DistributionSummary context = meterRegistry.get("chat.message.payload").tag("field", "context").summary();
+        long contentCount = content.count();
+        double contentTotal = content.totalAmount();
+        double contextTotal = context.totalAmount();
+
+        chatMessageService.addMessage("metrics-payload", sessionId, new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "héllo", "ctx"));
+
+        assertEquals(contentCount + 1, content.count());
+        assertEquals(6, content.totalAmount() - contentTotal);
+        assertEquals(3, context.totalAmount() - contextTotal);
+    }
+
+    @Test
+    void connectionPoolIsPublishedAndScrapeable() {
+        assertNotNull(meterRegistry.find("hikaricp.connections.active").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections.pending").gauge());
+
+        chatSessionService.getSessionStats("metrics-scrape");
+        String scrape = prometheusMeterRegistry.scrape();
+        assertTrue(scrape.contains("chat_service_seconds_bucket"), "chat.service histogram missing from the scrape");
+        assertTrue(scrape.contains("hikaricp_connections_active"));
+    }
+
+    @Test
+    void noMeterIsTaggedPerUserOrSession() {
+        chatSessionService.getAllChatSessions("metrics-tags");
+
+        for (Meter meter : meterRegistry.getMeters()) {
+            for (Tag tag : meter.getId().getTags()) {
+                assertFalse(HIGH_CARDINALITY_TAGS.contains(tag.getKey()), meter.getId() + " has a per-entity tag");
+            }
+        }
+    }
+}
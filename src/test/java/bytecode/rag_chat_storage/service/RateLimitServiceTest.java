@@ -0,0 +1,138 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.ratelimit.InMemoryBucketStore;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitServiceTest {
+
+    @Test
+    void limitsEachKeyIndependently() {
+        RateLimitService service = node(new InMemoryBucketStore(1000, Duration.ofMinutes(1)), 0);
+        BucketConfiguration limit = perMinute(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(service.resolveBucket("user:a", limit).tryConsume(1));
+        }
+        assertFalse(service.resolveBucket("user:a", limit).tryConsume(1));
+        assertTrue(service.resolveBucket("user:b", limit).tryConsume(1));
+    }
+
+    @Test
+    void nodesSharingAStoreShareTheLimit() {
+        InMemoryBucketStore store = new InMemoryBucketStore(1000, Duration.ofMinutes(1));
+        RateLimitService first = node(store, 0);
+        RateLimitService second = node(store, 0);
+
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            RateLimitService node = i % 2 == 0 ? first : second;
+            if (node.resolveBucket("user:shared", perMinute(4)).tryConsume(1)) {
+                allowed++;
+            }
+        }
+        assertEquals(4, allowed);
+    }
+
+    @Test
+    void prefetchedTokensSpareTheStore() {
+        CountingStore store = new CountingStore();
+        RateLimitService service = node(store, 10);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(service.resolveBucket("user:busy", perMinute(1000)).tryConsume(1));
+        }
+        assertTrue(store.operations.get() <= 15, "Expected batched syncs, saw " + store.operations.get());
+    }
+
+    @Test
+    void defaultPrefetchSyncsOncePerBatchOfABurstLimit() {
+        CountingStore store = new CountingStore();
+        // Shipped defaults: at most 20 tokens, half the smallest capacity
+        RateLimitService service = new RateLimitService(store, 20, 0.5, Duration.ofMinutes(1), 1000, Duration.ofMinutes(10));
+        // The standard read policy: a 20/s burst within 300/min
+        BucketConfiguration reads = BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(20).refillGreedy(20, Duration.ofSeconds(1)).build())
+                .addLimit(Bandwidth.builder().capacity(300).refillGreedy(300, Duration.ofMinutes(1)).build())
+                .build();
+
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (service.resolveBucket("user:reader", reads).tryConsume(1)) {
+                accepted++;
+            }
+        }
+        assertEquals(20, accepted);
+        assertTrue(store.operations.get() * 4 <= accepted,
+                "Expected one sync per 10 requests, saw " + store.operations.get() + " for " + accepted);
+    }
+
+    @Test
+    void allowanceIsBoundedByTheSmallestCapacity() {
+        RateLimitService service = new RateLimitService(new InMemoryBucketStore(1000, Duration.ofMinutes(1)),
+                20, 0.5, Duration.ofSeconds(1), 1000, Duration.ofMinutes(10));
+
+        assertEquals(10, service.unsynchronizedAllowance(perMinute(20)));
+        assertEquals(20, service.unsynchronizedAllowance(perMinute(1500)));
+        assertEquals(1, service.unsynchronizedAllowance(perMinute(2)));
+    }
+
+    @Test
+    void storeIsBoundedUnderKeyScans() {
+        InMemoryBucketStore store = new InMemoryBucketStore(100, Duration.ofMinutes(1));
+        RateLimitService service = new RateLimitService(store, 0, 0.5, Duration.ofSeconds(1), 50, Duration.ofMinutes(10));
+
+        for (int i = 0; i < 5000; i++) {
+            service.resolveBucket("ip:10.0." + (i / 256) + "." + (i % 256), perMinute(5)).tryConsume(1);
+        }
+        assertTrue(store.size() <= 100, "Store holds " + store.size() + " buckets");
+    }
+
+    @Test
+    void fullyRefilledStateIsNotKept() throws InterruptedException {
+        InMemoryBucketStore store = new InMemoryBucketStore(1000, Duration.ZERO);
+        RateLimitService service = node(store, 0);
+
+        // One token refilling over 500ms: the state must live that long, and no longer
+        BucketConfiguration slowRefill = BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(1).refillGreedy(1, Duration.ofMillis(500)).build())
+                .build();
+        assertTrue(service.resolveBucket("user:idle", slowRefill).tryConsume(1));
+        assertTrue(store.getProxyConfiguration("user:idle").isPresent());
+        Thread.sleep(700);
+
+        assertTrue(store.getProxyConfiguration("user:idle").isEmpty());
+    }
+
+    private static RateLimitService node(InMemoryBucketStore store, long maxUnsynchronizedTokens) {
+        return new RateLimitService(store, maxUnsynchronizedTokens, 0.5, Duration.ofMinutes(1), 1000, Duration.ofMinutes(10));
+    }
+
+    private static BucketConfiguration perMinute(long capacity) {
+        return BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(capacity).refillGreedy(capacity, Duration.ofMinutes(1)).build())
+                .build();
+    }
+
+    private static class CountingStore extends InMemoryBucketStore {
+
+        private final AtomicInteger operations = new AtomicInteger();
+
+        CountingStore() {
+            super(1000, Duration.ofMinutes(1));
+        }
+
+        @Override
+        protected CompareAndSwapOperation beginCompareAndSwapOperation(String key) {
+            operations.incrementAndGet();
+            return super.beginCompareAndSwapOperation(key);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.config.CacheConfig;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.UpdateChatSessionRequest;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionCacheIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void repeatedReadsAreServedFromCache() {
+        chatSessionService.createChatSession("cache-hits", new CreateChatSessionRequest("One"));
+        chatSessionService.getAllChatSessions("cache-hits");
+        chatSessionService.getFavoriteChatSessions("cache-hits");
+        chatSessionService.getSessionStats("cache-hits");
+
+        statistics().clear();
+        assertEquals(1, chatSessionService.getAllChatSessions("cache-hits").size());
+        assertEquals(0, chatSessionService.getFavoriteChatSessions("cache-hits").size());
+        assertEquals(1, chatSessionService.getSessionStats("cache-hits").getTotalSessions());
+
+        assertEquals(0, statistics().getPrepareStatementCount());
+    }
+
+    @Test
+    void createInvalidatesListAndStatsOnly() {
+        chatSessionService.createChatSession("cache-create", new CreateChatSessionRequest("One"));
+        warm("cache-create");
+
+        chatSessionService.createChatSession("cache-create", new CreateChatSessionRequest("Two"));
+
+        assertFalse(cached(CacheConfig.SESSION_LISTS, "cache-create"));
+        assertFalse(cached(CacheConfig.SESSION_STATS, "cache-create"));
+        assertTrue(cached(CacheConfig.FAVORITE_SESSIONS, "cache-create"));
+        assertEquals(2, chatSessionService.getAllChatSessions("cache-create").size());
+        assertEquals(2, chatSessionService.getSessionStats("cache-create").getTotalSessions());
+    }
+
+    @Test
+    void updateInvalidatesListAndFavoritesOnly() {
+        Long sessionId = chatSessionService.createChatSession("cache-update", new CreateChatSessionRequest("Before")).getId();
+        warm("cache-update");
+
+        chatSessionService.updateChatSession("cache-update", sessionId, new UpdateChatSessionRequest("After"));
+
+        assertFalse(cached(CacheConfig.SESSION_LISTS, "cache-update"));
+        assertFalse(cached(CacheConfig.FAVORITE_SESSIONS, "cache-update"));
+        assertTrue(cached(CacheConfig.SESSION_STATS, "cache-update"));
+        assertEquals("After", chatSessionService.getAllChatSessions("cache-update").get(0).getName());
+    }
+
+    @Test
+    void toggleFavoriteAndDeleteInvalidateEverything() {
+        Long sessionId = chatSessionService.createChatSession("cache-favorite", new CreateChatSessionRequest("Fav")).getId();
+        warm("cache-favorite");
+
+        chatSessionService.toggleFavorite("cache-favorite", sessionId);
+
+        assertEquals(1, chatSessionService.getFavoriteChatSessions("cache-favorite").size());
+        assertEquals(1, chatSessionService.getSessionStats("cache-favorite").getFavoriteSessions());
+        assertTrue(chatSessionService.getAllChatSessions("cache-favorite").get(0).getIsFavorite());
+
+        chatSessionService.deleteChatSession("cache-favorite", sessionId);
+
+        assertTrue(chatSessionService.getAllChatSessions("cache-favorite").isEmpty());
+        assertTrue(chatSessionService.getFavoriteChatSessions("cache-favorite").isEmpty());
+        assertEquals(0, chatSessionService.getSessionStats("cache-favorite").getTotalSessions());
+    }
+
+    @Test
+    void otherUsersEntriesAreUntouched() {
+        chatSessionService.createChatSession("cache-neighbour", new CreateChatSessionRequest("Kept"));
+        warm("cache-neighbour");
+
+        chatSessionService.createChatSession("cache-writer", new CreateChatSessionRequest("Other"));
+
+        assertTrue(cached(CacheConfig.SESSION_LISTS, "cache-neighbour"));
+        assertTrue(cached(CacheConfig.SESSION_STATS, "cache-neighbour"));
+    }
+
+    @Test
+    void hitsAndMissesAreRecordedAndPublished() {
+        CacheStats before = nativeStats(CacheConfig.SESSION_STATS);
+
+        chatSessionService.getSessionStats("cache-metrics");
+        chatSessionService.getSessionStats("cache-metrics");
+
+        CacheStats after = nativeStats(CacheConfig.SESSION_STATS);
+        assertEquals(1, after.missCount() - before.missCount());
+        assertEquals(1, after.hitCount() - before.hitCount());
+
+        assertNotNull(meterRegistry.find("cache.gets").tag("cache", CacheConfig.SESSION_STATS).tag("result", "hit").functionCounter());
+        assertNotNull(meterRegistry.find("cache.evictions").tag("cache", CacheConfig.SESSION_STATS).functionCounter());
+    }
+
+    private void warm(String userId) {
+        chatSessionService.getAllChatSessions(userId);
+        chatSessionService.getFavoriteChatSessions(userId);
+        chatSessionService.getSessionStats(userId);
+    }
+
+    private boolean cached(String cacheName, String userId) {
+        return cacheManager.getCache(cacheName).get(userId) != null;
+    }
+
+    private CacheStats nativeStats(String cacheName) {
+        TransactionAwareCacheDecorator cache = (TransactionAwareCacheDecorator) cacheManager.getCache(cacheName);
+        return ((CaffeineCache) cache.getTargetCache()).getNativeCache().stats();
+    }
+}
@@ -0,0 +1,141 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Session deletion with a low async threshold, so both the in-request and the background purge paths are exercised.
+ */
+@TestPropertySource(properties = {
+        "chat.session.purge.async-threshold=100",
+        "chat.session.purge.chunk-size=40"
+})
+class SessionDeletionIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private SessionPurgeService sessionPurgeService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void deleteChatSession_smallSessionIsThreeStatements() {
+        Long sessionId = createSessionWithMessages("delete-small", 60);
+
+        statistics().clear();
+        chatSessionService.deleteChatSession("delete-small", sessionId);
+
+        // count (ownership) + DELETE messages + DELETE session; no message is loaded
+        assertEquals(3, statistics().getPrepareStatementCount());
+        assertEquals(0, statistics().getEntityLoadCount());
+        assertEquals(0, sessionRows(sessionId));
+        assertEquals(0, messageRows(sessionId));
+    }
+
+    @Test
+    void deleteChatSession_largeSessionIsHiddenThenPurgedInBackground() throws InterruptedException {
+        Long sessionId = createSessionWithMessages("delete-large", 150);
+
+        chatSessionService.deleteChatSession("delete-large", sessionId);
+
+        assertThrows(ResourceNotFoundException.class, () -> chatSessionService.getChatSession("delete-large", sessionId, false));
+        assertThrows(ResourceNotFoundException.class, () -> chatMessageService.getMessageCount("delete-large", sessionId));
+        assertTrue(chatSessionService.getAllChatSessions("delete-large").isEmpty());
+
+        awaitSessionRowGone(sessionId);
+        assertEquals(0, messageRows(sessionId));
+    }
+
+    @Test
+    void purgeSession_deletesInChunks() {
+        Long sessionId = createSessionWithMessages("purge-chunks", 90);
+        jdbcTemplate.update("UPDATE chat_sessions SET deleted_at = now() WHERE id = ?", sessionId);
+
+        assertEquals(90, sessionPurgeService.purgeSession(sessionId));
+        assertEquals(0, sessionRows(sessionId));
+    }
+
+    @Test
+    void deleteChatSession_rejectsOtherUsersSession() {
+        Long sessionId = createSessionWithMessages("delete-owner", 5);
+
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatSessionService.deleteChatSession("delete-intruder", sessionId));
+
+        assertEquals(1, sessionRows(sessionId));
+        assertEquals(5, messageRows(sessionId));
+    }
+
+    @Test
+    void deleteAllChatSessions_removesOnlyThatUsersSessions() {
+        Long first = createSessionWithMessages("delete-all", 10);
+        Long second = createSessionWithMessages("delete-all", 0);
+        Long other = createSessionWithMessages("delete-all-bystander", 10);
+
+        assertEquals(2, chatSessionService.deleteAllChatSessions("delete-all"));
+
+        assertEquals(0, sessionRows(first) + sessionRows(second));
+        assertEquals(0, messageRows(first));
+        assertEquals(1, sessionRows(other));
+        assertEquals(10, messageRows(other));
+    }
+
+    @Test
+    void deleteAllChatSessions_largeHistoryIsPurgedInBackground() throws InterruptedException {
+        Long first = createSessionWithMessages("delete-all-large", 70);
+        Long second = createSessionWithMessages("delete-all-large", 70);
+
+        assertEquals(2, chatSessionService.deleteAllChatSessions("delete-all-large"));
+        assertTrue(chatSessionService.getAllChatSessions("delete-all-large").isEmpty());
+
+        awaitSessionRowGone(first);
+        awaitSessionRowGone(second);
+        assertEquals(0, messageRows(first) + messageRows(second));
+    }
+
+    private void awaitSessionRowGone(Long sessionId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sessionRows(sessionId) > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Session " + sessionId + " was not purged");
+            Thread.sleep(50);
+        }
+    }
+
+    private int sessionRows(Long sessionId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM chat_sessions WHERE id = ?", Integer.class, sessionId);
+    }
+
+    private int messageRows(Long sessionId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM chat_messages WHERE chat_session_id = ?", Integer.class, sessionId);
+    }
+
+    private Long createSessionWithMessages(String userId, int count) {
+        Long sessionId = chatSessionService.createChatSession(userId, new CreateChatSessionRequest("Session")).getId();
+        if (count > 0) {
+            List<AddMessageRequest> requests = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                requests.add(new AddMessageRequest(ChatMessage.SenderType.USER, "turn " + i));
+            }
+            chatMessageService.addMessages(userId, sessionId, requests);
+        }
+        return sessionId;
+    }
+}
@@ -0,0 +1,103 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.ChatSessionDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.dto.SessionSearchCursor.Mode;
+import bytecode.rag_chat_storage.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionNameSearchIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Test
+    void fuzzySearch_toleratesTyposAndRanksClosestFirst() {
+        create("name-fuzzy", "Budget", "Quarterly budget review", "Vacation ideas", "Budgeting for the offsite");
+
+        List<String> names = names(chatSessionService.searchChatSessions("name-fuzzy", "budjet", Mode.FUZZY, null, 10));
+        assertTrue(names.containsAll(List.of("Budget", "Quarterly budget review")), names.toString());
+        assertFalse(names.contains("Vacation ideas"));
+
+        List<String> ranked = names(chatSessionService.searchChatSessions("name-fuzzy", "budget reviw", Mode.FUZZY, null, 10));
+        assertEquals("Quarterly budget review", ranked.get(0));
+    }
+
+    @Test
+    void fuzzySearch_pagesThroughEveryMatchOnce() {
+        for (int i = 0; i < 7; i++) {
+            create("name-fuzzy-pages", "Roadmap " + i);
+        }
+        create("name-fuzzy-pages", "Groceries");
+
+        List<String> seen = new ArrayList<>();
+        CursorPageDto<ChatSessionDto> page = chatSessionService.searchChatSessions("name-fuzzy-pages", "roadmap", Mode.FUZZY, null, 3);
+        seen.addAll(names(page));
+        while (page.isHasNext()) {
+            assertEquals(3, page.getContent().size());
+            page = chatSessionService.searchChatSessions("name-fuzzy-pages", "roadmap", Mode.FUZZY, page.getNextCursor(), 3);
+            seen.addAll(names(page));
+        }
+
+        assertEquals(7, seen.size());
+        assertEquals(7, new HashSet<>(seen).size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void prefixSearch_matchesNameStartsCaseInsensitivelyInNameOrder() {
+        create("name-prefix", "roadmap Q3", "Project roadmap", "Road trip", "ROADMAP Q1", "Rust notes");
+
+        CursorPageDto<ChatSessionDto> first = chatSessionService.searchChatSessions("name-prefix", "Road", Mode.PREFIX, null, 2);
+        assertEquals(List.of("Road trip", "ROADMAP Q1"), names(first));
+        assertTrue(first.isHasNext());
+
+        CursorPageDto<ChatSessionDto> second = chatSessionService.searchChatSessions("name-prefix", "Road", Mode.PREFIX, first.getNextCursor(), 2);
+        assertEquals(List.of("roadmap Q3"), names(second));
+        assertFalse(second.isHasNext());
+    }
+
+    @Test
+    void search_excludesOtherUsersAndDeletedSessions() {
+        Long deleted = create("name-owner", "Roadmap old");
+        create("name-owner", "Roadmap new");
+        create("name-intruder", "Roadmap theirs");
+        chatSessionService.deleteChatSession("name-owner", deleted);
+
+        assertEquals(List.of("Roadmap new"), names(chatSessionService.searchChatSessions("name-owner", "roadmap", Mode.FUZZY, null, 10)));
+        assertEquals(List.of("Roadmap new"), names(chatSessionService.searchChatSessions("name-owner", "road", Mode.PREFIX, null, 10)));
+    }
+
+    @Test
+    void search_blankQueryIsEmptyAndForeignCursorIsRejected() {
+        create("name-cursor", "Roadmap 1", "Roadmap 2");
+
+        assertTrue(chatSessionService.searchChatSessions("name-cursor", "  ", Mode.FUZZY, null, 10).getContent().isEmpty());
+
+        String prefixCursor = chatSessionService.searchChatSessions("name-cursor", "road", Mode.PREFIX, null, 1).getNextCursor();
+        assertNotNull(prefixCursor);
+        assertThrows(InvalidCursorException.class,
+                () -> chatSessionService.searchChatSessions("name-cursor", "road", Mode.FUZZY, prefixCursor, 1));
+    }
+
+    private Long create(String userId, String... names) {
+        Long id = null;
+        for (String name : names) {
+            id = chatSessionService.createChatSession(userId, new CreateChatSessionRequest(name)).getId();
+        }
+        return id;
+    }
+
+    private static List<String> names(CursorPageDto<ChatSessionDto> page) {
+        return page.getContent().stream().map(ChatSessionDto::getName).toList();
+    }
+}
@@ -0,0 +1,152 @@
+package bytecode.rag_chat_storage.service;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
+import bytecode.rag_chat_storage.repository.ChatMessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Asserts how many SQL statements each API-level operation costs once ownership checks are folded into the
+ * real query and memoised per request. Each test runs inside a simulated HTTP request.
+ */
+class SessionOwnershipStatementCountTest extends AbstractPostgresIntegrationTest {
+
+    private static final String USER = "statement-count";
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long sessionId;
+    private Long messageId;
+
+    @BeforeEach
+    void setUp() {
+        sessionId = chatSessionService.createChatSession(USER, new CreateChatSessionRequest("Counted")).getId();
+        List<ChatMessageDto> saved = chatMessageService.addMessages(USER, sessionId, List.of(
+                new AddMessageRequest(ChatMessage.SenderType.USER, "question"),
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "answer")));
+        messageId = saved.get(0).getId();
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        statistics().clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void getMessages_isOneStatement() {
+        assertEquals(2, chatMessageService.getMessagesBySessionId(USER, sessionId, false).size());
+        assertStatements(1);
+    }
+
+    @Test
+    void cursorPage_isOneStatement() {
+        chatMessageService.getMessagesBySessionId(USER, sessionId, null, 10, false);
+        assertStatements(1);
+    }
+
+    @Test
+    void getLatestMessages_isOneStatement() {
+        chatMessageService.getLatestMessages(USER, sessionId, 10, false);
+        assertStatements(1);
+    }
+
+    @Test
+    void getMessageCount_isOneStatement() {
+        assertEquals(2, chatMessageService.getMessageCount(USER, sessionId));
+        assertStatements(1);
+    }
+
+    @Test
+    void getMessage_isOneStatement() {
+        assertEquals("question", chatMessageService.getMessage(USER, sessionId, messageId, false).getContent());
+        assertStatements(1);
+    }
+
+    @Test
+    void deleteMessage_isOneStatement() {
+        chatMessageService.deleteMessage(USER, sessionId, messageId);
+        assertStatements(1);
+    }
+
+    @Test
+    void getChatSession_loadsSessionOnce() {
+        chatSessionService.getChatSession(USER, sessionId, false);
+        // session row + tail window; the message service reuses the ownership established by the first
+        assertStatements(2);
+    }
+
+    @Test
+    void ownershipIsMemoisedAcrossCallsInOneRequest() {
+        chatMessageService.verifySessionAccess(USER, sessionId);
+        chatMessageService.verifySessionAccess(USER, sessionId);
+        chatMessageService.streamMessages(USER, sessionId, false, message -> { });
+        // one ownership check + the streaming query
+        assertStatements(2);
+    }
+
+    @Test
+    void reads_loadNoEntities() {
+        chatSessionService.getChatSession(USER, sessionId, false);
+        chatSessionService.getAllChatSessions(USER);
+        chatMessageService.getMessagesBySessionId(USER, sessionId, 0, 10, false);
+        chatMessageService.getMessage(USER, sessionId, messageId, false);
+        chatMessageService.streamMessages(USER, sessionId, false, message -> { });
+        // Rows are projected straight into DTOs, so nothing is hydrated or kept in the persistence context
+        assertEquals(0, statistics().getEntityLoadCount(), "entities loaded");
+    }
+
+    @Test
+    void messageEntityToDto_leavesSessionUnloaded() {
+        List<ChatMessageDto> messages = transactionTemplate.execute(status ->
+                chatMessageRepository.findAllById(List.of(messageId)).stream().map(ChatMessageDto::new).toList());
+
+        assertEquals(sessionId, messages.get(0).getChatSessionId());
+        // The session ID comes from the message row; the lazy session is neither fetched nor initialised
+        assertEquals(0, statistics().getEntityFetchCount(), "lazy associations fetched");
+        assertEquals(1, statistics().getEntityLoadCount(), "entities loaded");
+        assertStatements(1);
+    }
+
+    @Test
+    void otherUsersSession_isStillRejected() {
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.getMessagesBySessionId("intruder", sessionId, false));
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.getMessage("intruder", sessionId, messageId, false));
+        assertThrows(ResourceNotFoundException.class, () ->
+                chatMessageService.deleteMessage("intruder", sessionId, messageId));
+        assertEquals("question", chatMessageService.getMessage(USER, sessionId, messageId, false).getContent());
+    }
+
+    private void assertStatements(long expected) {
+        assertEquals(expected, statistics().getPrepareStatementCount(), "SQL statements executed");
+    }
+}
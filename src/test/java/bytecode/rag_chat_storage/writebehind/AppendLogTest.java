@@ -0,0 +1,136 @@
+package bytecode.rag_chat_storage.writebehind;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppendLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsAreReplayedAfterReopening() throws IOException {
+        try (AppendLog log = open(1024)) {
+            log.replay((position, payload) -> fail("new log should be empty"));
+            log.append(bytes("one"));
+            long end = log.append(bytes("two"));
+            log.awaitDurable(end);
+        }
+
+        try (AppendLog log = open(1024)) {
+            assertEquals(List.of("one", "two"), replay(log));
+            log.append(bytes("three"));
+        }
+        try (AppendLog log = open(1024)) {
+            assertEquals(List.of("one", "two", "three"), replay(log));
+        }
+    }
+
+    @Test
+    void checkpointedRecordsAreNotReplayed() throws IOException {
+        try (AppendLog log = open(1024)) {
+            log.replay((position, payload) -> { });
+            long first = log.append(bytes("one"));
+            log.append(bytes("two"));
+            log.checkpoint(first);
+        }
+
+        try (AppendLog log = open(1024)) {
+            assertEquals(List.of("two"), replay(log));
+        }
+    }
+
+    @Test
+    void recordsRollOverSegmentsAndConsumedSegmentsAreDeleted() throws IOException {
+        // 20 + 8 header bytes per record, so two fit in a 64-byte segment
+        List<Long> ends = new ArrayList<>();
+        try (AppendLog log = open(64)) {
+            log.replay((position, payload) -> { });
+            for (int i = 0; i < 5; i++) {
+                ends.add(log.append(bytes(String.format("record-%013d", i))));
+            }
+            assertEquals(3, segmentCount());
+
+            log.checkpoint(ends.get(2));
+            assertEquals(2, segmentCount(), "the first segment is consumed, the second is not");
+        }
+
+        try (AppendLog log = open(64)) {
+            assertEquals(List.of(String.format("record-%013d", 3), String.format("record-%013d", 4)), replay(log));
+        }
+    }
+
+    @Test
+    void tornRecordEndsTheLogAndIsOverwritten() throws IOException {
+        try (AppendLog log = open(1024)) {
+            log.replay((position, payload) -> { });
+            log.append(bytes("intact"));
+            log.append(bytes("torn"));
+        }
+        corruptLastByteOf("torn", 14 + 8 + 4);
+
+        try (AppendLog log = open(1024)) {
+            assertEquals(List.of("intact"), replay(log));
+            log.append(bytes("after"));
+        }
+        try (AppendLog log = open(1024)) {
+            assertEquals(List.of("intact", "after"), replay(log));
+        }
+    }
+
+    @Test
+    void oversizedRecordIsRefused() throws IOException {
+        try (AppendLog log = open(64)) {
+            log.replay((position, payload) -> { });
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[57]));
+        }
+    }
+
+    private AppendLog open(int segmentSize) throws IOException {
+        return new AppendLog(directory, segmentSize);
+    }
+
+    private static List<String> replay(AppendLog log) throws IOException {
+        List<String> records = new ArrayList<>();
+        log.replay((position, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            records.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).count();
+        }
+    }
+
+    // Flip the last payload byte of a record, as if the crash hit before it reached the disk
+    private void corruptLastByteOf(String payload, int recordEnd) throws IOException {
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (payload.charAt(payload.length() - 1) + 1)}), recordEnd - 1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package bytecode.rag_chat_storage.writebehind;
+
+import bytecode.rag_chat_storage.AbstractPostgresIntegrationTest;
+import bytecode.rag_chat_storage.dto.AddMessageRequest;
+import bytecode.rag_chat_storage.dto.ChatMessageDto;
+import bytecode.rag_chat_storage.dto.CreateChatSessionRequest;
+import bytecode.rag_chat_storage.dto.CursorPageDto;
+import bytecode.rag_chat_storage.entity.ChatMessage;
+import bytecode.rag_chat_storage.exception.ResourceNotFoundException;
+import bytecode.rag_chat_storage.repository.MessageContextRepository;
+import bytecode.rag_chat_storage.service.ChatMessageService;
+import bytecode.rag_chat_storage.service.ChatSessionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Write-behind mode with a flush interval long enough that nothing is flushed unless a read asks for it,
+ * so reads are checked against messages that exist only in the append log.
+ */
+@TestPropertySource(properties = {
+        "chat.message.write-behind.enabled=true",
+        "chat.message.write-behind.flush-interval=PT1H"
+})
+class MessageWriteBehindIntegrationTest extends AbstractPostgresIntegrationTest {
+
+    @Autowired
+    private ChatSessionService chatSessionService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MessageContextRepository messageContextRepository;
+
+    @DynamicPropertySource
+    static void appendLogDirectory(DynamicPropertyRegistry registry) throws IOException {
+        Path directory = Files.createTempDirectory("append-log");
+        registry.add("chat.message.write-behind.directory", directory::toString);
+    }
+
+    @Test
+    void acceptedMessageIsReadableBeforeItIsFlushed() {
+        Long sessionId = session("wb-read-own");
+
+        ChatMessageDto accepted = chatMessageService.addMessage("wb-read-own", sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.USER, "Hello", "ctx"));
+
+        assertNotNull(accepted.getId());
+        assertEquals(0, messageRows(sessionId), "nothing reaches the database until a flush");
+        assertEquals(List.of(accepted.getId()), ids(chatMessageService.getMessagesBySessionId("wb-read-own", sessionId, false)));
+        assertEquals(List.of(accepted.getId()), ids(chatMessageService.getLatestMessages("wb-read-own", sessionId, 5, false)));
+        assertEquals(List.of(accepted.getId()), ids(chatMessageService.getLatestMessagePage("wb-read-own", sessionId, 5, false).getContent()));
+        assertEquals("ctx", chatMessageService.getMessage("wb-read-own", sessionId, accepted.getId(), true).getContext());
+        assertThrows(ResourceNotFoundException.class,
+                () -> chatMessageService.getMessagesBySessionId("other-user", sessionId, null, 5, false));
+    }
+
+    @Test
+    void countWaitsForTheFlushAndStoresTheAcknowledgedMessage() {
+        Long sessionId = session("wb-flush");
+        ChatMessageDto accepted = chatMessageService.addMessage("wb-flush", sessionId,
+                new AddMessageRequest(ChatMessage.SenderType.ASSISTANT, "Answer", "retrieved context"));
+
+        assertEquals(1, chatMessageService.getMessageCount("wb-flush", sessionId));
+
+        assertEquals(1, messageRows(sessionId));
+        ChatMessageDto stored = chatMessageService.getMessagesBySessionId("wb-flush", sessionId, true).get(0);
+        assertEquals(accepted.getId(), stored.getId());
+        assertEquals(accepted.getCreatedAt(), stored.getCreatedAt());
+        assertEquals("retrieved context", stored.getContext());
+        assertTrue(messageWriteBehind.pending(sessionId, "wb-flush").isEmpty());
+    }
+
+    @Test
+    void cursorPagesMergeStoredAndPendingMessagesInOrder() {
+        Long sessionId = session("wb-cursor");
+        List<ChatMessageDto> stored = chatMessageService.addMessages("wb-cursor", sessionId, requests(3));
+        chatMessageService.getMessageCount("wb-cursor", sessionId);
+        List<ChatMessageDto> pending = chatMessageService.addMessages("wb-cursor", sessionId, requests(2));
+
+        List<Long> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPageDto<ChatMessageDto> page = chatMessageService.getMessagesBySessionId("wb-cursor", sessionId, cursor, 2, false);
+            paged.addAll(ids(page.getContent()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<Long> expected = new ArrayList<>(ids(stored));
+        expected.addAll(ids(pending));
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    void messagesForADeletedSessionAreDroppedWithoutStallingTheFlusher() {
+        Long deletedId = session("wb-dropped");
+        Long keptId = session("wb-dropped");
+        chatMessageService.addMessage("wb-dropped", deletedId, new AddMessageRequest(ChatMessage.SenderType.USER, "Lost"));
+        chatMessageService.addMessage("wb-dropped", keptId, new AddMessageRequest(ChatMessage.SenderType.USER, "Kept"));
+        jdbcTemplate.update("DELETE FROM chat_sessions WHERE id = ?", deletedId);
+
+        assertEquals(1, chatMessageService.getMessageCount("wb-dropped", keptId));
+        assertEquals(0, messageRows(deletedId));
+    }
+
+    @Test
+    void unflushedMessagesAreRecoveredFromTheLogOnStart() throws IOException {
+        Long sessionId = session("wb-recover");
+        Path directory = Files.createTempDirectory("append-log-recover");
+        ChatMessageDto message = new ChatMessageDto();
+        message.setId(jdbcTemplate.queryForObject("SELECT nextval('chat_messages_seq')", Long.class));
+        message.setChatSessionId(sessionId);
+        message.setSenderType(ChatMessage.SenderType.USER);
+        message.setContent("Written before a crash");
+        message.setCreatedAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        try (AppendLog log = new AppendLog(directory, 1 << 20)) {
+            log.replay((position, payload) -> { });
+            log.awaitDurable(log.append(new LoggedMessage("wb-recover", message).encode()));
+        }
+
+        MessageWriteBehind restarted = new MessageWriteBehind(true, directory, 1 << 20, 500, Duration.ofMillis(10), 1000, Duration.ofSeconds(10));
+        ReflectionTestUtils.setField(restarted, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(restarted, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(restarted, "messageContextRepository", messageContextRepository);
+        restarted.start();
+        try {
+            assertEquals(1, restarted.pending(sessionId, "wb-recover").size());
+            restarted.awaitFlushed(sessionId);
+        } finally {
+            restarted.stop();
+        }
+
+        assertEquals(1, messageRows(sessionId));
+        assertEquals(message.getContent(), chatMessageService.getMessage("wb-recover", sessionId, message.getId(), false).getContent());
+    }
+
+    private Long session(String userId) {
+        return chatSessionService.createChatSession(userId, new CreateChatSessionRequest("Write-behind")).getId();
+    }
+
+    private static List<AddMessageRequest> requests(int count) {
+        List<AddMessageRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new AddMessageRequest(ChatMessage.SenderType.USER, "Turn " + i));
+        }
+        return requests;
+    }
+
+    private static List<Long> ids(List<ChatMessageDto> messages) {
+        return messages.stream().map(ChatMessageDto::getId).collect(Collectors.toList());
+    }
+
+    private int messageRows(Long sessionId) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM chat_messages WHERE chat_session_id = ?", Integer.class, sessionId);
+    }
+}